@@ -0,0 +1,16 @@
+@echo off
+setlocal
+
+set "LIB_DIR=..\lib"
+set "OUT_DIR=..\out"
+
+rem Usage: bench.bat WireFormatBenchmark [args...]
+if "%~1"=="" (
+    echo Usage: bench.bat ^<BenchmarkClass^> [args...]
+    exit /b 1
+)
+
+java -cp "%OUT_DIR%;%LIB_DIR%\*" com.ghost.bench.%*
+
+endlocal
+pause
@@ -0,0 +1,77 @@
+package com.ghost.bench;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Shared helpers for the benchmark mains
+ */
+final class BenchSupport {
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private BenchSupport() {
+    }
+
+    /**
+     * CPU time of the calling thread, falling back to wall time where unsupported
+     */
+    static long cpuNanos() {
+        if (threads.isCurrentThreadCpuTimeSupported()) {
+            return threads.getCurrentThreadCpuTime();
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Heap bytes allocated so far by the calling thread, or -1 where the JVM
+     * does not count them
+     */
+    static long allocatedBytes() {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * Draws something that compresses like a real lab screen: a desktop
+     * gradient, a couple of windows and lines of editor text. The variant moves
+     * the text cursor so consecutive frames differ slightly.
+     */
+    static BufferedImage syntheticScreen(int width, int height, int variant) {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, new Color(26, 26, 46), width, height, new Color(22, 33, 62)));
+        g.fillRect(0, 0, width, height);
+
+        // Editor window
+        int wx = width / 12, wy = height / 10, ww = width * 2 / 3, wh = height * 3 / 4;
+        g.setColor(new Color(30, 30, 30));
+        g.fillRect(wx, wy, ww, wh);
+        g.setColor(new Color(60, 60, 60));
+        g.fillRect(wx, wy, ww, 28);
+        g.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 14));
+        int line = 0;
+        for (int y = wy + 50; y < wy + wh - 10; y += 18, line++) {
+            g.setColor(line % 3 == 0 ? new Color(86, 156, 214) : new Color(212, 212, 212));
+            g.drawString("    public void handle" + line + "(CommandPacket packet) { return; }", wx + 12, y);
+        }
+        g.setColor(Color.WHITE);
+        g.fillRect(wx + 12 + (variant % 40) * 8, wy + 40 + (variant / 40 % 20) * 18, 2, 16);
+
+        // Side panel
+        g.setColor(new Color(45, 45, 70));
+        g.fillRect(wx + ww + 20, wy, width - (wx + ww + 40), wh / 2);
+
+        // Taskbar
+        g.setColor(new Color(20, 20, 20));
+        g.fillRect(0, height - 40, width, 40);
+        g.dispose();
+        return img;
+    }
+}
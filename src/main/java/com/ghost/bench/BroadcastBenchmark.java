@@ -0,0 +1,100 @@
+package com.ghost.bench;
+
+import com.ghost.net.CommandPacket;
+import com.ghost.net.EncodedPacket;
+import com.ghost.net.WireFormat;
+import com.google.gson.Gson;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * CPU per broadcast against client count for an ADMIN_SCREEN frame.
+ *
+ * per-client : JSON String built once, then every client's PrintWriter
+ *              re-encodes it to bytes (the original GhostServer path)
+ * shared     : EncodedPacket serialized once, each client writes a duplicate
+ *              of the same read-only buffer (JSON and binary wire modes)
+ *
+ * Sinks discard bytes, so the numbers are the sender's user-space cost; the
+ * kernel copy into each socket is the same for all paths and not included.
+ *
+ * Run: java -cp out;lib\* com.ghost.bench.BroadcastBenchmark [frameKB] [broadcasts]
+ */
+public class BroadcastBenchmark {
+    private static final int[] CLIENT_COUNTS = { 1, 5, 10, 20, 40, 80 };
+
+    public static void main(String[] args) {
+        int frameKb = args.length > 0 ? Integer.parseInt(args[0]) : 150;
+        int broadcasts = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        byte[] frame = new byte[frameKb * 1024];
+        new java.util.Random(42).nextBytes(frame); // JPEG data is effectively random
+
+        // Warm up
+        for (int i = 0; i < 3; i++) {
+            perClient(frame, 10, broadcasts / 4 + 1);
+            shared(frame, 10, broadcasts / 4 + 1, WireFormat.Mode.JSON);
+            shared(frame, 10, broadcasts / 4 + 1, WireFormat.Mode.BINARY);
+        }
+
+        System.out.println("ADMIN_SCREEN " + frameKb + " KB, " + broadcasts + " broadcasts per point");
+        System.out.println("CPU microseconds per broadcast:");
+        System.out.printf("%8s %14s %14s %14s%n", "clients", "per-client", "shared json", "shared binary");
+        for (int clients : CLIENT_COUNTS) {
+            System.out.printf("%8d %14.1f %14.1f %14.1f%n", clients,
+                    perClient(frame, clients, broadcasts) / 1000.0,
+                    shared(frame, clients, broadcasts, WireFormat.Mode.JSON) / 1000.0,
+                    shared(frame, clients, broadcasts, WireFormat.Mode.BINARY) / 1000.0);
+        }
+    }
+
+    private static long perClient(byte[] frame, int clients, int broadcasts) {
+        Gson gson = new Gson();
+        List<PrintWriter> writers = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            writers.add(new PrintWriter(new NullOutputStream(), true));
+        }
+
+        long start = BenchSupport.cpuNanos();
+        for (int b = 0; b < broadcasts; b++) {
+            String base64 = Base64.getEncoder().encodeToString(frame);
+            String json = gson.toJson(new CommandPacket(CommandPacket.Type.ADMIN_SCREEN, "ADMIN", base64));
+            for (PrintWriter w : writers) {
+                w.println(json);
+            }
+        }
+        return (BenchSupport.cpuNanos() - start) / broadcasts;
+    }
+
+    private static long shared(byte[] frame, int clients, int broadcasts, WireFormat.Mode mode) {
+        long sink = 0;
+        long start = BenchSupport.cpuNanos();
+        for (int b = 0; b < broadcasts; b++) {
+            EncodedPacket encoded = new EncodedPacket(
+                    new CommandPacket(CommandPacket.Type.ADMIN_SCREEN, "ADMIN", frame));
+            for (int c = 0; c < clients; c++) {
+                ByteBuffer view = encoded.bufferFor(mode);
+                sink += view.remaining();
+                view.position(view.limit()); // What a completed channel write leaves behind
+            }
+        }
+        long elapsed = BenchSupport.cpuNanos() - start;
+        if (sink == 0)
+            throw new IllegalStateException();
+        return elapsed / broadcasts;
+    }
+
+    private static class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
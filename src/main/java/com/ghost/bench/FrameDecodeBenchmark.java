@@ -0,0 +1,63 @@
+package com.ghost.bench;
+
+import com.ghost.util.JpegDecoder;
+import com.ghost.util.ScreenCapture;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import javax.imageio.ImageIO;
+
+/**
+ * Heap allocated and decode CPU per screen frame on the viewing side: a new
+ * image and pixel array per frame (as the dashboards did) against
+ * JpegDecoder's reused buffer, at full size and subsampled for the wall.
+ *
+ * JavaFX needs a display, so the per-frame path is measured with ImageIO,
+ * which allocates like new Image: a decoded image plus a pixel array per
+ * frame. For the running dashboard, record allocations with JFR instead:
+ * java -XX:StartFlightRecording=duration=60s,filename=admin.jfr,settings=profile ...
+ * then jfr print --events jdk.ObjectAllocationSample admin.jfr
+ *
+ * Run: java -cp out;lib\* com.ghost.bench.FrameDecodeBenchmark [width] [height] [frames]
+ */
+public class FrameDecodeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 1536;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 864;
+        int frames = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+        byte[][] jpegs = new byte[8][];
+        for (int i = 0; i < jpegs.length; i++) {
+            jpegs[i] = ScreenCapture.encodeJpeg(BenchSupport.syntheticScreen(width, height, i), 0.85f);
+        }
+
+        JpegDecoder decoder = new JpegDecoder();
+        int[] pixels = new int[width * height];
+        String[] names = { "new per frame", "reused, full", "reused, 1/4" };
+
+        System.out.println(width + "x" + height + ", " + frames + " frames");
+        System.out.printf("%-16s %14s %14s%n", "", "KB alloc/frame", "CPU us/frame");
+        for (int path = 0; path < names.length; path++) {
+            for (int warm = 0; warm < 2; warm++) { // First pass warms up
+                long bytes = BenchSupport.allocatedBytes();
+                long cpu = BenchSupport.cpuNanos();
+                for (int f = 0; f < frames; f++) {
+                    byte[] jpeg = jpegs[f % jpegs.length];
+                    if (path == 0) {
+                        BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+                        pixels = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+                    } else {
+                        int factor = path == 1 ? 1 : 4;
+                        decoder.decode(jpeg, 0, jpeg.length, (w, h) -> factor);
+                        decoder.copyTo(0, 0, decoder.getWidth(), decoder.getHeight(), pixels, 0, decoder.getWidth());
+                    }
+                }
+                cpu = BenchSupport.cpuNanos() - cpu;
+                bytes = BenchSupport.allocatedBytes() - bytes;
+                if (warm == 1)
+                    System.out.printf("%-16s %14.1f %14.1f%n", names[path], bytes / 1024.0 / frames,
+                            cpu / 1000.0 / frames);
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.ghost.bench;
+
+import com.ghost.net.MulticastFrameReceiver;
+import com.ghost.net.MulticastFrameSender;
+import com.ghost.util.Config;
+import java.net.NetworkInterface;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends admin screen frames through MulticastFrameSender to several receivers
+ * in the same JVM and reports delivery, NACK repairs and sender uplink bytes
+ * compared with sending every frame to every student over TCP.
+ *
+ * NACKs are answered by calling the sender directly instead of going through
+ * GhostServer, so only the multicast path is measured.
+ *
+ * Run: java -Dghost.multicast.iface=lo -cp out;lib\* com.ghost.bench.MulticastLoopbackBench
+ *      [receivers] [frames] [frameKB] [fps]
+ */
+public class MulticastLoopbackBench {
+
+    public static void main(String[] args) throws Exception {
+        int receivers = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int frames = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+        int frameKb = args.length > 2 ? Integer.parseInt(args[2]) : 150;
+        int fps = args.length > 3 ? Integer.parseInt(args[3]) : 30;
+
+        NetworkInterface iface = MulticastFrameSender.resolveInterface();
+        MulticastFrameSender sender = new MulticastFrameSender(Config.MULTICAST_GROUP, Config.MULTICAST_PORT,
+                iface, Config.MULTICAST_KEYFRAME_INTERVAL);
+
+        AtomicLong delivered = new AtomicLong();
+        AtomicLong nacks = new AtomicLong();
+        AtomicLong repairBytes = new AtomicLong();
+        List<MulticastFrameReceiver> group = new ArrayList<>();
+        for (int i = 0; i < receivers; i++) {
+            MulticastFrameReceiver[] self = new MulticastFrameReceiver[1];
+            self[0] = new MulticastFrameReceiver(Config.MULTICAST_GROUP, Config.MULTICAST_PORT, iface,
+                    new MulticastFrameReceiver.Listener() {
+                        @Override
+                        public void onFrame(byte[] frame, boolean keyframe) {
+                            delivered.incrementAndGet();
+                        }
+
+                        @Override
+                        public void onNack(int seq, int[] missing) {
+                            nacks.incrementAndGet();
+                            byte[] repair = sender.repair(seq, missing);
+                            if (repair != null) {
+                                repairBytes.addAndGet(repair.length);
+                                self[0].acceptRepair(repair);
+                            }
+                        }
+
+                        @Override
+                        public void onKeyframeNeeded() {
+                            sender.requestKeyframe();
+                        }
+                    });
+            self[0].start();
+            group.add(self[0]);
+        }
+        Thread.sleep(200); // Let the joins settle
+
+        byte[] frame = new byte[frameKb * 1024];
+        new java.util.Random(42).nextBytes(frame);
+        long intervalNanos = 1_000_000_000L / fps;
+        long cpuStart = BenchSupport.cpuNanos();
+        long next = System.nanoTime();
+        for (int f = 0; f < frames; f++) {
+            sender.send(frame, true);
+            next += intervalNanos;
+            long sleep = next - System.nanoTime();
+            if (sleep > 0)
+                Thread.sleep(sleep / 1_000_000, (int) (sleep % 1_000_000));
+        }
+        long sendCpu = BenchSupport.cpuNanos() - cpuStart;
+        Thread.sleep(1000); // Drain repairs
+
+        long lost = 0;
+        for (MulticastFrameReceiver r : group) {
+            lost += r.getFramesLost();
+            r.stop();
+        }
+        sender.close();
+
+        int payload = MulticastFrameSender.FRAGMENT_PAYLOAD;
+        long fragments = (frame.length + payload - 1) / payload;
+        long multicastBytes = (long) frames * (frame.length + fragments * MulticastFrameSender.HEADER_SIZE);
+        long tcpBytes = (long) frames * frame.length * receivers;
+        System.out.println(receivers + " receivers, " + frames + " frames of " + frameKb + " KB at " + fps + " fps");
+        System.out.printf("delivered       %d / %d (%.2f%%)%n", delivered.get(), (long) frames * receivers,
+                100.0 * delivered.get() / ((long) frames * receivers));
+        System.out.println("lost            " + lost);
+        System.out.println("NACKs           " + nacks.get() + " (" + repairBytes.get() / 1024 + " KB repaired)");
+        System.out.printf("sender CPU      %.1f us/frame%n", sendCpu / 1000.0 / frames);
+        System.out.printf("uplink bytes    %d KB multicast vs %d KB TCP fan-out%n",
+                (multicastBytes + repairBytes.get()) / 1024, tcpBytes / 1024);
+    }
+}
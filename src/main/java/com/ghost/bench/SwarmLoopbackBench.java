@@ -0,0 +1,145 @@
+package com.ghost.bench;
+
+import com.ghost.net.CommandPacket;
+import com.ghost.net.FileManifest;
+import com.ghost.net.GhostServer;
+import com.ghost.net.Handshake;
+import com.ghost.net.PacketStream;
+import com.ghost.net.Swarm;
+import com.ghost.net.SwarmPeer;
+import com.ghost.net.WireFormat;
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Distributes one file to many simulated students on localhost through a real
+ * GhostServer and SwarmPeers, with every machine's upload capped (admin
+ * included) to stand in for a lab of equal NICs. Reports the distribution time
+ * and the admin's upload against sending the file to every student directly.
+ *
+ * Run: java -cp out;lib\* com.ghost.bench.SwarmLoopbackBench [students] [fileMB] [uploadMBps]
+ */
+public class SwarmLoopbackBench {
+
+    public static void main(String[] args) throws Exception {
+        int students = args.length > 0 ? Integer.parseInt(args[0]) : 24;
+        int fileMb = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int uploadMbps = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        // Before Config loads: per-machine upload cap, and any free chunk port for each peer
+        System.setProperty("ghost.swarm.uploadKBps", Integer.toString(uploadMbps * 1024));
+        System.setProperty("ghost.swarm.port", "0");
+
+        Path dir = Files.createTempDirectory("swarm-bench");
+        File file = dir.resolve("dataset.bin").toFile();
+        byte[] data = new byte[fileMb * 1024 * 1024];
+        new Random(7).nextBytes(data);
+        Files.write(file.toPath(), data);
+
+        GhostServer server = new GhostServer();
+        server.start();
+        Thread.sleep(300);
+
+        CountDownLatch done = new CountDownLatch(students);
+        List<SwarmPeer> peers = new ArrayList<>();
+        for (int i = 0; i < students; i++) {
+            peers.add(startStudent("student" + i, dir.resolve("student" + i).toString()));
+        }
+        Thread.sleep(500); // Let every CONNECT be processed
+
+        long start = System.nanoTime();
+        server.sendFile(file, new GhostServer.FileProgressListener() {
+            @Override
+            public void onProgress(String clientName, String fileName, long bytesDone, long totalBytes) {
+            }
+
+            @Override
+            public void onComplete(String clientName, String fileName) {
+                done.countDown();
+            }
+
+            @Override
+            public void onFailed(String clientName, String fileName, String reason) {
+                System.out.println(clientName + " failed: " + reason);
+                done.countDown();
+            }
+        });
+        boolean finished = done.await(10, TimeUnit.MINUTES);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        int intact = 0;
+        for (int i = 0; i < students; i++) {
+            File copy = dir.resolve("student" + i).resolve("dataset.bin").toFile();
+            if (copy.isFile() && Arrays.equals(Files.readAllBytes(copy.toPath()), data))
+                intact++;
+        }
+        long peerBytes = 0;
+        for (SwarmPeer p : peers) {
+            peerBytes += p.getBytesServed();
+        }
+        double totalMb = (double) fileMb * students;
+        System.out.printf("%d students, %d MB file, %d MB/s upload per machine%s%n", students, fileMb, uploadMbps,
+                finished ? "" : " (TIMED OUT)");
+        System.out.printf("%-22s %10s %14s%n", "", "seconds", "admin MB sent");
+        System.out.printf("%-22s %10.1f %14.0f%n", "direct (every byte N x)", totalMb / uploadMbps, totalMb);
+        System.out.printf("%-22s %10.1f %14.0f%n", "swarm", seconds, server.getSwarmSeedBytes() / 1048576.0);
+        System.out.printf("peers served %.0f MB, %d of %d copies intact%n", peerBytes / 1048576.0, intact, students);
+        System.exit(0);
+    }
+
+    /**
+     * A student reduced to its swarm part: handshake, then hand SWARM packets
+     * to a SwarmPeer
+     */
+    private static SwarmPeer startStudent(String name, String folder) throws IOException {
+        PacketStream stream = new PacketStream(new Socket("127.0.0.1", com.ghost.util.Config.SERVER_PORT));
+        SwarmPeer peer = new SwarmPeer(0, new SwarmPeer.Events() {
+            @Override
+            public void send(CommandPacket.Type type, String payload) {
+                try {
+                    stream.write(new CommandPacket(type, name, payload));
+                } catch (IOException e) {
+                }
+            }
+
+            @Override
+            public void notify(String message) {
+            }
+        });
+        peer.setFolder(folder);
+
+        Handshake hello = new Handshake();
+        hello.binary = true;
+        hello.swarmPort = peer.getPort();
+        stream.write(new CommandPacket(CommandPacket.Type.CONNECT, name, hello.toJson()));
+        if (Handshake.parse(stream.read().getPayload()).binary) {
+            stream.setReadMode(WireFormat.Mode.BINARY);
+            stream.setWriteMode(WireFormat.Mode.BINARY);
+        }
+
+        Thread reader = new Thread(() -> {
+            try {
+                CommandPacket packet;
+                while ((packet = stream.read()) != null) {
+                    if (packet.getType() == CommandPacket.Type.SWARM_OFFER) {
+                        peer.offerReceived(FileManifest.parse(packet.getPayload()));
+                    } else if (packet.getType() == CommandPacket.Type.SWARM_ASSIGN) {
+                        peer.assignReceived(Swarm.Assign.parse(packet.getPayload()), "127.0.0.1");
+                    }
+                }
+            } catch (IOException e) {
+            }
+        }, name);
+        reader.setDaemon(true);
+        reader.start();
+        return peer;
+    }
+}
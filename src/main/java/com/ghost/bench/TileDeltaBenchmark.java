@@ -0,0 +1,97 @@
+package com.ghost.bench;
+
+import com.ghost.util.ScreenCapture;
+import com.ghost.util.TileEncoder;
+import com.ghost.util.TileFrame;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import javax.imageio.ImageIO;
+
+/**
+ * Bytes and encode CPU per frame for a student screen where only the text
+ * cursor moves: whole-screen JPEG every frame against TileEncoder deltas.
+ *
+ * The deltas are also decoded and composited the way AdminDashboard does, and
+ * the mean per-channel error against the source frame is printed, to show the
+ * composite does not drift from the real screen.
+ *
+ * Run: java -cp out;lib\* com.ghost.bench.TileDeltaBenchmark [width] [height] [frames]
+ */
+public class TileDeltaBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 1536;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 864;
+        int frames = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        float quality = 0.85f;
+
+        // Warm up both encoders
+        TileEncoder warm = new TileEncoder(64, 100);
+        for (int i = 0; i < 20; i++) {
+            BufferedImage img = BenchSupport.syntheticScreen(width, height, i);
+            ScreenCapture.encodeJpeg(img, quality);
+            warm.encode(img, quality);
+        }
+
+        long fullBytes = 0, fullCpu = 0;
+        long tileBytes = 0, tileCpu = 0, keyframes = 0, skipped = 0;
+        TileEncoder encoder = new TileEncoder(64, 100);
+        BufferedImage composite = null;
+        BufferedImage last = null;
+        for (int f = 0; f < frames; f++) {
+            BufferedImage img = BenchSupport.syntheticScreen(width, height, f);
+            last = img;
+
+            long start = BenchSupport.cpuNanos();
+            byte[] jpeg = ScreenCapture.encodeJpeg(img, quality);
+            fullCpu += BenchSupport.cpuNanos() - start;
+            fullBytes += jpeg.length;
+
+            start = BenchSupport.cpuNanos();
+            byte[] frame = encoder.encode(img, quality);
+            tileCpu += BenchSupport.cpuNanos() - start;
+            if (frame == null) {
+                skipped++;
+                continue;
+            }
+            tileBytes += frame.length;
+            if (TileFrame.isTileFrame(frame)) {
+                applyTiles(composite, frame);
+            } else {
+                keyframes++;
+                composite = ImageIO.read(new ByteArrayInputStream(frame));
+            }
+        }
+
+        System.out.println(width + "x" + height + ", " + frames + " frames, cursor moving");
+        System.out.printf("%-12s %12s %14s%n", "", "KB/frame", "CPU us/frame");
+        System.out.printf("%-12s %12.1f %14.1f%n", "full JPEG", fullBytes / 1024.0 / frames, fullCpu / 1000.0 / frames);
+        System.out.printf("%-12s %12.1f %14.1f%n", "tile delta", tileBytes / 1024.0 / frames, tileCpu / 1000.0 / frames);
+        System.out.println("keyframes " + keyframes + ", unchanged frames skipped " + skipped);
+        System.out.printf("composite mean error vs source: %.2f / 255%n", meanError(composite, last));
+    }
+
+    private static void applyTiles(BufferedImage canvas, byte[] frame) throws Exception {
+        TileFrame tiles = TileFrame.parse(frame);
+        BufferedImage atlas = ImageIO.read(new ByteArrayInputStream(frame, tiles.atlasOffset, tiles.atlasLength));
+        for (int i = 0; i < tiles.getTileCount(); i++) {
+            int w = tiles.tileWidth(i);
+            int h = tiles.tileHeight(i);
+            int[] px = atlas.getRGB(tiles.atlasX(i), tiles.atlasY(i), w, h, null, 0, w);
+            canvas.setRGB(tiles.screenX(i), tiles.screenY(i), w, h, px, 0, w);
+        }
+    }
+
+    private static double meanError(BufferedImage a, BufferedImage b) {
+        long sum = 0;
+        for (int y = 0; y < a.getHeight(); y++) {
+            for (int x = 0; x < a.getWidth(); x++) {
+                int p = a.getRGB(x, y), q = b.getRGB(x, y);
+                sum += Math.abs((p >> 16 & 0xFF) - (q >> 16 & 0xFF))
+                        + Math.abs((p >> 8 & 0xFF) - (q >> 8 & 0xFF))
+                        + Math.abs((p & 0xFF) - (q & 0xFF));
+            }
+        }
+        return sum / (3.0 * a.getWidth() * a.getHeight());
+    }
+}
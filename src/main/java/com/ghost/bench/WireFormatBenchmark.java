@@ -0,0 +1,131 @@
+package com.ghost.bench;
+
+import com.ghost.net.CommandPacket;
+import com.ghost.net.FrameDecoder;
+import com.ghost.net.WireFormat;
+import com.ghost.util.ScreenCapture;
+import com.google.gson.Gson;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * Compares bytes on the wire and CPU per frame for screen frames sent as
+ * Base64 inside JSON lines (the original path) versus binary frames.
+ *
+ * Run: java -cp out;lib\* com.ghost.bench.WireFormatBenchmark [frames] [width] [height]
+ */
+public class WireFormatBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int width = args.length > 1 ? Integer.parseInt(args[1]) : 1536;
+        int height = args.length > 2 ? Integer.parseInt(args[2]) : 864;
+
+        byte[] jpeg = ScreenCapture.encodeJpeg(BenchSupport.syntheticScreen(width, height, 0), 0.85f);
+        System.out.println("Frame: " + width + "x" + height + " JPEG, " + jpeg.length + " bytes, " + frames
+                + " frames per run");
+
+        // Warm up both paths so the JIT has compiled them before measuring
+        for (int i = 0; i < 2; i++) {
+            runJson(jpeg, frames / 4 + 1);
+            runBinary(jpeg, frames / 4 + 1);
+        }
+
+        Result json = runJson(jpeg, frames);
+        Result binary = runBinary(jpeg, frames);
+
+        System.out.println();
+        System.out.printf("%-8s %14s %14s %14s%n", "path", "wire B/frame", "send us/frame", "recv us/frame");
+        json.print("json");
+        binary.print("binary");
+        System.out.printf("%nBinary saves %.1f%% bytes, %.1fx less CPU per frame%n",
+                100.0 * (json.bytesPerFrame - binary.bytesPerFrame) / json.bytesPerFrame,
+                (json.sendNanos + json.recvNanos) / (double) Math.max(1, binary.sendNanos + binary.recvNanos));
+    }
+
+    /**
+     * Original path: Base64 -> Gson -> PrintWriter, then BufferedReader -> Gson -> Base64
+     */
+    private static Result runJson(byte[] jpeg, int frames) throws Exception {
+        Gson gson = new Gson();
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        PrintWriter out = new PrintWriter(wire, true);
+
+        long start = BenchSupport.cpuNanos();
+        for (int i = 0; i < frames; i++) {
+            String base64 = Base64.getEncoder().encodeToString(jpeg);
+            out.println(gson.toJson(new CommandPacket(CommandPacket.Type.SCREEN_DATA, "student01", base64)));
+        }
+        long sendNanos = BenchSupport.cpuNanos() - start;
+        byte[] bytes = wire.toByteArray();
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(bytes)));
+        start = BenchSupport.cpuNanos();
+        String line;
+        long decoded = 0;
+        while ((line = in.readLine()) != null) {
+            CommandPacket p = gson.fromJson(line, CommandPacket.class);
+            decoded += Base64.getDecoder().decode(p.getPayload()).length;
+        }
+        long recvNanos = BenchSupport.cpuNanos() - start;
+        check(decoded, jpeg, frames);
+
+        return new Result(bytes.length / frames, sendNanos / frames, recvNanos / frames);
+    }
+
+    /**
+     * Binary path: WireFormat frame out, FrameDecoder in
+     */
+    private static Result runBinary(byte[] jpeg, int frames) throws Exception {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+
+        long start = BenchSupport.cpuNanos();
+        for (int i = 0; i < frames; i++) {
+            wire.write(WireFormat.encodeBinary(new CommandPacket(CommandPacket.Type.SCREEN_DATA, "student01", jpeg)));
+        }
+        long sendNanos = BenchSupport.cpuNanos() - start;
+        byte[] bytes = wire.toByteArray();
+
+        FrameDecoder decoder = new FrameDecoder();
+        decoder.setMode(WireFormat.Mode.BINARY);
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        start = BenchSupport.cpuNanos();
+        long decoded = 0;
+        CommandPacket p;
+        while ((p = decoder.next(buf)) != null) {
+            decoded += p.getPayloadBytes().length;
+        }
+        long recvNanos = BenchSupport.cpuNanos() - start;
+        check(decoded, jpeg, frames);
+
+        return new Result(bytes.length / frames, sendNanos / frames, recvNanos / frames);
+    }
+
+    private static void check(long decoded, byte[] jpeg, int frames) {
+        if (decoded != (long) jpeg.length * frames) {
+            throw new IllegalStateException("Decoded " + decoded + " bytes, expected " + (long) jpeg.length * frames);
+        }
+    }
+
+    private static class Result {
+        final long bytesPerFrame;
+        final long sendNanos;
+        final long recvNanos;
+
+        Result(long bytesPerFrame, long sendNanos, long recvNanos) {
+            this.bytesPerFrame = bytesPerFrame;
+            this.sendNanos = sendNanos;
+            this.recvNanos = recvNanos;
+        }
+
+        void print(String name) {
+            System.out.printf("%-8s %14d %14.1f %14.1f%n", name, bytesPerFrame, sendNanos / 1000.0,
+                    recvNanos / 1000.0);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.ghost.net;
+
+/**
+ * Token bucket for accepting connections: up to {@code burst} at once, then
+ * {@code ratePerSec}. When the admin restarts, sixty students reconnecting
+ * within a second are spread out instead of all handshaking and starting
+ * their screen streams together. Used by one accepting thread at a time.
+ */
+class AdmissionControl {
+    private final double ratePerSec;
+    private final double burst;
+    private double tokens;
+    private long lastNanos = System.nanoTime();
+
+    AdmissionControl(double ratePerSec, int burst) {
+        this.ratePerSec = ratePerSec;
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+    }
+
+    /**
+     * How long until the next connection may be accepted, 0 if now
+     */
+    synchronized long delayNanos() {
+        if (ratePerSec <= 0)
+            return 0;
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastNanos) / 1e9 * ratePerSec);
+        lastNanos = now;
+        return tokens >= 1 ? 0 : (long) ((1 - tokens) / ratePerSec * 1e9);
+    }
+
+    /**
+     * A connection was accepted
+     */
+    synchronized void admitted() {
+        if (ratePerSec > 0)
+            tokens--;
+    }
+}
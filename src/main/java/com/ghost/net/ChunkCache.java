@@ -0,0 +1,167 @@
+package com.ghost.net;
+
+import com.ghost.util.ContentChunker;
+import com.google.gson.reflect.TypeToken;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Student-side content-addressed index of every file received before.
+ *
+ * Chunks are not copied anywhere: the index maps each chunk hash to the file
+ * and offset it was received into, persisted as JSON next to the user's
+ * Ghost settings. A file that was modified since (size or timestamp changed)
+ * no longer counts, and every chunk read from the cache is re-hashed before
+ * use, so a stale entry costs a re-download, never a corrupt file.
+ */
+class ChunkCache {
+    private static final int MAX_FILES = 500; // Oldest received files are forgotten first
+
+    private final Path indexFile;
+    private final List<Record> records = new ArrayList<>(); // Oldest first
+    private final Map<String, Location> byHash = new HashMap<>();
+
+    private static class Record {
+        String path;
+        long size;
+        long modified;
+        FileManifest manifest;
+    }
+
+    private static class Location {
+        final Record record;
+        final int chunk;
+
+        Location(Record record, int chunk) {
+            this.record = record;
+            this.chunk = chunk;
+        }
+    }
+
+    ChunkCache(Path indexFile) {
+        this.indexFile = indexFile;
+        load();
+    }
+
+    /**
+     * Default location: ~/.ghost/chunk-cache.json
+     */
+    static ChunkCache openDefault() {
+        return new ChunkCache(Paths.get(System.getProperty("user.home"), ".ghost", "chunk-cache.json"));
+    }
+
+    /**
+     * @return the chunk's bytes if a previously received file still holds
+     *         them unchanged, else null
+     */
+    byte[] read(String hash, int length) {
+        Location loc;
+        synchronized (this) {
+            loc = byHash.get(hash);
+        }
+        if (loc == null || loc.record.manifest.length(loc.chunk) != length)
+            return null;
+        Path path = Paths.get(loc.record.path);
+        try {
+            if (Files.size(path) != loc.record.size || Files.getLastModifiedTime(path).toMillis() != loc.record.modified) {
+                forget(loc.record); // Edited or replaced since
+                return null;
+            }
+            byte[] chunk = new byte[length];
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer buf = ByteBuffer.wrap(chunk);
+                long position = loc.record.manifest.offset(loc.chunk);
+                while (buf.hasRemaining()) {
+                    if (channel.read(buf, position + buf.position()) < 0)
+                        return null;
+                }
+            }
+            return hash.equals(ContentChunker.sha256Hex(chunk, 0, length)) ? chunk : null;
+        } catch (IOException e) {
+            forget(loc.record); // Deleted or unreadable
+            return null;
+        }
+    }
+
+    /**
+     * Remembers a completely received file so its chunks can be reused
+     */
+    synchronized void add(Path file, FileManifest manifest) {
+        Record r = new Record();
+        try {
+            r.path = file.toAbsolutePath().toString();
+            r.size = Files.size(file);
+            r.modified = Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return;
+        }
+        r.manifest = manifest;
+        records.removeIf(old -> old.path.equals(r.path));
+        records.add(r);
+        while (records.size() > MAX_FILES) {
+            records.remove(0);
+        }
+        reindex();
+        save();
+    }
+
+    private synchronized void forget(Record r) {
+        if (records.remove(r)) {
+            reindex();
+            save();
+        }
+    }
+
+    private void reindex() {
+        byHash.clear();
+        for (Record r : records) {
+            for (int i = 0; i < r.manifest.chunkCount(); i++) {
+                byHash.put(r.manifest.chunks[i], new Location(r, i)); // Newest file wins
+            }
+        }
+    }
+
+    private synchronized void load() {
+        if (!Files.isRegularFile(indexFile))
+            return;
+        try (Reader in = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            List<Record> loaded = WireFormat.gson.fromJson(in, new TypeToken<List<Record>>() {
+            }.getType());
+            if (loaded != null) {
+                for (Record r : loaded) {
+                    if (r != null && r.path != null && r.manifest != null && r.manifest.isValid())
+                        records.add(r);
+                }
+            }
+            reindex();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ignoring unreadable chunk cache " + indexFile + ": " + e.getMessage());
+        }
+    }
+
+    private void save() {
+        try {
+            Files.createDirectories(indexFile.getParent());
+            Path tmp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+            try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                WireFormat.gson.toJson(records, out);
+            }
+            Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("Could not save chunk cache: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.ghost.net;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves swarm chunks by hash to other peers over plain TCP.
+ *
+ * Request: UTF hex SHA-256. Response: int length and the chunk, or -1 if this
+ * peer does not have it. A connection may carry any number of requests.
+ * Runs on both the admin (seeding from the original file) and every student.
+ */
+class ChunkServer {
+    private static final int SLICE = 64 * 1024;
+
+    interface ChunkSource {
+        /**
+         * @return the chunk's bytes, or null if not held
+         */
+        byte[] read(String hash) throws IOException;
+    }
+
+    private final ChunkSource source;
+    private final ServerSocket serverSocket;
+    private final ExecutorService pool = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "ChunkServer");
+        t.setDaemon(true);
+        return t;
+    });
+    private final long uploadBytesPerSec; // 0 = unlimited
+    private long nextSendNanos; // Pacing for the upload limit, guarded by this
+    private volatile long bytesServed;
+    private volatile boolean running = true;
+
+    /**
+     * Binds the preferred port, or any free one if it is taken (admin and a
+     * student on the same machine, or many simulated students)
+     */
+    ChunkServer(int preferredPort, long uploadBytesPerSec, ChunkSource source) throws IOException {
+        this.source = source;
+        this.uploadBytesPerSec = uploadBytesPerSec;
+        ServerSocket ss = new ServerSocket();
+        try {
+            ss.bind(new InetSocketAddress(preferredPort));
+        } catch (BindException e) {
+            ss.bind(new InetSocketAddress(0));
+        }
+        serverSocket = ss;
+        Thread acceptor = new Thread(this::acceptLoop, "ChunkServer-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    long getBytesServed() {
+        return bytesServed;
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                pool.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (running)
+                    System.err.println("Chunk server accept failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), SLICE));
+            while (running) {
+                String hash;
+                try {
+                    hash = in.readUTF();
+                } catch (EOFException e) {
+                    return; // Peer is done with us
+                }
+                byte[] chunk = source.read(hash);
+                if (chunk == null) {
+                    out.writeInt(-1);
+                    out.flush();
+                    continue;
+                }
+                out.writeInt(chunk.length);
+                for (int off = 0; off < chunk.length; off += SLICE) {
+                    int n = Math.min(SLICE, chunk.length - off);
+                    pace(n);
+                    out.write(chunk, off, n);
+                }
+                out.flush();
+                bytesServed += chunk.length;
+            }
+        } catch (IOException e) {
+            // Peer went away mid-request; it reports the failure to the admin
+        }
+    }
+
+    /**
+     * Spreads uploads over time so serving peers does not saturate this
+     * machine's own link
+     */
+    private void pace(int bytes) {
+        if (uploadBytesPerSec <= 0)
+            return;
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            nextSendNanos = Math.max(nextSendNanos, now) + bytes * 1_000_000_000L / uploadBytesPerSec;
+            waitNanos = nextSendNanos - now - bytes * 1_000_000_000L / uploadBytesPerSec;
+        }
+        if (waitNanos > 0) {
+            try {
+                Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    void close() {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+        }
+        pool.shutdownNow();
+    }
+}
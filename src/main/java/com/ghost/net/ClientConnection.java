@@ -0,0 +1,79 @@
+package com.ghost.net;
+
+import com.ghost.util.Config;
+
+/**
+ * Server-side view of one connected student, independent of the I/O engine.
+ * GhostServer's packet handling only talks to this class, so the blocking
+ * thread-per-client handler and the NIO reactor share the same protocol logic.
+ */
+abstract class ClientConnection {
+    private volatile String clientName = "Unknown";
+    volatile boolean multicast; // Receives ADMIN_SCREEN from the multicast group, not this socket
+    volatile boolean frameAcks; // Wants FRAME_ACK for every SCREEN_DATA
+    long screenBytesReceived; // Only touched by the connection's reader
+    volatile Subscription subscription; // Null if the client streams without subscriptions
+    volatile boolean fileChunks; // Receives files in chunks (FileDistributor), else as one FILE_DATA
+    volatile int swarmPort; // Student's ChunkServer port once swarm was accepted, else 0
+    volatile boolean shellStream; // Runs Shell.Run commands and streams their output
+    volatile boolean commandAcks; // Acknowledges commands that carry an id
+    volatile String remoteHost; // Student's address as seen by the admin, for peer fetches
+    volatile boolean labState; // Applies LAB_STATE snapshots
+    volatile int heartbeatMs; // Student's ping interval once negotiated, 0 = no heartbeats
+    volatile long lastHeardNanos = System.nanoTime(); // Any packet counts
+    long pingSeq; // Heartbeat thread only
+    final RttEstimator rtt = new RttEstimator();
+    protected final OutboundQueue queue = new OutboundQueue(Config.CONTROL_QUEUE_CAPACITY);
+
+    String getClientName() {
+        return clientName;
+    }
+
+    void setClientName(String clientName) {
+        this.clientName = clientName;
+    }
+
+    boolean isIdentified() {
+        return !"Unknown".equals(clientName);
+    }
+
+    /**
+     * Queues a packet for this client's writer; never blocks the caller.
+     * A client that lets the control lane fill up is disconnected instead of
+     * silently losing commands.
+     */
+    void send(EncodedPacket packet) {
+        if (queue.offer(packet)) {
+            onQueued();
+        } else {
+            System.err.println("Send queue full for " + clientName + ", disconnecting");
+            close();
+        }
+    }
+
+    ClientStats getStats() {
+        return new ClientStats(clientName, queue.depth(), queue.getDroppedFrames(), queue.getSentPackets(),
+                rtt.getSmoothedMs(), rtt.getJitterMs(), (System.nanoTime() - lastHeardNanos) / 1_000_000);
+    }
+
+    /**
+     * Wakes the engine's writer after a packet was queued
+     */
+    protected abstract void onQueued();
+
+    /**
+     * Sends the handshake answer as a JSON line, then switches writing to
+     * binary frames, and reading too if the client does not confirm its own
+     * switch with BINARY_READY. Called on the connection's read path right
+     * after CONNECT.
+     */
+    abstract void switchToBinary(CommandPacket answer, boolean readToo);
+
+    /**
+     * Reads binary frames from the next packet on. Called on the connection's
+     * read path right after BINARY_READY.
+     */
+    abstract void readBinary();
+
+    abstract void close();
+}
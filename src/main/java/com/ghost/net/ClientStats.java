@@ -0,0 +1,65 @@
+package com.ghost.net;
+
+/**
+ * Point-in-time snapshot of one client's send queue and heartbeat
+ */
+public class ClientStats {
+    private final String clientName;
+    private final int queueDepth;
+    private final long droppedFrames;
+    private final long sentPackets;
+    private final double rttMs;
+    private final double jitterMs;
+    private final long silentMs;
+
+    public ClientStats(String clientName, int queueDepth, long droppedFrames, long sentPackets, double rttMs,
+            double jitterMs, long silentMs) {
+        this.clientName = clientName;
+        this.queueDepth = queueDepth;
+        this.droppedFrames = droppedFrames;
+        this.sentPackets = sentPackets;
+        this.rttMs = rttMs;
+        this.jitterMs = jitterMs;
+        this.silentMs = silentMs;
+    }
+
+    public String getClientName() {
+        return clientName;
+    }
+
+    /** Packets waiting to be written */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /** Media frames replaced by a newer frame before they could be written */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    public long getSentPackets() {
+        return sentPackets;
+    }
+
+    /** Smoothed heartbeat round trip, -1 without heartbeats */
+    public double getRttMs() {
+        return rttMs;
+    }
+
+    /** Mean deviation of the round trip */
+    public double getJitterMs() {
+        return jitterMs;
+    }
+
+    /** Time since anything arrived from the client */
+    public long getSilentMs() {
+        return silentMs;
+    }
+
+    @Override
+    public String toString() {
+        return clientName + " queue=" + queueDepth + " dropped=" + droppedFrames + " sent=" + sentPackets
+                + (rttMs >= 0 ? String.format(" rtt=%.1fms jitter=%.1fms", rttMs, jitterMs) : "")
+                + " silent=" + silentMs + "ms";
+    }
+}
@@ -1,15 +1,24 @@
 package com.ghost.net;
 
+import java.util.Base64;
+
 public class CommandPacket {
     public enum Type {
         CONNECT, DISCONNECT, LOCK, UNLOCK, SHUTDOWN, RESTART, MSG, SCREEN_DATA,
-        INTERNET, SHELL, SHELL_OUTPUT, FILE_DATA, ADMIN_SCREEN, NOTIFICATION, MUTE, BLOCK_INPUT
+        INTERNET, SHELL, SHELL_OUTPUT, FILE_DATA, ADMIN_SCREEN, NOTIFICATION, MUTE, BLOCK_INPUT,
+        // New types go at the end: binary frames carry the ordinal
+        MCAST_CONFIG, MCAST_NACK, MCAST_REPAIR, KEYFRAME_REQUEST, FRAME_ACK, STREAM_STATS,
+        SUBSCRIBE, FILE_OFFER, FILE_CHUNK, FILE_STATUS, SWARM_OFFER, SWARM_ASSIGN, SWARM_REPORT,
+        SHELL_ACK, SHELL_EXIT, ACK, RESULT, PING, PONG, LAB_STATE, BINARY_READY,
+        SWARM_DONE
     }
 
     private Type type;
     private String sender; // Username or IP
     private String payload; // JSON or raw string
     private long timestamp;
+    private long id; // Set on commands the admin tracks (CommandTracker), 0 otherwise
+    private transient byte[] data; // Raw binary payload (media frames), never serialized as JSON
 
     public CommandPacket(Type type, String sender, String payload) {
         this.type = type;
@@ -18,6 +27,23 @@ public class CommandPacket {
         this.timestamp = System.currentTimeMillis();
     }
 
+    /**
+     * Creates a packet carrying raw bytes (e.g. a JPEG frame).
+     * On a binary connection the bytes go out as-is; on a JSON connection they
+     * are Base64 encoded into the payload.
+     */
+    public CommandPacket(Type type, String sender, byte[] data) {
+        this(type, sender, (String) null);
+        this.data = data;
+    }
+
+    CommandPacket(Type type, String sender, byte[] data, long timestamp) {
+        this.type = type;
+        this.sender = sender;
+        this.data = data;
+        this.timestamp = timestamp;
+    }
+
     // Getters
     public Type getType() {
         return type;
@@ -34,4 +60,45 @@ public class CommandPacket {
     public long getTimestamp() {
         return timestamp;
     }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public boolean hasData() {
+        return data != null;
+    }
+
+    /**
+     * Returns the binary payload, decoding the Base64 text payload when the
+     * packet arrived over the JSON line protocol.
+     */
+    public byte[] getPayloadBytes() {
+        if (data != null)
+            return data;
+        if (payload == null)
+            return null;
+        return Base64.getDecoder().decode(payload);
+    }
+
+    /**
+     * Returns a copy whose binary payload is Base64 encoded into the text payload,
+     * for peers that only speak the JSON line protocol.
+     */
+    CommandPacket asTextPacket() {
+        if (data == null)
+            return this;
+        CommandPacket copy = new CommandPacket(type, sender, Base64.getEncoder().encodeToString(data));
+        copy.timestamp = timestamp;
+        copy.id = id;
+        return copy;
+    }
 }
@@ -0,0 +1,36 @@
+package com.ghost.net;
+
+/**
+ * Payload of RESULT: how a tracked command ended on the student.
+ * The student sends ACK (payload: the command id) as soon as it receives a
+ * tracked command, and RESULT once it has carried it out; for LOCK,
+ * SHUTDOWN, RESTART and MUTE that is when the OS command exited, with its
+ * exit code as the error if it was not 0. A streamed SHELL ends with its
+ * SHELL_EXIT instead.
+ */
+public class CommandResult {
+    public long id;
+    public boolean ok = true;
+    public String error; // Why it failed, null on success
+
+    public CommandResult() {
+    }
+
+    public CommandResult(long id, String error) {
+        this.id = id;
+        this.ok = error == null;
+        this.error = error;
+    }
+
+    public static CommandResult parse(String payload) {
+        try {
+            return WireFormat.gson.fromJson(payload, CommandResult.class);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    public String toJson() {
+        return WireFormat.gson.toJson(this);
+    }
+}
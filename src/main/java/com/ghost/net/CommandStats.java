@@ -0,0 +1,139 @@
+package com.ghost.net;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Point-in-time snapshot of one command sent with GhostServer.sendCommand or
+ * runShell: who received it, who carried it out, and how long that took.
+ * Delivery is measured from sending to the student's ACK, execution from the
+ * ACK to its RESULT, both on the admin's clock.
+ */
+public class CommandStats {
+    private final long id;
+    private final String label;
+    private final long startedAt;
+    private final int targets;
+    private final int untracked;
+    private final int delivered;
+    private final int succeeded;
+    private final int failed;
+    private final int timedOut;
+    private final Percentiles delivery;
+    private final Percentiles execution;
+    private final Map<String, String> failures;
+
+    /**
+     * Nearest-rank percentiles in milliseconds, all -1 when there are no samples
+     */
+    public static class Percentiles {
+        public final long p50;
+        public final long p90;
+        public final long p99;
+        public final long max;
+
+        Percentiles(long[] sortedMs) {
+            p50 = rank(sortedMs, 50);
+            p90 = rank(sortedMs, 90);
+            p99 = rank(sortedMs, 99);
+            max = sortedMs.length > 0 ? sortedMs[sortedMs.length - 1] : -1;
+        }
+
+        private static long rank(long[] sorted, int percent) {
+            if (sorted.length == 0)
+                return -1;
+            int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(0, index)];
+        }
+
+        @Override
+        public String toString() {
+            if (max < 0)
+                return "-";
+            return "p50 " + p50 + " / p90 " + p90 + " / p99 " + p99 + " / max " + max + " ms";
+        }
+    }
+
+    CommandStats(long id, String label, long startedAt, int targets, int untracked, int delivered, int succeeded,
+            int failed, int timedOut, long[] deliveryMs, long[] executionMs, Map<String, String> failures) {
+        this.id = id;
+        this.label = label;
+        this.startedAt = startedAt;
+        this.targets = targets;
+        this.untracked = untracked;
+        this.delivered = delivered;
+        this.succeeded = succeeded;
+        this.failed = failed;
+        this.timedOut = timedOut;
+        this.delivery = new Percentiles(deliveryMs);
+        this.execution = new Percentiles(executionMs);
+        this.failures = Collections.unmodifiableMap(failures);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /** Command type, plus the command line for SHELL */
+    public String getLabel() {
+        return label;
+    }
+
+    /** Wall-clock time the command was sent */
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    /** Students that can acknowledge the command */
+    public int getTargets() {
+        return targets;
+    }
+
+    /** Students that got the command but predate acknowledgements */
+    public int getUntracked() {
+        return untracked;
+    }
+
+    public int getDelivered() {
+        return delivered;
+    }
+
+    public int getSucceeded() {
+        return succeeded;
+    }
+
+    /** Failed on the student, or the student disconnected first */
+    public int getFailed() {
+        return failed;
+    }
+
+    public int getTimedOut() {
+        return timedOut;
+    }
+
+    /** Still waiting for an ACK or RESULT */
+    public int getPending() {
+        return targets - succeeded - failed - timedOut;
+    }
+
+    public Percentiles getDelivery() {
+        return delivery;
+    }
+
+    public Percentiles getExecution() {
+        return execution;
+    }
+
+    /** Student name to reason, for failed and timed out students */
+    public Map<String, String> getFailures() {
+        return failures;
+    }
+
+    @Override
+    public String toString() {
+        return "#" + id + " " + label + ": " + delivered + "/" + targets + " delivered, " + succeeded + " ok, "
+                + failed + " failed, " + timedOut + " timed out, " + getPending() + " pending"
+                + (untracked > 0 ? ", " + untracked + " untracked" : "")
+                + " | delivery " + delivery + " | execution " + execution;
+    }
+}
@@ -0,0 +1,229 @@
+package com.ghost.net;
+
+import com.ghost.util.Config;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Admin side of command acknowledgements: every tracked command has an id,
+ * and for each student it went to the tracker waits first for the ACK, then
+ * for the RESULT, and gives up after COMMAND_ACK_TIMEOUT_MS or the command's
+ * result timeout. The last COMMAND_HISTORY commands are kept for the
+ * dashboard. All methods are safe to call from network threads.
+ */
+class CommandTracker {
+    private final AtomicLong nextId = new AtomicLong();
+    private final Map<Long, Command> commands = new LinkedHashMap<>(); // Guarded by this, oldest first
+    private final Consumer<CommandStats> listener;
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "CommandTracker");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private enum State {
+        SENT, DELIVERED, SUCCEEDED, FAILED, TIMED_OUT
+    }
+
+    private static class Delivery {
+        State state = State.SENT;
+        final long sentNanos = System.nanoTime();
+        long ackedNanos;
+        long deliveryMs = -1;
+        long executionMs = -1;
+        String reason;
+    }
+
+    private static class Command {
+        final long id;
+        final String label;
+        final long startedAt = System.currentTimeMillis();
+        final long resultTimeoutMs;
+        final int untracked;
+        final Map<String, Delivery> students = new LinkedHashMap<>();
+        int open; // Students still in SENT or DELIVERED
+
+        Command(long id, String label, long resultTimeoutMs, int untracked) {
+            this.id = id;
+            this.label = label;
+            this.resultTimeoutMs = resultTimeoutMs;
+            this.untracked = untracked;
+        }
+    }
+
+    /**
+     * @param listener gets a fresh snapshot whenever a command changes, on the
+     *                 calling network or sweeper thread; called under the
+     *                 tracker's lock so snapshots arrive in order, keep it short
+     */
+    CommandTracker(Consumer<CommandStats> listener) {
+        this.listener = listener;
+        sweeper.scheduleWithFixedDelay(this::sweep, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Registers a command before it is sent
+     *
+     * @param students  students that will acknowledge it
+     * @param untracked students that get it but cannot acknowledge
+     * @return the id to put on the packet
+     */
+    long start(String label, List<String> students, int untracked, long resultTimeoutMs) {
+        Command c = new Command(nextId.incrementAndGet(), label, resultTimeoutMs, untracked);
+        for (String s : students) {
+            c.students.put(s, new Delivery());
+        }
+        c.open = c.students.size();
+        synchronized (this) {
+            commands.put(c.id, c);
+            Iterator<Long> oldest = commands.keySet().iterator();
+            while (commands.size() > Config.COMMAND_HISTORY) {
+                oldest.next();
+                oldest.remove();
+            }
+            listener.accept(snapshot(c));
+        }
+        return c.id;
+    }
+
+    /**
+     * Adds a student to a command that goes out to students one by one (see
+     * FanOut); its timeouts and delivery count from now. A student that is
+     * already open for the command keeps its entry.
+     */
+    synchronized void addStudent(long id, String student) {
+        Command c = commands.get(id);
+        if (c == null)
+            return;
+        Delivery d = c.students.get(student);
+        if (d != null && (d.state == State.SENT || d.state == State.DELIVERED))
+            return;
+        c.students.put(student, new Delivery());
+        c.open++;
+        listener.accept(snapshot(c));
+    }
+
+    synchronized void ackReceived(String student, long id) {
+        Command c = commands.get(id);
+        Delivery d = c != null ? c.students.get(student) : null;
+        if (d == null || d.state != State.SENT)
+            return;
+        d.state = State.DELIVERED;
+        d.ackedNanos = System.nanoTime();
+        d.deliveryMs = (d.ackedNanos - d.sentNanos) / 1_000_000;
+        listener.accept(snapshot(c));
+    }
+
+    /**
+     * @param error null if the command succeeded
+     */
+    synchronized void resultReceived(String student, long id, String error) {
+        Command c = commands.get(id);
+        Delivery d = c != null ? c.students.get(student) : null;
+        if (d == null || (d.state != State.SENT && d.state != State.DELIVERED))
+            return;
+        long now = System.nanoTime();
+        if (d.state == State.SENT) {
+            // ACK lost or overtaken: count the whole round trip as delivery
+            d.deliveryMs = (now - d.sentNanos) / 1_000_000;
+            d.ackedNanos = now;
+        }
+        d.executionMs = (now - d.ackedNanos) / 1_000_000;
+        close(c, d, error == null ? State.SUCCEEDED : State.FAILED, error);
+        listener.accept(snapshot(c));
+    }
+
+    /**
+     * The student disconnected: its open commands fail
+     */
+    synchronized void clientGone(String student) {
+        for (Command c : commands.values()) {
+            Delivery d = c.students.get(student);
+            if (d != null && (d.state == State.SENT || d.state == State.DELIVERED)) {
+                close(c, d, State.FAILED, "disconnected");
+                listener.accept(snapshot(c));
+            }
+        }
+    }
+
+    synchronized List<CommandStats> getStats() {
+        List<CommandStats> list = new ArrayList<>();
+        for (Command c : commands.values()) {
+            list.add(snapshot(c));
+        }
+        return list;
+    }
+
+    private synchronized void sweep() {
+        long now = System.nanoTime();
+        for (Command c : commands.values()) {
+            if (c.open == 0)
+                continue;
+            boolean any = false;
+            for (Delivery d : c.students.values()) {
+                if (d.state == State.SENT && (now - d.sentNanos) / 1_000_000 > Config.COMMAND_ACK_TIMEOUT_MS) {
+                    close(c, d, State.TIMED_OUT, "no acknowledgement");
+                    any = true;
+                } else if (d.state == State.DELIVERED && (now - d.ackedNanos) / 1_000_000 > c.resultTimeoutMs) {
+                    close(c, d, State.TIMED_OUT, "no result");
+                    any = true;
+                }
+            }
+            if (any)
+                listener.accept(snapshot(c));
+        }
+    }
+
+    private static void close(Command c, Delivery d, State state, String reason) {
+        d.state = state;
+        d.reason = reason;
+        c.open--;
+    }
+
+    private static CommandStats snapshot(Command c) {
+        int delivered = 0, succeeded = 0, failed = 0, timedOut = 0;
+        long[] delivery = new long[c.students.size()];
+        long[] execution = new long[c.students.size()];
+        int deliveries = 0, executions = 0;
+        Map<String, String> failures = new LinkedHashMap<>();
+        for (Map.Entry<String, Delivery> e : c.students.entrySet()) {
+            Delivery d = e.getValue();
+            if (d.deliveryMs >= 0) {
+                delivered++;
+                delivery[deliveries++] = d.deliveryMs;
+            }
+            if (d.executionMs >= 0)
+                execution[executions++] = d.executionMs;
+            switch (d.state) {
+                case SUCCEEDED:
+                    succeeded++;
+                    break;
+                case FAILED:
+                    failed++;
+                    failures.put(e.getKey(), d.reason);
+                    break;
+                case TIMED_OUT:
+                    timedOut++;
+                    failures.put(e.getKey(), d.reason);
+                    break;
+                default:
+                    break;
+            }
+        }
+        delivery = Arrays.copyOf(delivery, deliveries);
+        execution = Arrays.copyOf(execution, executions);
+        Arrays.sort(delivery);
+        Arrays.sort(execution);
+        return new CommandStats(c.id, c.label, c.startedAt, c.students.size(), c.untracked, delivered, succeeded,
+                failed, timedOut, delivery, execution, failures);
+    }
+}
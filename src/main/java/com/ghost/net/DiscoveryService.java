@@ -3,18 +3,33 @@ package com.ghost.net;
 import com.ghost.util.Config;
 import java.net.*;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * UDP-based server discovery service.
  * Admin broadcasts its presence, Students listen and auto-connect.
+ *
+ * Students can also ask: a probe ("GHOST_DISCOVER[:lab]") sent to the
+ * broadcast addresses and to localhost on DISCOVERY_PROBE_PORT is answered at
+ * once by every admin of that lab (any lab if none is given) with
+ * "GHOST_SERVER:port:ip:lab", the beacon's format plus the lab id.
  */
 public class DiscoveryService {
     private static final int DISCOVERY_PORT = 5556;
     private static final String BROADCAST_MESSAGE = "GHOST_SERVER";
+    private static final String PROBE_MESSAGE = "GHOST_DISCOVER";
     private static final int BROADCAST_INTERVAL_MS = 2000;
 
     private DatagramSocket socket;
+    private DatagramSocket probeSocket; // Admin: answers probes
     private AtomicBoolean running = new AtomicBoolean(false);
     private DiscoveryListener listener;
 
@@ -22,6 +37,61 @@ public class DiscoveryService {
         void onServerFound(String serverIp, int port);
     }
 
+    /** An admin found by a probe, or cached from the last connection */
+    public static class Endpoint {
+        public String host;
+        public int port;
+        public String labId = "";
+
+        public Endpoint() {
+        }
+
+        public Endpoint(String host, int port, String labId) {
+            this.host = host;
+            this.port = port;
+            this.labId = labId;
+        }
+
+        /**
+         * Whether this admin runs the given lab; an empty lab matches any
+         */
+        public boolean inLab(String lab) {
+            return lab.isEmpty() || lab.equals(labId);
+        }
+
+        /**
+         * Reads a probe answer or beacon; the host is where the datagram came
+         * from, which the student can certainly reach, or localhost if that is
+         * this machine
+         */
+        static Endpoint parse(String message, InetAddress from) {
+            String[] parts = message.split(":", 4);
+            if (parts.length < 3 || !parts[0].equals(BROADCAST_MESSAGE))
+                return null;
+            try {
+                String host = isLocal(from) ? "127.0.0.1" : from.getHostAddress();
+                return new Endpoint(host, Integer.parseInt(parts[1]), parts.length > 3 ? parts[3] : "");
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Endpoint && ((Endpoint) o).host.equals(host) && ((Endpoint) o).port == port;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(host, port);
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port + (labId == null || labId.isEmpty() ? "" : " (lab " + labId + ")");
+        }
+    }
+
     public void setListener(DiscoveryListener listener) {
         this.listener = listener;
     }
@@ -37,8 +107,7 @@ public class DiscoveryService {
                 socket.setBroadcast(true);
 
                 String localIp = getLocalIp();
-                String message = BROADCAST_MESSAGE + ":" + Config.SERVER_PORT + ":" + localIp;
-                byte[] data = message.getBytes();
+                byte[] data = answer().getBytes(StandardCharsets.UTF_8);
 
                 System.out.println("Discovery: Broadcasting on port " + DISCOVERY_PORT);
                 System.out.println("Discovery: Server IP = " + localIp);
@@ -78,6 +147,134 @@ public class DiscoveryService {
         }, "DiscoveryBroadcaster").start();
     }
 
+    /**
+     * Start answering student probes (called by Admin); it answers with the
+     * same endpoint it broadcasts
+     */
+    public void startResponding() {
+        running.set(true);
+        try {
+            probeSocket = new DatagramSocket(null);
+            probeSocket.setReuseAddress(true);
+            probeSocket.bind(new InetSocketAddress(Config.DISCOVERY_PROBE_PORT));
+        } catch (IOException e) {
+            System.err.println("Discovery: Cannot answer probes on port " + Config.DISCOVERY_PROBE_PORT + ": "
+                    + e.getMessage());
+            return;
+        }
+        Thread t = new Thread(() -> {
+            byte[] buffer = new byte[256];
+            byte[] answer = answer().getBytes(StandardCharsets.UTF_8);
+            System.out.println("Discovery: Answering probes on port " + Config.DISCOVERY_PROBE_PORT
+                    + (Config.LAB_ID.isEmpty() ? "" : " for lab " + Config.LAB_ID));
+            while (running.get() && !probeSocket.isClosed()) {
+                try {
+                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                    probeSocket.receive(packet);
+                    String message = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
+                    if (!message.startsWith(PROBE_MESSAGE))
+                        continue;
+                    String lab = message.length() > PROBE_MESSAGE.length() ? message.substring(PROBE_MESSAGE.length() + 1) : "";
+                    if (!lab.isEmpty() && !lab.equals(Config.LAB_ID))
+                        continue; // A student of another lab
+                    probeSocket.send(new DatagramPacket(answer, answer.length, packet.getSocketAddress()));
+                } catch (IOException e) {
+                    if (running.get() && !probeSocket.isClosed()) {
+                        System.err.println("Discovery probe error: " + e.getMessage());
+                    }
+                }
+            }
+        }, "DiscoveryResponder");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private static String answer() {
+        return BROADCAST_MESSAGE + ":" + Config.SERVER_PORT + ":" + getLocalIp() + ":" + Config.LAB_ID;
+    }
+
+    /**
+     * Asks the admins on the network and on this machine to answer, and
+     * collects the answers for up to waitMs (called by Student). With a lab
+     * given, the first answer is enough; without, it waits for all of them so
+     * the student can choose.
+     *
+     * @param lab only admins of this lab answer; empty = any
+     * @return the admins that answered, first answer first
+     */
+    public static List<Endpoint> probe(String lab, int waitMs) {
+        List<Endpoint> found = new ArrayList<>();
+        try (DatagramSocket s = new DatagramSocket()) {
+            s.setBroadcast(true);
+            byte[] data = (lab.isEmpty() ? PROBE_MESSAGE : PROBE_MESSAGE + ":" + lab).getBytes(StandardCharsets.UTF_8);
+            List<InetAddress> targets = new ArrayList<>();
+            targets.add(InetAddress.getByName("255.255.255.255"));
+            InetAddress broadcastAddr = getBroadcastAddress();
+            if (broadcastAddr != null)
+                targets.add(broadcastAddr);
+            targets.add(InetAddress.getByName("127.0.0.1"));
+            for (InetAddress target : targets) {
+                try {
+                    s.send(new DatagramPacket(data, data.length, target, Config.DISCOVERY_PROBE_PORT));
+                } catch (IOException e) {
+                    // Not reachable from here; the other targets may be
+                }
+            }
+
+            byte[] buffer = new byte[256];
+            long end = System.nanoTime() + waitMs * 1_000_000L;
+            long left;
+            while ((left = (end - System.nanoTime()) / 1_000_000) > 0) {
+                s.setSoTimeout((int) left);
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                try {
+                    s.receive(packet);
+                } catch (SocketTimeoutException e) {
+                    break;
+                }
+                Endpoint e = Endpoint.parse(new String(packet.getData(), 0, packet.getLength(),
+                        StandardCharsets.UTF_8), packet.getAddress());
+                if (e == null || !e.inLab(lab) || found.contains(e))
+                    continue;
+                found.add(e);
+                if (!lab.isEmpty())
+                    break;
+            }
+        } catch (IOException e) {
+            System.err.println("Discovery probe failed: " + e.getMessage());
+        }
+        return found;
+    }
+
+    /**
+     * The admin this student last connected to, or null
+     */
+    public static Endpoint loadCached() {
+        try {
+            Endpoint e = WireFormat.gson.fromJson(Files.readString(Paths.get(Config.DISCOVERY_CACHE_FILE)),
+                    Endpoint.class);
+            if (e == null || e.host == null || e.port <= 0)
+                return null;
+            if (e.labId == null)
+                e.labId = "";
+            return e;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    static void saveCached(Endpoint endpoint) {
+        try {
+            Path file = Paths.get(Config.DISCOVERY_CACHE_FILE);
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.writeString(tmp, WireFormat.gson.toJson(endpoint));
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("Discovery: Could not cache admin endpoint: " + e.getMessage());
+        }
+    }
+
     /**
      * Start listening for server broadcasts (called by Student)
      * Returns quickly if can't bind (allows fallback to localhost)
@@ -159,6 +356,17 @@ public class DiscoveryService {
         if (socket != null) {
             socket.close();
         }
+        if (probeSocket != null) {
+            probeSocket.close();
+        }
+    }
+
+    private static boolean isLocal(InetAddress address) {
+        try {
+            return address.isLoopbackAddress() || NetworkInterface.getByInetAddress(address) != null;
+        } catch (SocketException e) {
+            return false;
+        }
     }
 
     /**
@@ -190,7 +398,7 @@ public class DiscoveryService {
     /**
      * Get broadcast address for local network
      */
-    private InetAddress getBroadcastAddress() {
+    private static InetAddress getBroadcastAddress() {
         try {
             java.util.Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
             while (interfaces.hasMoreElements()) {
@@ -0,0 +1,60 @@
+package com.ghost.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A packet plus its wire encodings, computed lazily and at most once per mode.
+ *
+ * Broadcasts share one instance across all clients: the packet is serialized
+ * once per wire mode into a read-only buffer (direct for large frames), and
+ * every client writes from its own duplicate of that buffer. Nothing is copied
+ * or re-encoded per client.
+ */
+public class EncodedPacket {
+    /** Encodings at least this large go into direct memory so socket writes skip the JDK's temp copy */
+    static final int DIRECT_THRESHOLD = 16 * 1024;
+
+    private final CommandPacket packet;
+    private volatile ByteBuffer json;
+    private volatile ByteBuffer binary;
+
+    public EncodedPacket(CommandPacket packet) {
+        this.packet = packet;
+    }
+
+    public CommandPacket getPacket() {
+        return packet;
+    }
+
+    /**
+     * Returns a private view (own position/limit) of the shared encoding for
+     * the given mode. The underlying bytes are never modified.
+     */
+    public ByteBuffer bufferFor(WireFormat.Mode mode) {
+        if (mode == WireFormat.Mode.BINARY) {
+            ByteBuffer b = binary;
+            if (b == null) {
+                boolean direct = packet.hasData() && packet.getData().length >= DIRECT_THRESHOLD;
+                b = WireFormat.encodeBinary(packet, direct).asReadOnlyBuffer();
+                binary = b;
+            }
+            return b.duplicate();
+        }
+        ByteBuffer j = json;
+        if (j == null) {
+            j = share(WireFormat.encodeJson(packet));
+            json = j;
+        }
+        return j.duplicate();
+    }
+
+    private static ByteBuffer share(byte[] encoded) {
+        if (encoded.length < DIRECT_THRESHOLD) {
+            return ByteBuffer.wrap(encoded).asReadOnlyBuffer();
+        }
+        ByteBuffer direct = ByteBuffer.allocateDirect(encoded.length);
+        direct.put(encoded);
+        direct.flip();
+        return direct.asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,488 @@
+package com.ghost.net;
+
+import com.ghost.util.Config;
+import com.ghost.util.ContentChunker;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One shell command run across the lab (GhostServer.runFanOut): at most
+ * {@code concurrency} students run it at a time, the next one starts as each
+ * finishes, and whatever has not finished by the deadline is cancelled or
+ * skipped. Output is collected per student (the last FANOUT_KEEP_CHARS) and
+ * students whose outcome and output are identical are grouped, so 60 replies
+ * read as "52 machines: OK; 8 machines: error X".
+ *
+ * Used as a rolling rollout it can also give each student a time limit,
+ * retry failed students after a growing backoff, and stop starting new
+ * students once too many of the finished ones failed; the students already
+ * running are left to finish.
+ *
+ * Only students with the streamed shell can take part; the others are listed
+ * as UNSUPPORTED.
+ */
+public class FanOut {
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "FanOut");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public static class Options {
+        public int concurrency = Config.FANOUT_CONCURRENCY;
+        public long deadlineMs = Config.FANOUT_DEADLINE_MS; // For the whole run
+        public long hostTimeoutMs; // Per attempt; 0 = only the deadline
+        public int retries; // Further attempts after a failure
+        public long retryBackoffMs = Config.ROLLOUT_RETRY_BACKOFF_MS; // Doubles per attempt, jittered
+        public double maxFailureRate = 1; // Stop when failed / finished goes above this
+        public int minFinished = Config.ROLLOUT_MIN_HOSTS; // Before the failure rate counts
+    }
+
+    /**
+     * Called on network and timer threads whenever the run changes; read it
+     * with snapshot(), which is cheap enough to call at UI frame rate
+     */
+    public interface Listener {
+        void onUpdate(FanOut run);
+    }
+
+    public enum State {
+        QUEUED, RUNNING, RETRY_WAIT, SUCCEEDED, FAILED, TIMED_OUT, SKIPPED, UNSUPPORTED;
+
+        public boolean isFinal() {
+            return this != QUEUED && this != RUNNING && this != RETRY_WAIT;
+        }
+    }
+
+    /** One student's outcome */
+    public static class Result {
+        public final String client;
+        public final State state;
+        public final int exitCode; // -1 until the command exited
+        public final long durationMs; // -1 until it started
+        public final String output; // Tail of the output, or why it failed
+        public final boolean truncated; // Older output was dropped here or by the student's caps
+        public final int attempts;
+
+        Result(String client, State state, int exitCode, long durationMs, String output, boolean truncated,
+                int attempts) {
+            this.client = client;
+            this.state = state;
+            this.exitCode = exitCode;
+            this.durationMs = durationMs;
+            this.output = output;
+            this.truncated = truncated;
+            this.attempts = attempts;
+        }
+    }
+
+    /** Students that finished the same way with the same output */
+    public static class Group {
+        public final State state;
+        public final int exitCode;
+        public final String output;
+        public final List<String> clients;
+
+        Group(State state, int exitCode, String output, List<String> clients) {
+            this.state = state;
+            this.exitCode = exitCode;
+            this.output = output;
+            this.clients = Collections.unmodifiableList(clients);
+        }
+
+        /** State, exit code and the first line of output */
+        public String summary() {
+            String first = output.trim();
+            int newline = first.indexOf('\n');
+            if (newline >= 0)
+                first = first.substring(0, newline).trim() + " ...";
+            String outcome = state == State.SUCCEEDED || state == State.FAILED ? "exit " + exitCode : state.name();
+            return outcome + (first.isEmpty() ? "" : ": " + first);
+        }
+    }
+
+    public static class Snapshot {
+        public final long id;
+        public final String command;
+        public final boolean finished;
+        public final long elapsedMs;
+        public final int queued;
+        public final int running;
+        public final int retrying; // Waiting out a backoff
+        public final int done;
+        public final int succeeded;
+        public final int failed; // Including timed out
+        public final String stopReason; // Why the run stopped early, or null
+        public final List<Result> results; // In dispatch order
+        public final List<Group> groups; // Largest first, finished students only
+
+        Snapshot(long id, String command, boolean finished, long elapsedMs, int queued, int running, int retrying,
+                int done, int succeeded, int failed, String stopReason, List<Result> results, List<Group> groups) {
+            this.id = id;
+            this.command = command;
+            this.finished = finished;
+            this.elapsedMs = elapsedMs;
+            this.queued = queued;
+            this.running = running;
+            this.retrying = retrying;
+            this.done = done;
+            this.succeeded = succeeded;
+            this.failed = failed;
+            this.stopReason = stopReason;
+            this.results = results;
+            this.groups = groups;
+        }
+
+        /** Students that ran to an outcome per minute so far */
+        public double perMinute() {
+            return elapsedMs > 0 ? (succeeded + failed) * 60_000.0 / elapsedMs : 0;
+        }
+
+        /** Estimated time left at the current rate, -1 if unknown */
+        public long etaMs() {
+            int left = queued + running + retrying;
+            double rate = perMinute();
+            if (finished || left == 0)
+                return 0;
+            return rate > 0 ? (long) (left * 60_000 / rate) : -1;
+        }
+    }
+
+    private static class Entry {
+        final String client;
+        State state = State.QUEUED;
+        long startNanos;
+        long endNanos;
+        int exitCode = -1;
+        final StringBuilder output = new StringBuilder();
+        boolean truncated;
+        int attempts;
+        boolean timedOut; // This attempt ran out of time and was cancelled
+        ScheduledFuture<?> timer; // Host timeout while running, retry while waiting
+        String groupKey; // Set once final
+
+        Entry(String client) {
+            this.client = client;
+        }
+    }
+
+    private final GhostServer server;
+    private final long id;
+    private final String command;
+    private final Options options;
+    private final Listener listener;
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Entry> entries = new LinkedHashMap<>(); // Guarded by this
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    private int running;
+    private int retrying;
+    private int succeeded;
+    private int failed;
+    private boolean finished;
+    private boolean stopped; // No new attempts start
+    private String stopReason;
+    private ScheduledFuture<?> deadline;
+
+    FanOut(GhostServer server, long id, String command, List<String> clients, List<String> unsupported,
+            Options options, Listener listener) {
+        this.server = server;
+        this.id = id;
+        this.command = command;
+        this.options = options;
+        this.listener = listener;
+        for (String client : clients) {
+            Entry e = new Entry(client);
+            entries.put(client, e);
+            queue.add(e);
+        }
+        for (String client : unsupported) {
+            Entry e = new Entry(client);
+            e.output.append("client has no streamed shell");
+            finish(e, State.UNSUPPORTED);
+            entries.put(client, e);
+        }
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    void start() {
+        synchronized (this) {
+            deadline = timer.schedule(this::deadlineReached, options.deadlineMs, TimeUnit.MILLISECONDS);
+            dispatch();
+        }
+        listener.onUpdate(this);
+    }
+
+    /**
+     * Stops starting students; running ones finish, the others are skipped
+     */
+    public void stop() {
+        synchronized (this) {
+            if (finished || stopped)
+                return;
+            halt("stopped by admin");
+            dispatch();
+        }
+        listener.onUpdate(this);
+    }
+
+    /**
+     * Starts queued students while there are free slots. Caller holds the lock.
+     */
+    private void dispatch() {
+        while (!finished && !stopped && running < Math.max(1, options.concurrency) && !queue.isEmpty()) {
+            Entry e = queue.poll();
+            e.attempts++;
+            e.startNanos = System.nanoTime();
+            e.exitCode = -1;
+            e.timedOut = false;
+            e.output.setLength(0); // Each attempt reports its own output
+            e.truncated = false;
+            if (server.dispatchShell(e.client, id, command)) {
+                e.state = State.RUNNING;
+                running++;
+                if (options.hostTimeoutMs > 0)
+                    e.timer = timer.schedule(() -> hostTimedOut(e), options.hostTimeoutMs, TimeUnit.MILLISECONDS);
+            } else {
+                attemptFailed(e, State.FAILED, "offline");
+            }
+        }
+        if (!finished && running == 0 && retrying == 0 && queue.isEmpty()) {
+            finished = true;
+            if (deadline != null)
+                deadline.cancel(false);
+        }
+    }
+
+    /**
+     * Retries the student after a backoff if it has attempts left, otherwise
+     * it ends in {@code state}. Caller holds the lock.
+     */
+    private void attemptFailed(Entry e, State state, String reason) {
+        if (reason != null)
+            e.output.append(e.output.length() > 0 ? "\n" : "").append(reason);
+        if (stopped || e.attempts > options.retries) {
+            finish(e, state);
+            failed++;
+            checkFailureRate();
+            return;
+        }
+        // Full jitter over the upper half, so retries of a lab-wide failure spread out
+        long backoff = Math.min(Config.ROLLOUT_MAX_BACKOFF_MS, options.retryBackoffMs << Math.min(e.attempts - 1, 20));
+        backoff = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        e.state = State.RETRY_WAIT;
+        e.endNanos = System.nanoTime();
+        retrying++;
+        e.timer = timer.schedule(() -> retry(e), backoff, TimeUnit.MILLISECONDS);
+    }
+
+    private void retry(Entry e) {
+        synchronized (this) {
+            if (e.state != State.RETRY_WAIT)
+                return;
+            retrying--;
+            e.state = State.QUEUED;
+            queue.add(e);
+            dispatch();
+        }
+        listener.onUpdate(this);
+    }
+
+    /**
+     * Stops the run once enough students finished and too many of them
+     * failed. Caller holds the lock.
+     */
+    private void checkFailureRate() {
+        int total = succeeded + failed;
+        if (stopped || total < Math.max(1, options.minFinished) || failed <= options.maxFailureRate * total)
+            return;
+        halt(String.format("failure rate %d%% over %d%% (%d of %d)", failed * 100 / total,
+                Math.round(options.maxFailureRate * 100), failed, total));
+    }
+
+    /**
+     * Skips everything that has not started. Caller holds the lock.
+     */
+    private void halt(String reason) {
+        stopped = true;
+        stopReason = reason;
+        for (Entry e : entries.values()) {
+            if (e.state == State.QUEUED || e.state == State.RETRY_WAIT) {
+                if (e.timer != null)
+                    e.timer.cancel(false);
+                finish(e, State.SKIPPED);
+            }
+        }
+        queue.clear();
+        retrying = 0;
+    }
+
+    /**
+     * Cancels the attempt; the student reports the cancel with its SHELL_EXIT
+     * before the slot is reused, so a retry cannot be mixed up with it
+     */
+    private void hostTimedOut(Entry e) {
+        synchronized (this) {
+            if (e.state != State.RUNNING || e.timedOut)
+                return;
+            e.timedOut = true;
+            server.cancelShell(e.client, id);
+            e.timer = timer.schedule(() -> cancelIgnored(e), Config.ROLLOUT_CANCEL_GRACE_MS, TimeUnit.MILLISECONDS);
+        }
+        listener.onUpdate(this);
+    }
+
+    /**
+     * The student never confirmed the cancel: it is given up on without a
+     * retry, which could collide with the old command
+     */
+    private void cancelIgnored(Entry e) {
+        synchronized (this) {
+            if (e.state != State.RUNNING)
+                return;
+            running--;
+            e.output.append(e.output.length() > 0 ? "\n" : "").append("timed out, cancel not confirmed");
+            finish(e, State.TIMED_OUT);
+            failed++;
+            checkFailureRate();
+            dispatch();
+        }
+        listener.onUpdate(this);
+    }
+
+    void outputReceived(String client, String text) {
+        synchronized (this) {
+            Entry e = entries.get(client);
+            if (e == null || e.state != State.RUNNING)
+                return;
+            e.output.append(text);
+            int excess = e.output.length() - Config.FANOUT_KEEP_CHARS;
+            if (excess > 0) {
+                e.output.delete(0, excess); // Keep the tail, where errors usually are
+                e.truncated = true;
+            }
+        }
+        listener.onUpdate(this);
+    }
+
+    void exitReceived(String client, Shell.Exit exit) {
+        synchronized (this) {
+            Entry e = entries.get(client);
+            if (e == null || e.state != State.RUNNING)
+                return;
+            running--;
+            if (e.timer != null)
+                e.timer.cancel(false);
+            e.exitCode = exit.code;
+            e.truncated |= exit.truncated;
+            if (e.timedOut) {
+                attemptFailed(e, State.TIMED_OUT, "timed out after " + options.hostTimeoutMs / 1000.0 + " s");
+            } else if (exit.error == null && exit.code == 0) {
+                finish(e, State.SUCCEEDED);
+                succeeded++;
+            } else {
+                attemptFailed(e, State.FAILED, exit.error);
+            }
+            dispatch();
+        }
+        listener.onUpdate(this);
+    }
+
+    void clientGone(String client) {
+        synchronized (this) {
+            Entry e = entries.get(client);
+            if (e == null || e.state != State.RUNNING)
+                return; // Queued students fail as offline when their turn comes
+            running--;
+            if (e.timer != null)
+                e.timer.cancel(false);
+            attemptFailed(e, State.FAILED, "disconnected");
+            dispatch();
+        }
+        listener.onUpdate(this);
+    }
+
+    private void deadlineReached() {
+        synchronized (this) {
+            if (finished)
+                return;
+            for (Entry e : entries.values()) {
+                if (e.timer != null)
+                    e.timer.cancel(false);
+                if (e.state == State.RUNNING) {
+                    server.cancelShell(e.client, id);
+                    finish(e, State.TIMED_OUT);
+                    failed++;
+                } else if (e.state == State.QUEUED || e.state == State.RETRY_WAIT) {
+                    finish(e, State.SKIPPED);
+                }
+            }
+            queue.clear();
+            running = 0;
+            retrying = 0;
+            finished = true;
+            if (stopReason == null)
+                stopReason = "deadline reached";
+        }
+        listener.onUpdate(this);
+    }
+
+    private static void finish(Entry e, State state) {
+        e.state = state;
+        e.endNanos = System.nanoTime();
+        // Same outcome and output, ignoring line endings and trailing blanks
+        String normalized = e.output.toString().replace("\r\n", "\n").trim();
+        byte[] key = (state + "\n" + e.exitCode + "\n" + normalized).getBytes(StandardCharsets.UTF_8);
+        e.groupKey = ContentChunker.sha256Hex(key, 0, key.length);
+    }
+
+    public synchronized boolean isFinished() {
+        return finished;
+    }
+
+    public synchronized Snapshot snapshot() {
+        List<Result> results = new ArrayList<>(entries.size());
+        Map<String, List<Entry>> byKey = new LinkedHashMap<>();
+        int queued = 0, done = 0;
+        for (Entry e : entries.values()) {
+            long duration = e.startNanos == 0 ? -1
+                    : ((e.state == State.RUNNING ? System.nanoTime() : e.endNanos) - e.startNanos) / 1_000_000;
+            results.add(new Result(e.client, e.state, e.exitCode, duration, e.output.toString(), e.truncated,
+                    e.attempts));
+            if (e.state == State.QUEUED) {
+                queued++;
+            } else if (e.state.isFinal()) {
+                done++;
+                byKey.computeIfAbsent(e.groupKey, k -> new ArrayList<>()).add(e);
+            }
+        }
+        List<Group> groups = new ArrayList<>();
+        for (List<Entry> same : byKey.values()) {
+            Entry first = same.get(0);
+            List<String> clients = new ArrayList<>();
+            for (Entry e : same) {
+                clients.add(e.client);
+            }
+            groups.add(new Group(first.state, first.exitCode, first.output.toString(), clients));
+        }
+        groups.sort((a, b) -> b.clients.size() - a.clients.size());
+        return new Snapshot(id, command, finished, (System.nanoTime() - startNanos) / 1_000_000, queued, running,
+                retrying, done, succeeded, failed, stopReason, results, groups);
+    }
+}
@@ -0,0 +1,221 @@
+package com.ghost.net;
+
+import com.ghost.util.Config;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Admin side of the chunked file transfer (see FileTransfer).
+ *
+ * Each student has a queue of files and receives one at a time, and only the
+ * chunks it asked for. Chunks are read with positional FileChannel reads on a
+ * dedicated I/O thread, never on a connection's reader or reactor thread, and
+ * at most FILE_WINDOW_BYTES are unacknowledged per student, so a 2 GB
+ * installer neither sits in memory nor floods the control lane. Transfers
+ * outlive the connection: when the student reconnects, the file is offered
+ * again and the student asks only for what it still lacks.
+ */
+class FileDistributor {
+    private final GhostServer server;
+    private final ExecutorService io = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "FileDistributor");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Map<String, Student> students = new ConcurrentHashMap<>();
+
+    private static class Transfer {
+        final File file;
+        final FileManifest manifest;
+        final GhostServer.FileProgressListener listener;
+        FileChannel channel; // I/O thread only
+
+        Transfer(File file, FileManifest manifest, GhostServer.FileProgressListener listener) {
+            this.file = file;
+            this.manifest = manifest;
+            this.listener = listener;
+        }
+    }
+
+    /** Guarded by its own monitor */
+    private static class Student {
+        final ArrayDeque<Transfer> queue = new ArrayDeque<>();
+        Transfer active;
+        boolean accepted; // Student answered the current offer
+        final ArrayDeque<Integer> pending = new ArrayDeque<>(); // Needed chunks not yet sent
+        final Map<Integer, Integer> failures = new HashMap<>(); // Rejections per chunk of the active transfer
+        long inFlight; // Bytes sent and not yet acknowledged
+        long doneBytes; // Bytes the student has, for progress
+    }
+
+    FileDistributor(GhostServer server) {
+        this.server = server;
+    }
+
+    void enqueue(String clientName, File file, FileManifest manifest, GhostServer.FileProgressListener listener) {
+        Student student = students.computeIfAbsent(clientName, k -> new Student());
+        synchronized (student) {
+            student.queue.add(new Transfer(file, manifest, listener));
+            if (student.active == null) {
+                startNext(clientName, student);
+            }
+        }
+    }
+
+    /**
+     * Re-offers the file in progress after a reconnect; the student answers
+     * with what it still needs
+     */
+    void clientReady(String clientName) {
+        Student student = students.get(clientName);
+        if (student == null)
+            return;
+        synchronized (student) {
+            if (student.active != null) {
+                offer(clientName, student);
+            }
+        }
+    }
+
+    void statusReceived(String clientName, FileTransfer.Status status) {
+        Student student = students.get(clientName);
+        if (student == null || status == null)
+            return;
+        Transfer t;
+        long done;
+        synchronized (student) {
+            t = student.active;
+            if (t == null || t.manifest.id != status.id)
+                return; // Stale answer for a finished or replaced transfer
+            if (status.error != null) {
+                finish(clientName, student, status.error);
+                return;
+            }
+            if (status.done) {
+                finish(clientName, student, null);
+                return;
+            }
+            if (status.need != null) {
+                student.accepted = true;
+                student.pending.clear();
+                student.inFlight = 0;
+                student.doneBytes = t.manifest.size;
+                for (int chunk : status.need) {
+                    if (chunk >= 0 && chunk < t.manifest.chunkCount()) {
+                        student.pending.add(chunk);
+                        student.doneBytes -= t.manifest.length(chunk);
+                    }
+                }
+            } else if (status.chunk >= 0 && status.chunk < t.manifest.chunkCount()) {
+                int length = t.manifest.length(status.chunk);
+                student.inFlight = Math.max(0, student.inFlight - length);
+                if (status.failed) {
+                    int failures = student.failures.merge(status.chunk, 1, Integer::sum);
+                    if (failures > Config.FILE_CHUNK_RETRIES) {
+                        finish(clientName, student, "chunk " + status.chunk + " rejected " + failures
+                                + " times, file changed since it was sent?");
+                        return;
+                    }
+                    student.pending.addFirst(status.chunk);
+                } else {
+                    student.doneBytes += length;
+                }
+            }
+            done = student.doneBytes;
+        }
+        t.listener.onProgress(clientName, t.manifest.name, done, t.manifest.size);
+        io.execute(() -> pump(clientName, student));
+    }
+
+    private void startNext(String clientName, Student student) {
+        student.active = student.queue.poll();
+        student.failures.clear(); // Kept across re-offers, so reconnecting does not reset them
+        if (student.active != null) {
+            offer(clientName, student);
+        }
+    }
+
+    private void offer(String clientName, Student student) {
+        student.accepted = false;
+        student.pending.clear();
+        student.inFlight = 0;
+        server.sendToClient(clientName,
+                new CommandPacket(CommandPacket.Type.FILE_OFFER, "ADMIN", student.active.manifest.toJson()));
+    }
+
+    /**
+     * Fills the student's window with needed chunks. Runs on the I/O thread only.
+     */
+    private void pump(String clientName, Student student) {
+        while (true) {
+            Transfer t;
+            int index;
+            synchronized (student) {
+                t = student.active;
+                if (t == null || !student.accepted || student.pending.isEmpty()
+                        || student.inFlight >= Config.FILE_WINDOW_BYTES)
+                    return;
+                index = student.pending.poll();
+                student.inFlight += t.manifest.length(index);
+            }
+            try {
+                byte[] chunk = readChunk(t, index);
+                server.sendToClient(clientName, new CommandPacket(CommandPacket.Type.FILE_CHUNK, "ADMIN", chunk));
+            } catch (IOException e) {
+                System.err.println("Cannot read " + t.file + ": " + e.getMessage());
+                synchronized (student) {
+                    if (student.active == t) {
+                        finish(clientName, student, "read failed: " + e.getMessage());
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    private byte[] readChunk(Transfer t, int index) throws IOException {
+        if (t.channel == null) {
+            t.channel = FileChannel.open(t.file.toPath(), StandardOpenOption.READ);
+        }
+        // Read straight behind the header so the chunk is one array
+        int length = t.manifest.length(index);
+        byte[] chunk = new byte[FileTransfer.CHUNK_HEADER_SIZE + length];
+        PartFile.readFully(t.channel, ByteBuffer.wrap(chunk, FileTransfer.CHUNK_HEADER_SIZE, length),
+                t.manifest.offset(index));
+        FileTransfer.writeChunkHeader(chunk, t.manifest.id, index);
+        return chunk;
+    }
+
+    /**
+     * Ends the active transfer (error null = success) and offers the next
+     * queued file. Caller holds the student's monitor.
+     */
+    private void finish(String clientName, Student student, String error) {
+        Transfer t = student.active;
+        student.active = null;
+        io.execute(() -> closeQuietly(t));
+        if (error == null) {
+            t.listener.onComplete(clientName, t.manifest.name);
+        } else {
+            t.listener.onFailed(clientName, t.manifest.name, error);
+        }
+        startNext(clientName, student);
+    }
+
+    private static void closeQuietly(Transfer t) {
+        try {
+            if (t.channel != null)
+                t.channel.close();
+        } catch (IOException e) {
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.ghost.net;
+
+import com.ghost.util.Config;
+import com.ghost.util.ContentChunker;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Content-addressed description of a file: the SHA-256 and length of each
+ * content-defined chunk (see ContentChunker). Sent ahead of every chunked or
+ * swarm transfer; the student answers with the chunks it still needs, so
+ * material it already has - in a part file, or in any file it received
+ * before - is never sent again.
+ */
+public class FileManifest {
+    public long id;
+    public String name;
+    public long size;
+    public String[] chunks; // Hex SHA-256 of each chunk
+    public int[] lengths;
+    public int seedPort; // Admin's ChunkServer, swarm transfers only
+    private transient long[] offsets;
+
+    public int chunkCount() {
+        return chunks.length;
+    }
+
+    public int length(int index) {
+        return lengths[index];
+    }
+
+    public long offset(int index) {
+        if (offsets == null) {
+            long[] o = new long[lengths.length];
+            for (int i = 1; i < o.length; i++) {
+                o[i] = o[i - 1] + lengths[i - 1];
+            }
+            offsets = o;
+        }
+        return offsets[index];
+    }
+
+    /**
+     * True if the chunk list is consistent with the size; manifests come off
+     * the wire
+     */
+    public boolean isValid() {
+        if (name == null || chunks == null || lengths == null || chunks.length != lengths.length)
+            return false;
+        long total = 0;
+        for (int length : lengths) {
+            if (length <= 0 || length > Config.CHUNK_MAX_SIZE)
+                return false;
+            total += length;
+        }
+        return total == size;
+    }
+
+    /**
+     * Reads the file once, chunking and hashing it. Call off the UI thread.
+     */
+    static FileManifest build(File file) throws IOException {
+        FileManifest m = new FileManifest();
+        m.name = file.getName();
+        List<String> hashes = new ArrayList<>();
+        List<Integer> lengths = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ContentChunker.split(channel, Config.CHUNK_MIN_SIZE, Config.CHUNK_AVG_SIZE, Config.CHUNK_MAX_SIZE,
+                    (offset, length, hash) -> {
+                        hashes.add(hash);
+                        lengths.add(length);
+                        m.size += length;
+                    });
+        }
+        m.chunks = hashes.toArray(new String[0]);
+        m.lengths = new int[lengths.size()];
+        for (int i = 0; i < m.lengths.length; i++) {
+            m.lengths[i] = lengths.get(i);
+        }
+        // Same name and content = same transfer, wherever the admin keeps the file
+        String key = m.name + "|" + String.join(",", m.chunks);
+        m.id = UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).getMostSignificantBits();
+        return m;
+    }
+
+    public static FileManifest parse(String payload) {
+        try {
+            FileManifest m = WireFormat.gson.fromJson(payload, FileManifest.class);
+            return m != null && m.isValid() ? m : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    public String toJson() {
+        return WireFormat.gson.toJson(this);
+    }
+}
@@ -0,0 +1,149 @@
+package com.ghost.net;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Student side of the chunked file transfer (see FileTransfer).
+ *
+ * An offer opens a PartFile, which keeps whatever this machine already has of
+ * the file; only the rest is requested. Chunks are hash-checked and written in
+ * place, so nothing larger than one chunk is held in memory. All disk work
+ * runs on one worker thread, in arrival order, off the connection's reader.
+ */
+class FileReceiver {
+
+    interface Events {
+        void send(CommandPacket.Type type, String payload);
+
+        void notify(String message);
+    }
+
+    private final Events events;
+    private final ChunkCache cache;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "FileReceiver");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Map<Long, PartFile> incoming = new HashMap<>(); // Worker thread only
+    private final Map<Long, Integer> lastQuarter = new HashMap<>();
+    private volatile String folder = System.getProperty("user.home") + File.separator + "Downloads";
+
+    FileReceiver(ChunkCache cache, Events events) {
+        this.cache = cache;
+        this.events = events;
+    }
+
+    void setFolder(String folder) {
+        this.folder = folder;
+    }
+
+    void offerReceived(FileManifest manifest) {
+        if (manifest != null) {
+            worker.execute(() -> open(manifest));
+        }
+    }
+
+    void chunkReceived(byte[] chunk) {
+        if (chunk != null && chunk.length >= FileTransfer.CHUNK_HEADER_SIZE) {
+            worker.execute(() -> write(chunk));
+        }
+    }
+
+    private void open(FileManifest manifest) {
+        // A re-offer after reconnect starts over from what is on disk
+        PartFile previous = incoming.remove(manifest.id);
+        if (previous != null)
+            previous.close();
+        try {
+            PartFile part = PartFile.open(Paths.get(folder), manifest, cache);
+            if (part.getResumedBytes() > 0 || part.getCachedBytes() > 0) {
+                System.out.println(manifest.name + ": " + part.getResumedBytes() + " bytes resumed, "
+                        + part.getCachedBytes() + " bytes from earlier files, "
+                        + part.missing().length + " of " + manifest.chunkCount() + " chunks to fetch");
+            }
+            incoming.put(manifest.id, part);
+            if (part.isComplete()) {
+                complete(part);
+            } else {
+                FileTransfer.Status status = new FileTransfer.Status(manifest.id);
+                status.need = part.missing();
+                events.send(CommandPacket.Type.FILE_STATUS, status.toJson());
+            }
+        } catch (IOException e) {
+            fail(manifest, e);
+        }
+    }
+
+    private void write(byte[] chunk) {
+        long id = FileTransfer.chunkId(chunk);
+        PartFile part = incoming.get(id);
+        if (part == null)
+            return; // Transfer finished or failed; chunks still in flight
+        int index = FileTransfer.chunkIndex(chunk);
+        try {
+            FileTransfer.Status status = new FileTransfer.Status(id);
+            status.chunk = index;
+            status.failed = !part.write(index, chunk, FileTransfer.CHUNK_HEADER_SIZE,
+                    chunk.length - FileTransfer.CHUNK_HEADER_SIZE);
+            if (!status.failed && part.isComplete()) {
+                complete(part);
+                return;
+            }
+            events.send(CommandPacket.Type.FILE_STATUS, status.toJson());
+            int quarter = part.haveCount() * 4 / part.manifest.chunkCount();
+            Integer last = lastQuarter.put(id, quarter);
+            if (last != null && last != quarter) {
+                events.notify("📥 Receiving " + part.manifest.name + ": "
+                        + part.haveCount() * 100 / part.manifest.chunkCount() + "%");
+            }
+        } catch (IOException e) {
+            fail(part.manifest, e);
+        }
+    }
+
+    private void complete(PartFile part) throws IOException {
+        incoming.remove(part.manifest.id);
+        lastQuarter.remove(part.manifest.id);
+        Path target = part.finish();
+        part.close(); // Nothing serves chunked transfers from here
+        if (cache != null)
+            cache.add(target, part.manifest);
+
+        FileTransfer.Status done = new FileTransfer.Status(part.manifest.id);
+        done.done = true;
+        events.send(CommandPacket.Type.FILE_STATUS, done.toJson());
+        events.notify("📁 File received: " + target.getFileName() + " (saved to " + target.getParent() + ")");
+    }
+
+    private void fail(FileManifest manifest, IOException e) {
+        System.err.println("File transfer failed for " + manifest.name + ": " + e.getMessage());
+        PartFile part = incoming.remove(manifest.id);
+        if (part != null)
+            part.close();
+        FileTransfer.Status status = new FileTransfer.Status(manifest.id);
+        status.error = e.getMessage() != null ? e.getMessage() : e.toString();
+        events.send(CommandPacket.Type.FILE_STATUS, status.toJson());
+        events.notify("❌ Failed to save " + manifest.name + ": " + status.error);
+    }
+
+    /**
+     * Connection lost: close the part files, they are picked up again when the
+     * admin re-offers after the reconnect
+     */
+    void disconnected() {
+        worker.execute(() -> {
+            for (PartFile part : incoming.values()) {
+                part.close();
+            }
+            incoming.clear();
+        });
+    }
+}
@@ -0,0 +1,67 @@
+package com.ghost.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Messages of the chunked file transfer protocol.
+ *
+ * <pre>
+ *   admin   FILE_OFFER  FileManifest {id, name, size, chunks[sha-256], lengths[]}
+ *   student FILE_STATUS {id, need[]}           chunks not found in its part file or chunk cache
+ *   admin   FILE_CHUNK  [8 id][4 chunk][data]  raw body on binary connections, needed chunks only
+ *   student FILE_STATUS {id, chunk[, failed]}  after every chunk; failed = hash mismatch, send again
+ *   ...
+ *   student FILE_STATUS {id, done}
+ * </pre>
+ *
+ * The admin keeps at most FILE_WINDOW_BYTES unacknowledged per student. After
+ * a reconnect the admin offers the file again and the student answers with
+ * what is still missing, so re-sending unchanged material, or resuming an
+ * interrupted transfer, moves only the chunks the student lacks.
+ */
+public final class FileTransfer {
+    static final int CHUNK_HEADER_SIZE = 8 + 4;
+
+    private FileTransfer() {
+    }
+
+    public static class Status {
+        public long id;
+        public int[] need; // Answer to an offer
+        public int chunk = -1; // Acknowledges one chunk
+        public boolean failed; // That chunk did not match its hash
+        public boolean done;
+        public String error; // Receiver gave up on the transfer
+
+        public Status() {
+        }
+
+        public Status(long id) {
+            this.id = id;
+        }
+
+        public static Status parse(String payload) {
+            try {
+                return WireFormat.gson.fromJson(payload, Status.class);
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+
+        public String toJson() {
+            return WireFormat.gson.toJson(this);
+        }
+    }
+
+    static void writeChunkHeader(byte[] chunk, long id, int index) {
+        ByteBuffer.wrap(chunk).putLong(id).putInt(index);
+    }
+
+    static long chunkId(byte[] chunk) {
+        return ByteBuffer.wrap(chunk, 0, 8).getLong();
+    }
+
+    static int chunkIndex(byte[] chunk) {
+        return ByteBuffer.wrap(chunk, 8, 4).getInt();
+    }
+}
@@ -0,0 +1,135 @@
+package com.ghost.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Incremental decoder for both wire modes.
+ * Feed it whatever bytes have arrived; it returns complete packets and keeps
+ * partial lines/frames across calls, so it works for blocking streams and
+ * non-blocking channels alike. The mode can be switched between packets
+ * without losing already-buffered bytes.
+ */
+public class FrameDecoder {
+    private WireFormat.Mode mode = WireFormat.Mode.JSON;
+
+    // JSON mode: partial line carried over between reads
+    private final WireFormat.ByteSink partialLine = new WireFormat.ByteSink(1024);
+
+    // BINARY mode: header of the frame currently being filled
+    private byte frameType;
+    private String frameSender;
+    private long frameTimestamp;
+    private byte[] frameBody;
+    private int frameFilled = -1; // -1 = no frame in progress
+
+    public WireFormat.Mode getMode() {
+        return mode;
+    }
+
+    public void setMode(WireFormat.Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Decodes the next complete packet from buf, consuming its bytes.
+     *
+     * @return the packet, or null when buf holds no complete packet yet
+     */
+    public CommandPacket next(ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            CommandPacket packet = mode == WireFormat.Mode.BINARY ? nextFrame(buf) : nextLine(buf);
+            if (packet != null)
+                return packet;
+            if (mode == WireFormat.Mode.BINARY && frameFilled < 0 && !hasFullHeader(buf))
+                return null;
+        }
+        return null;
+    }
+
+    private CommandPacket nextLine(ByteBuffer buf) throws IOException {
+        int start = buf.position();
+        int limit = buf.limit();
+        for (int i = start; i < limit; i++) {
+            if (buf.get(i) == '\n') {
+                int len = i - start;
+                buf.position(i + 1);
+                try {
+                    if (partialLine.size() == 0 && buf.hasArray()) {
+                        return WireFormat.decodeJson(buf.array(), buf.arrayOffset() + start, len);
+                    }
+                    appendPartial(buf, start, len);
+                    CommandPacket packet = WireFormat.decodeJson(partialLine.buffer(), 0, partialLine.size());
+                    return packet;
+                } catch (RuntimeException e) {
+                    // Malformed line - skip it like the original readLine loop did
+                    return null;
+                } finally {
+                    partialLine.reset();
+                }
+            }
+        }
+        appendPartial(buf, start, limit - start);
+        buf.position(limit);
+        return null;
+    }
+
+    private void appendPartial(ByteBuffer buf, int start, int len) throws IOException {
+        if (partialLine.size() + len > WireFormat.MAX_FRAME_SIZE) {
+            throw new IOException("Line exceeds " + WireFormat.MAX_FRAME_SIZE + " bytes");
+        }
+        if (buf.hasArray()) {
+            partialLine.write(buf.array(), buf.arrayOffset() + start, len);
+        } else {
+            // Direct buffer (NIO engine): bulk copy out of native memory
+            ByteBuffer slice = buf.duplicate();
+            slice.limit(start + len).position(start);
+            byte[] chunk = new byte[len];
+            slice.get(chunk);
+            partialLine.write(chunk, 0, len);
+        }
+    }
+
+    private boolean hasFullHeader(ByteBuffer buf) {
+        if (buf.remaining() < 3)
+            return false;
+        int senderLen = buf.getShort(buf.position() + 1) & 0xFFFF;
+        return buf.remaining() >= WireFormat.HEADER_FIXED_SIZE + senderLen;
+    }
+
+    private CommandPacket nextFrame(ByteBuffer buf) throws IOException {
+        if (frameFilled < 0) {
+            if (!hasFullHeader(buf))
+                return null;
+            frameType = buf.get();
+            int senderLen = buf.getShort() & 0xFFFF;
+            byte[] sender = new byte[senderLen];
+            buf.get(sender);
+            frameSender = new String(sender, StandardCharsets.UTF_8);
+            frameTimestamp = buf.getLong();
+            int length = buf.getInt();
+            if (length < 0 || length > WireFormat.MAX_FRAME_SIZE) {
+                throw new IOException("Invalid frame length " + length);
+            }
+            frameBody = new byte[length];
+            frameFilled = 0;
+        }
+
+        int n = Math.min(buf.remaining(), frameBody.length - frameFilled);
+        buf.get(frameBody, frameFilled, n);
+        frameFilled += n;
+        if (frameFilled < frameBody.length)
+            return null;
+
+        byte[] body = frameBody;
+        frameBody = null;
+        frameFilled = -1;
+        try {
+            return WireFormat.decodeFrame(frameType, frameSender, frameTimestamp, body);
+        } catch (RuntimeException e) {
+            // Malformed JSON body - drop the frame, the stream itself is still in sync
+            return null;
+        }
+    }
+}
@@ -2,23 +2,65 @@ package com.ghost.net;
 
 import com.ghost.util.Config;
 import com.ghost.util.ScreenCapture;
+import com.ghost.util.TileEncoder;
 import com.ghost.util.PythonBridge;
-import com.google.gson.Gson;
+import java.awt.Dimension;
 import java.io.*;
 import java.net.*;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class GhostClient {
     private Socket socket;
-    private PrintWriter out;
-    private BufferedReader in;
-    private Gson gson = new Gson();
-    private String adminIp;
+    private volatile PacketStream stream;
+    private String adminIp; // Null = found by discovery
+    private final String labId; // Discovery only admins of this lab, "" = any
+    private volatile String adminHost; // Host of the admin currently connected to, configured or discovered
     private CommandListener listener;
     private ScheduledExecutorService screenScheduler;
+    private MulticastFrameReceiver multicastReceiver;
+    private volatile TileEncoder tileEncoder; // Set when the admin accepted tile deltas
+    private volatile StreamController streamController = new StreamController(false);
+    private volatile Subscription subscription = new Subscription(Subscription.Level.FULL); // Admins without subscriptions get everything
+    private volatile Dimension lastFrameSize;
+    private SwarmPeer swarmPeer; // Serves and fetches swarm chunks; null if its port could not be opened
+    private String downloadFolder;
+    private final ChunkCache chunkCache = ChunkCache.openDefault(); // Files received before, for reuse
+    private final FileReceiver fileReceiver = new FileReceiver(chunkCache, new FileReceiver.Events() {
+        @Override
+        public void send(CommandPacket.Type type, String payload) {
+            GhostClient.this.send(new CommandPacket(type, System.getProperty("user.name"), payload));
+        }
+
+        @Override
+        public void notify(String message) {
+            if (listener != null) {
+                listener.onCommand(new CommandPacket(CommandPacket.Type.NOTIFICATION, "SYSTEM", message));
+            }
+        }
+    });
+    private final ShellRunner shellRunner = new ShellRunner(
+            (type, payload) -> send(new CommandPacket(type, System.getProperty("user.name"), payload)));
+    private volatile boolean shellStream; // Admin sends SHELL as Shell.Run and acknowledges output
+    private final LabState applied = new LabState(); // What this student last carried out; listen thread only
+    private volatile int heartbeatMs; // Admin's ping interval once negotiated, 0 = no heartbeats
+    private volatile long lastHeardNanos; // Any packet from the admin counts
+    private volatile RttEstimator rtt = new RttEstimator();
+    private ScheduledExecutorService heartbeatScheduler;
+    private long pingSeq; // Heartbeat thread only
+    private final AtomicBoolean pingPending = new AtomicBoolean();
+    // Pings are written from their own thread, so a write stuck on a dead socket cannot stop the check
+    private final ExecutorService pingSender = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "HeartbeatSender");
+        t.setDaemon(true);
+        return t;
+    });
     private boolean sendingScreens = true;
     private volatile boolean running = true;
 
@@ -27,22 +69,49 @@ public class GhostClient {
     }
 
     public GhostClient(String adminIp) {
+        this(adminIp, "");
+    }
+
+    private GhostClient(String adminIp, String labId) {
         this.adminIp = adminIp;
+        this.labId = labId;
+    }
+
+    /**
+     * A client that finds its admin by discovery and reconnects to the last
+     * one it reached without asking again
+     *
+     * @param labId the lab to join; "" = whichever admin answers
+     */
+    public static GhostClient discovering(String labId) {
+        return new GhostClient(null, labId);
     }
 
     public void setListener(CommandListener listener) {
         this.listener = listener;
     }
 
+    /**
+     * Where chunked file transfers from the admin are saved
+     */
+    public void setDownloadFolder(String folder) {
+        downloadFolder = folder;
+        fileReceiver.setFolder(folder);
+        if (swarmPeer != null)
+            swarmPeer.setFolder(folder);
+    }
+
     public void connect() {
         new Thread(() -> {
+            int failures = 0; // Attempts since the last handshake
             while (running) {
                 try {
-                    System.out.println("Connecting to Admin at " + adminIp + ":" + Config.SERVER_PORT + "...");
+                    DiscoveryService.Endpoint admin = findAdmin(failures);
+                    System.out.println("Connecting to Admin at " + admin + "...");
                     socket = new Socket();
-                    socket.connect(new InetSocketAddress(adminIp, Config.SERVER_PORT), 3000);
-                    out = new PrintWriter(socket.getOutputStream(), true);
-                    in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                    socket.connect(new InetSocketAddress(admin.host, admin.port), 3000);
+                    stream = new PacketStream(socket);
+                    adminHost = admin.host;
 
                     System.out.println("Connected to Admin!");
 
@@ -52,17 +121,42 @@ public class GhostClient {
                     }
 
                     // Send Initial Handshake
+                    Handshake hello = new Handshake();
+                    hello.binary = Config.BINARY_WIRE;
+                    hello.binaryAck = hello.binary;
+                    hello.multicast = true; // Admin decides whether to use it
+                    hello.tiles = Config.TILE_DELTA;
+                    hello.frameAcks = true;
+                    hello.subscribe = true;
+                    hello.fileChunks = true;
+                    hello.swarmPort = startSwarmPeer();
+                    hello.shellStream = true;
+                    hello.commandAcks = true;
+                    hello.heartbeatMs = Config.HEARTBEAT_INTERVAL_MS;
+                    hello.labState = true;
+                    tileEncoder = null;
+                    shellStream = false;
+                    heartbeatMs = 0;
+                    rtt = new RttEstimator();
+                    streamController = new StreamController(false);
+                    subscription = new Subscription(Subscription.Level.FULL);
                     CommandPacket verify = new CommandPacket(CommandPacket.Type.CONNECT,
-                            System.getProperty("user.name"), "{}");
-                    out.println(gson.toJson(verify));
+                            System.getProperty("user.name"), hello.toJson());
+                    stream.write(verify);
+                    awaitHandshake(hello);
+                    failures = 0;
+                    if (adminIp == null)
+                        DiscoveryService.saveCached(admin);
+                    startHeartbeat(socket);
 
                     // Start screen capture thread
                     startScreenCapture();
 
                     // Listen loop
-                    String inputLine;
-                    while ((inputLine = in.readLine()) != null) {
-                        handleCommand(inputLine);
+                    CommandPacket packet;
+                    while ((packet = stream.read()) != null) {
+                        lastHeardNanos = System.nanoTime();
+                        handleCommand(packet);
                     }
 
                     // Connection closed - notify UI
@@ -72,7 +166,7 @@ public class GhostClient {
                     }
 
                 } catch (IOException e) {
-                    System.out.println("Waiting for Admin... (retry in 3s)");
+                    System.out.println("Waiting for Admin...");
                     // Notify UI if was previously connected
                     if (listener != null && socket != null && socket.isConnected()) {
                         listener.onCommand(new CommandPacket(CommandPacket.Type.NOTIFICATION, "SYSTEM",
@@ -81,19 +175,26 @@ public class GhostClient {
                 }
 
                 // Cleanup and wait before retry
+                stopHeartbeat();
                 stopScreenCapture();
+                stopMulticast();
+                fileReceiver.disconnected();
+                shellRunner.disconnected();
+                if (swarmPeer != null)
+                    swarmPeer.disconnected();
                 try {
                     if (socket != null)
                         socket.close();
                 } catch (Exception ex) {
                 }
                 socket = null;
-                out = null;
-                in = null;
+                stream = null;
 
                 if (running) {
+                    long delay = reconnectDelayMs(failures++);
+                    System.out.println("Reconnecting in " + delay + " ms");
                     try {
-                        Thread.sleep(3000);
+                        Thread.sleep(delay);
                     } catch (InterruptedException e) {
                         break;
                     }
@@ -102,26 +203,366 @@ public class GhostClient {
         }).start();
     }
 
+    /**
+     * Where to connect: the pinned admin; else the cached one on the first
+     * attempt, so a reconnect costs no lookup; else whoever answers a probe,
+     * preferring the cached one; and the cached or a local admin if nobody
+     * answers
+     */
+    private DiscoveryService.Endpoint findAdmin(int failures) {
+        if (adminIp != null)
+            return new DiscoveryService.Endpoint(adminIp, Config.SERVER_PORT, "");
+        DiscoveryService.Endpoint cached = DiscoveryService.loadCached();
+        if (cached != null && !cached.inLab(labId))
+            cached = null;
+        if (cached != null && failures == 0)
+            return cached;
+        for (int i = 0; i < Config.DISCOVERY_PROBES && running; i++) {
+            java.util.List<DiscoveryService.Endpoint> found = DiscoveryService.probe(labId,
+                    Config.DISCOVERY_PROBE_WAIT_MS);
+            if (!found.isEmpty())
+                return found.contains(cached) ? cached : found.get(0);
+        }
+        System.out.println("Discovery: No admin answered");
+        return cached != null ? cached : new DiscoveryService.Endpoint("127.0.0.1", Config.SERVER_PORT, labId);
+    }
+
+    /**
+     * Exponential backoff with jitter: somewhere in the upper half of
+     * RECONNECT_BASE_MS * 2^failures, capped at RECONNECT_MAX_MS. After an
+     * admin restart the whole lab retries at spread-out times instead of in
+     * lockstep, and a long outage costs a retry every half minute.
+     */
+    static long reconnectDelayMs(int failures) {
+        long ceiling = Math.min(Config.RECONNECT_MAX_MS, (long) Config.RECONNECT_BASE_MS << Math.min(failures, 20));
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+
+    /**
+     * Opens the chunk server other students fetch swarm chunks from, once per
+     * client. Returns its port for the handshake, or 0 to stay out of swarms.
+     */
+    private int startSwarmPeer() {
+        if (!Config.SWARM_ENABLED)
+            return 0;
+        if (swarmPeer == null) {
+            try {
+                swarmPeer = new SwarmPeer(Config.SWARM_PORT, chunkCache, new SwarmPeer.Events() {
+                    @Override
+                    public void send(CommandPacket.Type type, String payload) {
+                        GhostClient.this.send(new CommandPacket(type, System.getProperty("user.name"), payload));
+                    }
+
+                    @Override
+                    public void notify(String message) {
+                        if (listener != null) {
+                            listener.onCommand(new CommandPacket(CommandPacket.Type.NOTIFICATION, "SYSTEM", message));
+                        }
+                    }
+                });
+                if (downloadFolder != null)
+                    swarmPeer.setFolder(downloadFolder);
+            } catch (IOException e) {
+                System.err.println("Swarm chunk server unavailable: " + e.getMessage());
+                return 0;
+            }
+        }
+        return swarmPeer.getPort();
+    }
+
+    /**
+     * Waits for the server's CONNECT answer before sending anything else.
+     * Servers that never answer leave the connection on JSON lines once the
+     * timeout expires; an answer that still comes later (an admin slowly
+     * admitting a reconnect storm) is applied by the listen loop.
+     */
+    private void awaitHandshake(Handshake hello) throws IOException {
+        if (!hello.requestsAnything())
+            return;
+
+        long deadline = System.currentTimeMillis() + Config.HANDSHAKE_TIMEOUT_MS;
+        try {
+            while (true) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                    throw new SocketTimeoutException();
+                stream.setSoTimeout((int) remaining);
+
+                CommandPacket packet = stream.read();
+                if (packet == null)
+                    return; // Closed - the listen loop will notice
+                if (packet.getType() == CommandPacket.Type.CONNECT) {
+                    applyHandshake(Handshake.parse(packet.getPayload()));
+                    return;
+                }
+                // Commands broadcast before our CONNECT was processed
+                handleCommand(packet);
+            }
+        } catch (SocketTimeoutException e) {
+            System.out.println("No handshake answer, staying on JSON protocol");
+        } finally {
+            stream.setSoTimeout(0);
+        }
+    }
+
+    /**
+     * Applies the server's CONNECT answer. Everything the server sends after
+     * it is binary if it accepted binary frames; our side switches once
+     * BINARY_READY, the last JSON line, is written, which is when the server
+     * starts reading binary. Servers that predate BINARY_READY switched their
+     * read side on answering.
+     */
+    private void applyHandshake(Handshake answer) {
+        PacketStream s = stream;
+        if (answer.binary && s != null) {
+            s.setReadMode(WireFormat.Mode.BINARY);
+            try {
+                synchronized (s) { // No other packet between the marker and the switch
+                    if (answer.binaryAck)
+                        s.write(new CommandPacket(CommandPacket.Type.BINARY_READY, System.getProperty("user.name"),
+                                ""));
+                    s.setWriteMode(WireFormat.Mode.BINARY);
+                }
+                System.out.println("Using binary frames");
+            } catch (IOException e) {
+                // Listen loop notices the broken socket and reconnects
+            }
+        }
+        if (answer.multicast) {
+            startMulticast(answer);
+        }
+        if (answer.tiles) {
+            tileEncoder = new TileEncoder(Config.TILE_SIZE, Config.TILE_KEYFRAME_INTERVAL);
+        }
+        if (answer.frameAcks) {
+            streamController = new StreamController(true);
+        }
+        if (answer.subscribe) {
+            applySubscription(new Subscription(Subscription.Level.THUMB)); // Until the admin says otherwise
+        }
+        shellStream = answer.shellStream;
+        heartbeatMs = answer.heartbeatMs;
+    }
+
+    /**
+     * Joins the admin's multicast group for ADMIN_SCREEN. Frames are handed to
+     * the listener exactly like TCP ones; lost fragments are NACKed over TCP.
+     * If the group cannot be joined the admin is told to keep using TCP.
+     */
+    private void startMulticast(Handshake answer) {
+        String name = System.getProperty("user.name");
+        MulticastFrameReceiver.Listener frames = new MulticastFrameReceiver.Listener() {
+            @Override
+            public void onFrame(byte[] frame, boolean keyframe) {
+                if (listener != null) {
+                    listener.onCommand(new CommandPacket(CommandPacket.Type.ADMIN_SCREEN, "ADMIN", frame));
+                }
+            }
+
+            @Override
+            public void onNack(int seq, int[] missing) {
+                StringBuilder nack = new StringBuilder().append(seq).append(':');
+                if (missing == null) {
+                    nack.append('*');
+                } else {
+                    for (int i = 0; i < missing.length; i++) {
+                        if (i > 0)
+                            nack.append(',');
+                        nack.append(missing[i]);
+                    }
+                }
+                send(new CommandPacket(CommandPacket.Type.MCAST_NACK, name, nack.toString()));
+            }
+
+            @Override
+            public void onKeyframeNeeded() {
+                send(new CommandPacket(CommandPacket.Type.KEYFRAME_REQUEST, name, ""));
+            }
+        };
+        MulticastFrameReceiver receiver = null;
+        try {
+            receiver = new MulticastFrameReceiver(answer.multicastGroup, answer.multicastPort, null, frames);
+            receiver.start();
+            multicastReceiver = receiver;
+            System.out.println("Receiving admin screen via multicast " + answer.multicastGroup);
+        } catch (IOException e) {
+            if (receiver != null)
+                receiver.stop();
+            System.err.println("Could not join multicast group, using TCP: " + e.getMessage());
+            send(new CommandPacket(CommandPacket.Type.MCAST_CONFIG, name, "OFF"));
+        }
+    }
+
+    private void stopMulticast() {
+        if (multicastReceiver != null) {
+            multicastReceiver.stop();
+            multicastReceiver = null;
+        }
+    }
+
+    /**
+     * Pings the admin every HEARTBEAT_INTERVAL_MS if it agreed to heartbeats,
+     * and closes the socket once nothing arrived for HEARTBEAT_MISSES of the
+     * admin's intervals; the listen loop then fails and reconnects, instead of
+     * waiting minutes for TCP to give up on a half-open connection
+     */
+    private void startHeartbeat(Socket connected) {
+        if (heartbeatMs <= 0)
+            return;
+        lastHeardNanos = System.nanoTime();
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        heartbeatScheduler = scheduler;
+        PacketStream connectedStream = stream;
+        scheduler.scheduleWithFixedDelay(() -> heartbeat(connected, connectedStream), Config.HEARTBEAT_INTERVAL_MS,
+                Config.HEARTBEAT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void heartbeat(Socket connected, PacketStream connectedStream) {
+        long now = System.nanoTime();
+        long silentMs = (now - lastHeardNanos) / 1_000_000;
+        if (silentMs > (long) Math.max(heartbeatMs, Config.HEARTBEAT_INTERVAL_MS) * Config.HEARTBEAT_MISSES) {
+            System.out.println("Admin silent for " + silentMs + " ms, reconnecting");
+            try {
+                connected.close();
+            } catch (IOException e) {
+            }
+            return;
+        }
+        if (pingPending.compareAndSet(false, true)) {
+            String ping = new Heartbeat(pingSeq++, now).toJson();
+            pingSender.execute(() -> {
+                try {
+                    if (stream == connectedStream) // Not into the next connection's handshake
+                        send(new CommandPacket(CommandPacket.Type.PING, System.getProperty("user.name"), ping));
+                } finally {
+                    pingPending.set(false);
+                }
+            });
+        }
+    }
+
+    private void stopHeartbeat() {
+        if (heartbeatScheduler != null) {
+            heartbeatScheduler.shutdownNow();
+            heartbeatScheduler = null;
+        }
+    }
+
+    /**
+     * Smoothed round trip to the admin, -1 before the first heartbeat answer
+     */
+    public double getRttMs() {
+        return rtt.getSmoothedMs();
+    }
+
     private void startScreenCapture() {
         if (screenScheduler != null && !screenScheduler.isShutdown())
             return;
 
         screenScheduler = Executors.newSingleThreadScheduledExecutor();
-        screenScheduler.scheduleAtFixedRate(() -> {
-            if (sendingScreens && out != null) {
-                try {
-                    String base64 = ScreenCapture.captureForStreaming();
-                    if (base64 != null) {
-                        CommandPacket screenPacket = new CommandPacket(
-                                CommandPacket.Type.SCREEN_DATA,
-                                System.getProperty("user.name"),
-                                base64);
-                        out.println(gson.toJson(screenPacket));
-                    }
-                } catch (Exception e) {
+        // Spread out, so a reconnecting lab does not start encoding in the same instant
+        screenScheduler.schedule(this::captureFrame,
+                50 + ThreadLocalRandom.current().nextInt(Config.CAPTURE_START_SPREAD_MS), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Captures and sends one frame with the controller's current settings, then
+     * schedules the next one at the controller's frame rate
+     */
+    private void captureFrame() {
+        long start = System.nanoTime();
+        StreamController controller = streamController;
+        Subscription sub = subscription;
+        boolean wanted = sub.level != Subscription.Level.NONE;
+        if (sendingScreens && stream != null && wanted) {
+            try {
+                // Capture at the size the admin displays, when it told us
+                Dimension size = sub.hasSize()
+                        ? ScreenCapture.viewSize(sub.width, sub.height, sub.preserveRatio, controller.getScale())
+                        : ScreenCapture.scaledSize(controller.getScale());
+                lastFrameSize = size;
+                TileEncoder tiles = tileEncoder;
+                byte[] frame = tiles != null
+                        ? ScreenCapture.captureAsTiles(tiles, size, controller.getQuality())
+                        : ScreenCapture.captureAsJpeg(size, controller.getQuality());
+                controller.onFrameEncoded(System.nanoTime() - start);
+                if (frame != null) { // null when nothing changed
+                    CommandPacket screenPacket = new CommandPacket(
+                            CommandPacket.Type.SCREEN_DATA,
+                            System.getProperty("user.name"),
+                            frame);
+                    controller.onFrameSent(frame.length);
+                    send(screenPacket);
+                }
+                if (controller.tick() && controller.hasNetworkFeedback()) {
+                    sendStreamStatus(controller);
                 }
+            } catch (Exception e) {
+            }
+        }
+
+        ScheduledExecutorService scheduler = screenScheduler;
+        if (scheduler != null) {
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+            long delay = wanted
+                    ? Math.max(1, controller.getFrameIntervalMs() - elapsedMs)
+                    : 250; // Unsubscribed: just check back for a new subscription
+            try {
+                scheduler.schedule(this::captureFrame, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Capture stopped
+            }
+        }
+    }
+
+    /**
+     * Caps the stream at what the admin is showing. With a display size the
+     * controller's scale is relative to that size (1.0 = exactly what the admin
+     * shows), otherwise to the monitor. A new size alone keeps the current
+     * settings; the capture loop picks it up with the next frame. Leaving NONE
+     * forces a keyframe so the admin's image is brought up to date at once.
+     */
+    private void applySubscription(Subscription next) {
+        Subscription previous = subscription;
+        subscription = next;
+        StreamController controller = streamController;
+        boolean sameLimits = previous.level == next.level && previous.hasSize() == next.hasSize();
+        if (!sameLimits) {
+            switch (next.level) {
+                case FULL:
+                    controller.setLimits(Config.STREAM_MAX_FPS, next.hasSize() ? 1.0 : Config.STREAM_MAX_SCALE,
+                            Config.STREAM_MAX_QUALITY, "admin opened full screen");
+                    break;
+                case THUMB:
+                    controller.setLimits(Config.THUMB_FPS, next.hasSize() ? 1.0 : Config.THUMB_SCALE,
+                            Config.THUMB_QUALITY, "admin shows thumbnail");
+                    break;
+                default:
+                    break;
             }
-        }, 50, 50, TimeUnit.MILLISECONDS); // 20fps for smoother display
+        }
+        TileEncoder tiles = tileEncoder;
+        if (previous.level == Subscription.Level.NONE && tiles != null) {
+            tiles.requestKeyframe();
+        }
+        if (next.level == Subscription.Level.NONE && controller.hasNetworkFeedback()) {
+            sendStreamStatus(controller); // The capture loop stops reporting while paused
+        }
+    }
+
+    private void sendStreamStatus(StreamController controller) {
+        StreamStatus status = controller.getStatus();
+        status.level = subscription.level;
+        Dimension size = lastFrameSize;
+        if (size != null) {
+            status.width = size.width;
+            status.height = size.height;
+        }
+        send(new CommandPacket(CommandPacket.Type.STREAM_STATS, System.getProperty("user.name"), status.toJson()));
     }
 
     private void stopScreenCapture() {
@@ -135,9 +576,17 @@ public class GhostClient {
         this.sendingScreens = enabled;
     }
 
-    private void handleCommand(String json) {
+    private void handleCommand(CommandPacket packet) {
+        long commandId = packet.getId();
+        String error = null;
+        CompletableFuture<String> osCommand = null; // Its exit is the result
         try {
-            CommandPacket packet = gson.fromJson(json, CommandPacket.class);
+            if (handleTransport(packet))
+                return;
+            if (commandId != 0) {
+                send(new CommandPacket(CommandPacket.Type.ACK, System.getProperty("user.name"),
+                        Long.toString(commandId)));
+            }
 
             // Notify UI listener
             if (listener != null) {
@@ -149,26 +598,31 @@ public class GhostClient {
             switch (packet.getType()) {
                 case LOCK:
                     // Lock workstation directly without Python
-                    executeDirectCommand("rundll32.exe user32.dll,LockWorkStation");
+                    applied.locked = true;
+                    osCommand = executeDirectCommand("rundll32.exe user32.dll,LockWorkStation");
                     break;
                 case UNLOCK:
                     // Note: can't really unlock, just unblock input if Python available
+                    applied.locked = false;
+                    applied.inputBlocked = false;
                     try {
                         PythonBridge.execute("unblock_input");
                     } catch (Exception e) {
                         System.out.println("Could not unblock input: " + e.getMessage());
+                        error = "could not unblock input: " + e.getMessage();
                     }
                     break;
                 case SHUTDOWN:
                     // Shutdown directly without Python
-                    executeDirectCommand("shutdown /s /t 0");
+                    osCommand = executeDirectCommand("shutdown /s /t 0");
                     break;
                 case RESTART:
                     // Restart directly without Python
-                    executeDirectCommand("shutdown /r /t 0");
+                    osCommand = executeDirectCommand("shutdown /r /t 0");
                     break;
                 case INTERNET:
                     // Network control requires Python for now
+                    applied.internetOff = "DISABLE".equals(packet.getPayload());
                     try {
                         if ("DISABLE".equals(packet.getPayload())) {
                             PythonBridge.execute("kill_net");
@@ -177,15 +631,17 @@ public class GhostClient {
                         }
                     } catch (Exception e) {
                         System.out.println("Network control requires Python: " + e.getMessage());
+                        error = "network control requires Python: " + e.getMessage();
                     }
                     break;
                 case MUTE:
                     // Mute audio - try PowerShell directly
-                    executeDirectCommand(
+                    osCommand = executeDirectCommand(
                             "powershell -Command \"(New-Object -ComObject WScript.Shell).SendKeys([char]173)\"");
                     break;
                 case BLOCK_INPUT:
                     // Block input requires Python (admin privileges)
+                    applied.inputBlocked = "BLOCK".equals(packet.getPayload());
                     try {
                         if ("BLOCK".equals(packet.getPayload())) {
                             PythonBridge.execute("block_input");
@@ -194,10 +650,15 @@ public class GhostClient {
                         }
                     } catch (Exception e) {
                         System.out.println("Input control requires Python with admin: " + e.getMessage());
+                        error = "input control requires Python with admin: " + e.getMessage();
                     }
                     break;
                 case SHELL:
                     // Execute shell command directly without Python
+                    if (shellStream) {
+                        shellRunner.runReceived(Shell.Run.parse(packet.getPayload()));
+                        return; // Its SHELL_EXIT is the result
+                    }
                     String cmd = packet.getPayload();
                     if (cmd != null && !cmd.isEmpty()) {
                         executeShellWithOutput(cmd);
@@ -214,18 +675,143 @@ public class GhostClient {
             }
         } catch (Exception e) {
             e.printStackTrace();
+            error = e.toString();
+        }
+        if (commandId == 0)
+            return;
+        if (osCommand != null) {
+            osCommand.thenAccept(failure -> sendResult(commandId, failure));
+        } else {
+            sendResult(commandId, error);
+        }
+    }
+
+    private void sendResult(long commandId, String error) {
+        send(new CommandPacket(CommandPacket.Type.RESULT, System.getProperty("user.name"),
+                new CommandResult(commandId, error).toJson()));
+    }
+
+    /**
+     * Stream and file transfer bookkeeping packets are consumed here and never
+     * reach the UI
+     */
+    private boolean handleTransport(CommandPacket packet) {
+        switch (packet.getType()) {
+            case CONNECT:
+                // Answer that missed the handshake timeout
+                applyHandshake(Handshake.parse(packet.getPayload()));
+                if (heartbeatScheduler == null)
+                    startHeartbeat(socket);
+                return true;
+            case FRAME_ACK:
+                streamController.onAck(Long.parseLong(packet.getPayload()));
+                return true;
+            case SUBSCRIBE:
+                Subscription requested = Subscription.parse(packet.getPayload());
+                if (requested != null) {
+                    applySubscription(requested);
+                }
+                return true;
+            case KEYFRAME_REQUEST:
+                TileEncoder tiles = tileEncoder;
+                if (tiles != null) {
+                    tiles.requestKeyframe();
+                }
+                return true;
+            case MCAST_REPAIR:
+                MulticastFrameReceiver receiver = multicastReceiver;
+                if (receiver != null) {
+                    receiver.acceptRepair(packet.getPayloadBytes());
+                }
+                return true;
+            case FILE_OFFER:
+                fileReceiver.offerReceived(FileManifest.parse(packet.getPayload()));
+                return true;
+            case FILE_CHUNK:
+                fileReceiver.chunkReceived(packet.getPayloadBytes());
+                return true;
+            case SWARM_OFFER:
+                if (swarmPeer != null)
+                    swarmPeer.offerReceived(FileManifest.parse(packet.getPayload()));
+                return true;
+            case SWARM_DONE:
+                if (swarmPeer != null)
+                    swarmPeer.transferEnded(Long.parseLong(packet.getPayload()));
+                return true;
+            case SHELL_ACK:
+                shellRunner.ackReceived(Shell.Ack.parse(packet.getPayload()));
+                return true;
+            case LAB_STATE:
+                applyLabState(packet);
+                return true;
+            case PING:
+                send(new CommandPacket(CommandPacket.Type.PONG, System.getProperty("user.name"), packet.getPayload()));
+                return true;
+            case PONG:
+                Heartbeat pong = Heartbeat.parse(packet.getPayload());
+                if (pong != null) {
+                    RttEstimator estimator = rtt;
+                    estimator.sample((System.nanoTime() - pong.time) / 1e6);
+                    streamController.onRtt(estimator.getMinMs(), estimator.getSmoothedMs(), estimator.getJitterMs());
+                }
+                return true;
+            case SWARM_ASSIGN:
+                if (swarmPeer != null)
+                    swarmPeer.assignReceived(Swarm.Assign.parse(packet.getPayload()), adminHost);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Brings the student to the admin's desired state by replaying, as if the
+     * admin had sent them, only the commands for what differs from what this
+     * student last carried out; then lets the UI see the snapshot itself
+     * (share on or off). An admin without a record of the lab only adds
+     * restrictions, never lifts them.
+     */
+    private void applyLabState(CommandPacket packet) {
+        LabState desired = LabState.parse(packet.getPayload());
+        if (desired == null)
+            return;
+        if (desired.locked != applied.locked && (desired.locked || !desired.unknown))
+            handleCommand(new CommandPacket(desired.locked ? CommandPacket.Type.LOCK : CommandPacket.Type.UNLOCK,
+                    "ADMIN", "{}"));
+        if (desired.inputBlocked != applied.inputBlocked && (desired.inputBlocked || !desired.unknown))
+            handleCommand(new CommandPacket(CommandPacket.Type.BLOCK_INPUT, "ADMIN",
+                    desired.inputBlocked ? "BLOCK" : "UNBLOCK"));
+        if (desired.internetOff != applied.internetOff && (desired.internetOff || !desired.unknown))
+            handleCommand(new CommandPacket(CommandPacket.Type.INTERNET, "ADMIN",
+                    desired.internetOff ? "DISABLE" : "ENABLE"));
+        applied.shareActive = desired.shareActive;
+        if (listener != null) {
+            listener.onCommand(packet);
         }
     }
 
     public void sendMessage(CommandPacket packet) {
-        if (out != null) {
-            out.println(gson.toJson(packet));
+        send(packet);
+    }
+
+    private void send(CommandPacket packet) {
+        PacketStream s = stream;
+        if (s != null) {
+            try {
+                s.write(packet);
+            } catch (IOException e) {
+                // Listen loop notices the broken socket and reconnects
+            }
         }
     }
 
     public void disconnect() {
         running = false;
+        stopHeartbeat();
         stopScreenCapture();
+        stopMulticast();
+        if (swarmPeer != null)
+            swarmPeer.close();
         try {
             if (socket != null)
                 socket.close();
@@ -236,58 +822,73 @@ public class GhostClient {
     /**
      * Execute a command directly using Java Runtime (no Python dependency)
      */
-    private void executeDirectCommand(String command) {
-        CompletableFuture.runAsync(() -> {
+    /**
+     * Runs a command through cmd.exe off the listen thread
+     *
+     * @return completes with null once it exited with 0, or with why it failed
+     */
+    private CompletableFuture<String> executeDirectCommand(String command) {
+        return CompletableFuture.supplyAsync(() -> {
             try {
                 ProcessBuilder pb = new ProcessBuilder("cmd.exe", "/c", command);
                 pb.redirectErrorStream(true);
+                pb.redirectOutput(ProcessBuilder.Redirect.DISCARD); // Never blocks on a full pipe
                 Process p = pb.start();
-                p.waitFor();
+                int exit = p.waitFor();
+                if (exit != 0) {
+                    System.err.println("[DirectCmd] '" + command + "' exited with " + exit);
+                    return "exit code " + exit;
+                }
                 System.out.println("[DirectCmd] Executed: " + command);
+                return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return "interrupted";
             } catch (Exception e) {
                 System.err.println("[DirectCmd] Error executing '" + command + "': " + e.getMessage());
+                return "could not run: " + e.getMessage();
             }
         });
     }
 
     /**
-     * Execute a shell command and send output back to admin
+     * Execute a shell command and send output back to admin in one packet, for
+     * admins without the streamed shell. Output past the SHELL_MAX_* caps is dropped.
      */
     private void executeShellWithOutput(String command) {
         String clientName = System.getProperty("user.name");
         CompletableFuture.runAsync(() -> {
             try {
-                ProcessBuilder pb = new ProcessBuilder("cmd.exe", "/c", command);
+                ProcessBuilder pb = new ProcessBuilder(ShellRunner.shellCommand(command));
                 pb.redirectErrorStream(true);
                 Process p = pb.start();
 
                 StringBuilder output = new StringBuilder();
                 BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()));
                 String line;
+                int lines = 0;
                 while ((line = reader.readLine()) != null) {
-                    output.append(line).append("\n");
+                    if (++lines <= Config.SHELL_MAX_LINES && output.length() + line.length() < Config.SHELL_MAX_BYTES) {
+                        output.append(line).append("\n");
+                    }
                 }
                 p.waitFor();
 
                 // Send output back to admin
-                if (out != null) {
-                    String response = clientName + " > " + command + "\n" + output.toString();
-                    CommandPacket outputPacket = new CommandPacket(
-                            CommandPacket.Type.SHELL_OUTPUT,
-                            clientName,
-                            response);
-                    out.println(gson.toJson(outputPacket));
-                }
+                String response = clientName + " > " + command + "\n" + output.toString();
+                CommandPacket outputPacket = new CommandPacket(
+                        CommandPacket.Type.SHELL_OUTPUT,
+                        clientName,
+                        response);
+                send(outputPacket);
             } catch (Exception e) {
                 // Send error back to admin
-                if (out != null) {
-                    String errorResponse = clientName + " > " + command + "\nError: " + e.getMessage();
-                    CommandPacket errorPacket = new CommandPacket(
-                            CommandPacket.Type.SHELL_OUTPUT,
-                            clientName,
-                            errorResponse);
-                    out.println(gson.toJson(errorPacket));
-                }
+                String errorResponse = clientName + " > " + command + "\nError: " + e.getMessage();
+                CommandPacket errorPacket = new CommandPacket(
+                        CommandPacket.Type.SHELL_OUTPUT,
+                        clientName,
+                        errorResponse);
+                send(errorPacket);
             }
         });
     }
@@ -1,32 +1,119 @@
 package com.ghost.net;
 
 import com.ghost.util.Config;
-import com.ghost.util.ScreenCapture;
-import com.google.gson.Gson;
 import java.io.*;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class GhostServer {
-    private ServerSocket serverSocket;
+    private ServerSocketChannel serverChannel;
+    private NioServerEngine nioEngine;
+    private MulticastFrameSender multicastSender;
+    private final FileDistributor fileDistributor = new FileDistributor(this);
+    private final SwarmCoordinator swarmCoordinator = new SwarmCoordinator(this);
     private boolean running = false;
     private ExecutorService pool = Executors.newCachedThreadPool();
-    private List<ClientHandler> clients = new ArrayList<>();
-    private Map<String, ClientHandler> clientsByName = new HashMap<>();
-    private Gson gson = new Gson();
+    private final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Heartbeat");
+        t.setDaemon(true);
+        return t;
+    });
+    private List<ClientConnection> clients = new CopyOnWriteArrayList<>();
+    private Map<String, ClientConnection> clientsByName = new ConcurrentHashMap<>();
     private ScreenUpdateListener screenListener;
     private ClientStatusListener statusListener;
+    private ShellListener shellListener;
+    private CommandStatsListener commandListener;
+    private final Map<Long, FanOut> fanOuts = new ConcurrentHashMap<>(); // Runs still collecting output
+    private final Set<Long> fanOutIds = ConcurrentHashMap.newKeySet(); // Late output of finished runs is dropped
+    private final LabState labState = new LabState(); // Guarded by itself, with lockedStudents
+    private final Set<String> lockedStudents = new HashSet<>(); // Locked from their own card
+    private final java.nio.file.Path labStateFile = java.nio.file.Paths.get(Config.LAB_STATE_FILE);
+    private final DiscoveryService discovery = new DiscoveryService();
+    private final AdmissionControl admission = new AdmissionControl(Config.ADMISSION_RATE, Config.ADMISSION_BURST);
+    private final Outbox outbox = new Outbox(this, java.nio.file.Paths.get(Config.OUTBOX_DIR));
+    private volatile FileProgressListener fileListener = new FileProgressListener() { // Latest sendFile's, for held files
+        @Override
+        public void onProgress(String clientName, String fileName, long bytesDone, long totalBytes) {
+        }
+
+        @Override
+        public void onComplete(String clientName, String fileName) {
+        }
+
+        @Override
+        public void onFailed(String clientName, String fileName, String reason) {
+            System.err.println("File " + fileName + " to " + clientName + " failed: " + reason);
+        }
+    };
+    private final CommandTracker commandTracker = new CommandTracker(stats -> {
+        CommandStatsListener l = commandListener;
+        if (l != null)
+            l.onCommandStats(stats);
+    });
 
     public interface ScreenUpdateListener {
         void onScreenUpdate(String clientName, String base64Image);
 
+        /**
+         * Raw frame: a JPEG keyframe or a TileFrame delta. Defaults to the Base64 callback for listeners that
+         * have not been updated for binary frames.
+         */
+        default void onScreenFrame(String clientName, byte[] jpeg) {
+            onScreenUpdate(clientName, Base64.getEncoder().encodeToString(jpeg));
+        }
+
         default void onShellOutput(String clientName, String output) {
         }
+
+        /**
+         * A student's adaptive stream settings changed or were re-reported
+         */
+        default void onStreamStatus(String clientName, StreamStatus status) {
+        }
+    }
+
+    /**
+     * Per-student progress of sendFile. Called on network threads.
+     */
+    public interface FileProgressListener {
+        void onProgress(String clientName, String fileName, long bytesDone, long totalBytes);
+
+        void onComplete(String clientName, String fileName);
+
+        void onFailed(String clientName, String fileName, String reason);
+    }
+
+    /**
+     * Output of commands started with runShell, as it arrives. Called on
+     * network threads; keep it short, the student waits for the acknowledgement.
+     */
+    public interface ShellListener {
+        void onShellOutput(String clientName, long commandId, String text);
+
+        void onShellExit(String clientName, Shell.Exit exit);
+    }
+
+    /**
+     * A tracked command was sent, acknowledged, finished or timed out. Called
+     * on network threads.
+     */
+    public interface CommandStatsListener {
+        void onCommandStats(CommandStats stats);
     }
 
     public interface ClientStatusListener {
@@ -39,53 +126,591 @@ public class GhostServer {
         this.screenListener = listener;
     }
 
+    public void setShellListener(ShellListener listener) {
+        this.shellListener = listener;
+    }
+
+    public void setCommandListener(CommandStatsListener listener) {
+        this.commandListener = listener;
+    }
+
     public void setStatusListener(ClientStatusListener listener) {
         this.statusListener = listener;
     }
 
+    /**
+     * Starts the engine chosen by Config.SERVER_ENGINE: one blocking thread per
+     * client (default), or NIO selector reactors for large labs.
+     */
     public void start() {
+        if (Config.MULTICAST_ENABLED) {
+            startMulticast();
+        }
+        if ("nio".equalsIgnoreCase(Config.SERVER_ENGINE)) {
+            startNio();
+        } else {
+            startBlocking();
+        }
+        heartbeats.scheduleWithFixedDelay(this::heartbeat, Config.HEARTBEAT_INTERVAL_MS,
+                Config.HEARTBEAT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        discovery.startResponding();
+        discovery.startBroadcasting();
+    }
+
+    /**
+     * Pings every student that negotiated heartbeats and drops those that sent
+     * nothing for HEARTBEAT_MISSES intervals, so a half-open connection loses
+     * its card and stops receiving broadcasts within seconds instead of when a
+     * write finally fails
+     */
+    private void heartbeat() {
+        long now = System.nanoTime();
+        for (ClientConnection c : clients) {
+            if (c.heartbeatMs <= 0)
+                continue;
+            long silentMs = (now - c.lastHeardNanos) / 1_000_000;
+            if (silentMs > (long) Math.max(c.heartbeatMs, Config.HEARTBEAT_INTERVAL_MS) * Config.HEARTBEAT_MISSES) {
+                System.out.println("Client " + c.getClientName() + " silent for " + silentMs + " ms, disconnecting");
+                c.close();
+                connectionClosed(c); // Now, even if its reader is still stuck in a read
+                continue;
+            }
+            c.send(new EncodedPacket(new CommandPacket(CommandPacket.Type.PING, "ADMIN",
+                    new Heartbeat(c.pingSeq++, now).toJson())));
+        }
+    }
+
+    private void startBlocking() {
         new Thread(() -> {
             try {
-                serverSocket = new ServerSocket(Config.SERVER_PORT);
+                // Blocking channel rather than ServerSocket, so each client socket
+                // has a channel that can write shared broadcast buffers directly
+                serverChannel = ServerSocketChannel.open();
+                serverChannel.bind(new InetSocketAddress(Config.SERVER_PORT));
                 running = true;
                 System.out.println("Ghost Server started on port " + Config.SERVER_PORT);
 
                 while (running) {
-                    Socket clientSocket = serverSocket.accept();
-                    ClientHandler handler = new ClientHandler(clientSocket);
-                    clients.add(handler);
+                    long wait;
+                    while ((wait = admission.delayNanos()) > 0) {
+                        Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                    }
+                    SocketChannel clientChannel = serverChannel.accept();
+                    admission.admitted();
+                    ClientHandler handler = new ClientHandler(clientChannel.socket());
+                    connectionOpened(handler);
                     pool.execute(handler);
                 }
             } catch (IOException e) {
                 e.printStackTrace();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
         }).start();
     }
 
+    private void startNio() {
+        try {
+            nioEngine = new NioServerEngine(this, Config.SERVER_PORT, Config.NIO_REACTORS, admission);
+            nioEngine.start();
+            running = true;
+            System.out.println("Ghost Server (NIO, " + Config.NIO_REACTORS + " reactors) started on port "
+                    + Config.SERVER_PORT);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void startMulticast() {
+        try {
+            multicastSender = new MulticastFrameSender(Config.MULTICAST_GROUP, Config.MULTICAST_PORT,
+                    MulticastFrameSender.resolveInterface(), Config.MULTICAST_KEYFRAME_INTERVAL);
+            System.out.println("Multicast screen share on " + Config.MULTICAST_GROUP + ":" + Config.MULTICAST_PORT);
+        } catch (IOException e) {
+            System.err.println("Multicast unavailable, using TCP for screen share: " + e.getMessage());
+            multicastSender = null;
+        }
+    }
+
+    /**
+     * Sends one admin screen frame to every student: once to the multicast
+     * group for students that joined it, and over TCP to everyone else.
+     */
+    public void broadcastAdminScreen(byte[] jpeg) {
+        boolean multicastSent = false;
+        if (multicastSender != null && hasMulticastClients()) {
+            try {
+                multicastSender.send(jpeg, true); // Every JPEG frame stands alone
+                multicastSent = true;
+            } catch (IOException e) {
+                System.err.println("Multicast send failed: " + e.getMessage());
+            }
+        }
+
+        EncodedPacket encoded = null;
+        for (ClientConnection c : clients) {
+            if (multicastSent && c.multicast)
+                continue;
+            if (encoded == null)
+                encoded = new EncodedPacket(new CommandPacket(CommandPacket.Type.ADMIN_SCREEN, "ADMIN", jpeg));
+            c.send(encoded);
+        }
+    }
+
+    private boolean hasMulticastClients() {
+        for (ClientConnection c : clients) {
+            if (c.multicast)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Sends to every connected student; offline students the admin has seen
+     * get it from the outbox when they reconnect, if its type is kept
+     */
     public void broadcast(CommandPacket packet) {
-        String json = gson.toJson(packet);
-        for (ClientHandler c : clients) {
-            c.send(json);
+        EncodedPacket encoded = new EncodedPacket(packet);
+        for (ClientConnection c : clients) {
+            if (!c.isIdentified() || !outbox.hold(c.getClientName(), true, packet))
+                c.send(encoded);
+        }
+        holdForOffline(null, packet);
+    }
+
+    /**
+     * Keeps a packet in the outbox for one student if it is offline, or for
+     * every known offline student if clientName is null
+     */
+    private void holdForOffline(String clientName, CommandPacket packet) {
+        if (Outbox.ttlMs(packet.getType()) <= 0)
+            return;
+        for (String name : clientName != null ? List.of(clientName) : outbox.knownStudents()) {
+            if (!clientsByName.containsKey(name))
+                outbox.hold(name, false, packet);
         }
     }
 
     /**
      * Broadcast to all clients except the sender (for LAN chat)
      */
-    private void broadcastExcept(CommandPacket packet, ClientHandler sender) {
-        String json = gson.toJson(packet);
-        for (ClientHandler c : clients) {
+    private void broadcastExcept(CommandPacket packet, ClientConnection sender) {
+        EncodedPacket encoded = new EncodedPacket(packet);
+        for (ClientConnection c : clients) {
             if (c != sender) {
-                c.send(json);
+                c.send(encoded);
             }
         }
     }
 
+    /**
+     * Sends to one student; if it is offline, or still receiving older held
+     * packets, the outbox keeps the packet when its type is kept
+     */
     public void sendToClient(String clientName, CommandPacket packet) {
-        ClientHandler handler = clientsByName.get(clientName);
-        if (handler != null) {
-            handler.send(gson.toJson(packet));
+        ClientConnection handler = clientsByName.get(clientName);
+        if (!outbox.hold(clientName, handler != null, packet) && handler != null) {
+            handler.send(new EncodedPacket(packet));
+        }
+    }
+
+    ClientConnection connectionFor(String clientName) {
+        return clientsByName.get(clientName);
+    }
+
+    /**
+     * Sends a command to one student, or to all of them if clientName is null,
+     * and tracks its delivery and execution (see getCommandStats). Students
+     * that predate acknowledgements get the same packet but are only counted.
+     *
+     * @return the command id
+     */
+    public long sendCommand(String clientName, CommandPacket packet) {
+        recordLabState(clientName, packet);
+        List<ClientConnection> targets = targets(clientName);
+        List<String> acking = ackingNames(targets);
+        packet.setId(commandTracker.start(packet.getType().name(), acking, targets.size() - acking.size(),
+                Config.COMMAND_RESULT_TIMEOUT_MS));
+        EncodedPacket encoded = new EncodedPacket(packet); // Older clients ignore the id
+        for (ClientConnection c : targets) {
+            c.send(encoded);
         }
+        holdForOffline(clientName, packet); // Untracked: the id is not kept
+        return packet.getId();
+    }
+
+    /** What is saved of the lab state; the share does not outlive the admin */
+    private static class SavedLabState {
+        boolean locked;
+        boolean inputBlocked;
+        boolean internetOff;
+        Set<String> lockedStudents;
+    }
+
+    public GhostServer() {
+        loadLabState();
+    }
+
+    /**
+     * Restores the lab state saved before the admin last stopped; without
+     * one the state is unknown, so reconnecting students keep their locks
+     */
+    private void loadLabState() {
+        SavedLabState saved = null;
+        try {
+            saved = WireFormat.gson.fromJson(java.nio.file.Files.readString(labStateFile), SavedLabState.class);
+        } catch (java.nio.file.NoSuchFileException e) {
+            // First start
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not read lab state " + labStateFile + ": " + e.getMessage());
+        }
+        synchronized (labState) {
+            if (saved == null) {
+                labState.unknown = true;
+                return;
+            }
+            labState.locked = saved.locked;
+            labState.inputBlocked = saved.inputBlocked;
+            labState.internetOff = saved.internetOff;
+            if (saved.lockedStudents != null)
+                lockedStudents.addAll(saved.lockedStudents);
+            System.out.println("Lab state restored: " + labState.toJson());
+        }
+    }
+
+    /** Caller holds labState's lock */
+    private void saveLabState() {
+        SavedLabState saved = new SavedLabState();
+        saved.locked = labState.locked;
+        saved.inputBlocked = labState.inputBlocked;
+        saved.internetOff = labState.internetOff;
+        saved.lockedStudents = new HashSet<>(lockedStudents);
+        try {
+            java.nio.file.Files.createDirectories(labStateFile.toAbsolutePath().getParent());
+            java.nio.file.Path tmp = labStateFile.resolveSibling(labStateFile.getFileName() + ".tmp");
+            java.nio.file.Files.writeString(tmp, WireFormat.gson.toJson(saved));
+            java.nio.file.Files.move(tmp, labStateFile, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("Could not save lab state " + labStateFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Remembers what lab-wide LOCK, UNLOCK, BLOCK_INPUT and INTERNET commands
+     * asked for, and per-student locks, for students that reconnect later
+     */
+    private void recordLabState(String clientName, CommandPacket packet) {
+        synchronized (labState) {
+            CommandPacket.Type type = packet.getType();
+            if (clientName != null) {
+                if (type == CommandPacket.Type.LOCK)
+                    lockedStudents.add(clientName);
+                else if (type == CommandPacket.Type.UNLOCK)
+                    lockedStudents.remove(clientName);
+                else
+                    return;
+                saveLabState();
+                return;
+            }
+            switch (type) {
+                case LOCK:
+                    labState.locked = true;
+                    break;
+                case UNLOCK:
+                    labState.locked = false;
+                    labState.inputBlocked = false; // Students unblock input on UNLOCK too
+                    lockedStudents.clear();
+                    break;
+                case BLOCK_INPUT:
+                    labState.inputBlocked = "BLOCK".equals(packet.getPayload());
+                    break;
+                case INTERNET:
+                    labState.internetOff = "DISABLE".equals(packet.getPayload());
+                    break;
+                default:
+                    return;
+            }
+            labState.unknown = false; // The admin has said what it wants now
+            saveLabState();
+        }
+    }
+
+    /**
+     * Records whether the admin's screen share is running and tells the
+     * students, so those that missed its start or end show the right view
+     */
+    public void setShareActive(boolean active) {
+        synchronized (labState) {
+            if (labState.shareActive == active)
+                return;
+            labState.shareActive = active;
+        }
+        for (ClientConnection c : clients) {
+            if (c.labState)
+                sendLabState(c);
+        }
+    }
+
+    /**
+     * The desired lab state as it applies to one student
+     */
+    public LabState getLabState(String clientName) {
+        synchronized (labState) {
+            LabState s = labState.copy();
+            s.locked |= clientName != null && lockedStudents.contains(clientName);
+            return s;
+        }
+    }
+
+    private void sendLabState(ClientConnection c) {
+        c.send(new EncodedPacket(new CommandPacket(CommandPacket.Type.LAB_STATE, "ADMIN",
+                getLabState(c.getClientName()).toJson())));
+    }
+
+    /**
+     * Runs a shell command on one student, or on all of them if clientName is
+     * null, tracked like sendCommand. Students with the streamed shell report
+     * through the ShellListener under the returned id; older ones answer with
+     * one plain SHELL_OUTPUT.
+     *
+     * @return the command id
+     */
+    public long runShell(String clientName, String command) {
+        List<ClientConnection> targets = targets(clientName);
+        List<String> acking = ackingNames(targets);
+        long id = commandTracker.start("SHELL " + command, acking, targets.size() - acking.size(),
+                Config.COMMAND_SHELL_TIMEOUT_MS);
+        CommandPacket run = new CommandPacket(CommandPacket.Type.SHELL, "ADMIN", new Shell.Run(id, command).toJson());
+        run.setId(id);
+        EncodedPacket streamed = new EncodedPacket(run);
+        EncodedPacket legacy = null;
+        for (ClientConnection c : targets) {
+            if (c.shellStream) {
+                c.send(streamed);
+            } else {
+                if (legacy == null)
+                    legacy = new EncodedPacket(new CommandPacket(CommandPacket.Type.SHELL, "ADMIN", command));
+                c.send(legacy);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Runs a shell command on every connected student with the streamed shell,
+     * at most options.concurrency at a time, and collects and groups their
+     * results (see FanOut). The run is tracked like sendCommand.
+     */
+    public FanOut runFanOut(String command, FanOut.Options options, FanOut.Listener listener) {
+        List<String> students = new ArrayList<>();
+        List<String> unsupported = new ArrayList<>();
+        for (ClientConnection c : targets(null)) {
+            (c.shellStream ? students : unsupported).add(c.getClientName());
+        }
+        // Students are added to the tracker as they are dispatched
+        long id = commandTracker.start("FAN-OUT " + command, new ArrayList<>(), unsupported.size(),
+                Config.COMMAND_SHELL_TIMEOUT_MS);
+        FanOut run = new FanOut(this, id, command, students, unsupported, options, r -> {
+            if (r.isFinished())
+                fanOuts.remove(r.getId());
+            listener.onUpdate(r);
+        });
+        fanOutIds.add(id);
+        fanOuts.put(id, run);
+        run.start();
+        return run;
+    }
+
+    /**
+     * Sends one student its part of a fan-out run
+     *
+     * @return false if the student is gone or has no streamed shell
+     */
+    boolean dispatchShell(String clientName, long id, String command) {
+        ClientConnection c = clientsByName.get(clientName);
+        if (c == null || !c.shellStream)
+            return false;
+        if (c.commandAcks)
+            commandTracker.addStudent(id, clientName);
+        CommandPacket run = new CommandPacket(CommandPacket.Type.SHELL, "ADMIN", new Shell.Run(id, command).toJson());
+        run.setId(id);
+        c.send(new EncodedPacket(run));
+        return true;
+    }
+
+    /**
+     * Kills a streamed shell command on a student; its SHELL_EXIT still follows
+     */
+    void cancelShell(String clientName, long id) {
+        sendToClient(clientName, new CommandPacket(CommandPacket.Type.SHELL, "ADMIN", Shell.Run.cancel(id).toJson()));
+    }
+
+    /**
+     * The most recent tracked commands, oldest first
+     */
+    public List<CommandStats> getCommandStats() {
+        return commandTracker.getStats();
+    }
+
+    private List<ClientConnection> targets(String clientName) {
+        List<ClientConnection> list = new ArrayList<>();
+        for (ClientConnection c : clients) {
+            if (c.isIdentified() && (clientName == null || clientName.equals(c.getClientName())))
+                list.add(c);
+        }
+        return list;
+    }
+
+    private static List<String> ackingNames(List<ClientConnection> connections) {
+        List<String> names = new ArrayList<>();
+        for (ClientConnection c : connections) {
+            if (c.commandAcks)
+                names.add(c.getClientName());
+        }
+        return names;
+    }
+
+    /**
+     * Asks a student for a full screen keyframe, e.g. when a tile delta arrives
+     * before the viewer has a base image to apply it to
+     */
+    public void requestKeyframe(String clientName) {
+        sendToClient(clientName, new CommandPacket(CommandPacket.Type.KEYFRAME_REQUEST, "ADMIN", ""));
+    }
+
+    /**
+     * Tells a student what the admin currently shows of its screen and at what
+     * size. Sent only when something changed, and only to clients that
+     * negotiated subscriptions.
+     */
+    public void subscribe(String clientName, Subscription subscription) {
+        ClientConnection connection = clientsByName.get(clientName);
+        if (connection == null)
+            return;
+        synchronized (connection) {
+            if (connection.subscription == null || connection.subscription.equals(subscription))
+                return;
+            connection.subscription = subscription;
+        }
+        connection.send(new EncodedPacket(
+                new CommandPacket(CommandPacket.Type.SUBSCRIBE, "ADMIN", subscription.toJson())));
+    }
+
+    /**
+     * Sends a file to every connected student without loading it into memory.
+     * The file is first split into content-defined chunks (FileManifest) and
+     * each student fetches only the chunks it does not already have. Large
+     * files go to swarm-capable students peer to peer (SwarmCoordinator), so
+     * the admin uplink carries each chunk about once; other students that
+     * negotiated chunked transfer get their chunks from the admin; older
+     * clients get the whole file as one FILE_DATA packet if it is small
+     * enough. Building the manifest reads the file once, so call this off the
+     * UI thread.
+     *
+     * @return the number of students the file is going to
+     */
+    public int sendFile(File file, FileProgressListener listener) throws IOException {
+        if (!file.isFile())
+            throw new FileNotFoundException(file.getPath());
+        List<String> swarm = new ArrayList<>();
+        if (Config.SWARM_ENABLED && file.length() >= Config.SWARM_MIN_BYTES) {
+            for (ClientConnection c : clients) {
+                if (c.isIdentified() && c.swarmPort > 0)
+                    swarm.add(c.getClientName());
+            }
+            if (swarm.size() < 2)
+                swarm.clear(); // Nobody to share with: plain chunked transfer is simpler
+        }
+        FileManifest manifest = null;
+        for (ClientConnection c : clients) {
+            if (c.isIdentified() && (c.fileChunks || swarm.contains(c.getClientName()))) {
+                manifest = FileManifest.build(file);
+                break;
+            }
+        }
+        if (!swarm.isEmpty()) {
+            swarmCoordinator.start(file, manifest, swarm, listener);
+        }
+
+        EncodedPacket legacy = null;
+        int count = swarm.size();
+        for (ClientConnection c : clients) {
+            if (!c.isIdentified() || swarm.contains(c.getClientName()))
+                continue;
+            String clientName = c.getClientName();
+            if (c.fileChunks && manifest != null) {
+                fileDistributor.enqueue(clientName, file, manifest, listener);
+            } else if (file.length() > Config.FILE_LEGACY_MAX_BYTES) {
+                listener.onFailed(clientName, file.getName(), "client does not support large files");
+                continue;
+            } else {
+                if (legacy == null) {
+                    legacy = legacyFilePacket(file);
+                }
+                c.send(legacy);
+                listener.onComplete(clientName, file.getName());
+            }
+            count++;
+        }
+
+        fileListener = listener;
+        for (String name : outbox.knownStudents()) {
+            if (!clientsByName.containsKey(name)) {
+                outbox.holdFile(name, file);
+                System.out.println("File " + file.getName() + " kept for offline student " + name);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Sends a file the outbox kept while the student was offline. Called on
+     * the outbox thread.
+     */
+    void deliverHeldFile(ClientConnection c, File file) {
+        String clientName = c.getClientName();
+        FileProgressListener listener = fileListener;
+        try {
+            if (!file.isFile()) {
+                listener.onFailed(clientName, file.getName(), "file no longer exists");
+            } else if (c.fileChunks) {
+                fileDistributor.enqueue(clientName, file, FileManifest.build(file), listener);
+            } else if (file.length() > Config.FILE_LEGACY_MAX_BYTES) {
+                listener.onFailed(clientName, file.getName(), "client does not support large files");
+            } else {
+                c.send(legacyFilePacket(file));
+                listener.onComplete(clientName, file.getName());
+            }
+        } catch (IOException e) {
+            listener.onFailed(clientName, file.getName(), e.getMessage());
+        }
+    }
+
+    /**
+     * The whole file as one FILE_DATA, for clients without chunked transfer.
+     * Format: filename|base64data
+     */
+    private static EncodedPacket legacyFilePacket(File file) throws IOException {
+        byte[] bytes = java.nio.file.Files.readAllBytes(file.toPath());
+        return new EncodedPacket(new CommandPacket(CommandPacket.Type.FILE_DATA, "ADMIN",
+                file.getName() + "|" + Base64.getEncoder().encodeToString(bytes)));
+    }
+
+    /**
+     * Where a swarm-capable student serves chunks, or null if it is offline
+     */
+    InetSocketAddress getSwarmEndpoint(String clientName) {
+        ClientConnection c = clientsByName.get(clientName);
+        if (c == null || c.swarmPort <= 0)
+            return null;
+        return InetSocketAddress.createUnresolved(c.remoteHost, c.swarmPort);
+    }
+
+    /**
+     * Bytes the admin uploaded to students as swarm seed
+     */
+    public long getSwarmSeedBytes() {
+        return swarmCoordinator.getSeedBytesServed();
     }
 
     public List<String> getConnectedClients() {
@@ -96,89 +721,338 @@ public class GhostServer {
         return clients.size();
     }
 
-    private class ClientHandler implements Runnable {
+    /**
+     * Per-client send queue depth, dropped-frame counters and heartbeat round trip
+     */
+    public List<ClientStats> getClientStats() {
+        List<ClientStats> stats = new ArrayList<>();
+        for (ClientConnection c : clients) {
+            stats.add(c.getStats());
+        }
+        return stats;
+    }
+
+    // ===== Engine callbacks, shared by both I/O engines =====
+
+    void connectionOpened(ClientConnection connection) {
+        clients.add(connection);
+    }
+
+    void connectionClosed(ClientConnection connection) {
+        if (!clients.remove(connection))
+            return; // Already cleaned up
+
+        String clientName = connection.getClientName();
+        System.out.println("Client disconnected: " + clientName);
+        clientsByName.remove(clientName, connection);
+        if (connection.swarmPort > 0) {
+            swarmCoordinator.clientGone(clientName);
+        }
+        if (connection.commandAcks) {
+            commandTracker.clientGone(clientName);
+        }
+        for (FanOut run : fanOuts.values()) {
+            run.clientGone(clientName);
+        }
+
+        // Notify listener of disconnect
+        if (statusListener != null && connection.isIdentified()) {
+            statusListener.onClientDisconnected(clientName);
+        }
+    }
+
+    void packetReceived(ClientConnection connection, CommandPacket packet) {
+        String clientName = connection.getClientName();
+        connection.lastHeardNanos = System.nanoTime();
+        switch (packet.getType()) {
+            case CONNECT:
+                clientName = packet.getSender();
+                connection.setClientName(clientName);
+                clientsByName.put(clientName, connection);
+                System.out.println("Client connected: " + clientName);
+                negotiate(connection, Handshake.parse(packet.getPayload()));
+                if (connection.fileChunks) {
+                    fileDistributor.clientReady(clientName); // Resume an interrupted transfer
+                }
+                if (connection.swarmPort > 0) {
+                    swarmCoordinator.clientReady(clientName);
+                }
+                outbox.clientReady(clientName, connection); // What it missed while offline
+
+                // Notify listener of connection
+                if (statusListener != null) {
+                    statusListener.onClientConnected(clientName);
+                }
+                break;
+            case SCREEN_DATA:
+                byte[] frame = packet.getPayloadBytes();
+                if (connection.frameAcks && frame != null) {
+                    // Cumulative, so the student can tell how much is still in flight
+                    connection.screenBytesReceived += frame.length;
+                    connection.send(new EncodedPacket(new CommandPacket(CommandPacket.Type.FRAME_ACK, "ADMIN",
+                            Long.toString(connection.screenBytesReceived))));
+                }
+                if (screenListener != null) {
+                    screenListener.onScreenFrame(clientName, frame);
+                }
+                break;
+            case STREAM_STATS:
+                StreamStatus status = StreamStatus.parse(packet.getPayload());
+                if (status != null && screenListener != null) {
+                    screenListener.onStreamStatus(clientName, status);
+                }
+                break;
+            case SHELL_OUTPUT:
+                if (connection.shellStream) {
+                    Shell.Output output = Shell.Output.parse(packet.getPayload());
+                    if (output == null || output.text == null)
+                        break;
+                    FanOut run = fanOuts.get(output.id);
+                    if (run != null) {
+                        run.outputReceived(clientName, output.text);
+                    } else if (shellListener != null && !fanOutIds.contains(output.id)) {
+                        shellListener.onShellOutput(clientName, output.id, output.text);
+                    }
+                    // After the listener, so a student can only run ahead of it by one window
+                    connection.send(new EncodedPacket(new CommandPacket(CommandPacket.Type.SHELL_ACK, "ADMIN",
+                            new Shell.Ack(output.id, output.text.getBytes(StandardCharsets.UTF_8).length).toJson())));
+                } else if (screenListener != null) {
+                    // Forward command output to admin terminal
+                    screenListener.onShellOutput(clientName, packet.getPayload());
+                }
+                break;
+            case SHELL_EXIT:
+                Shell.Exit exit = Shell.Exit.parse(packet.getPayload());
+                if (exit == null)
+                    break;
+                // The exit is the streamed shell's RESULT
+                commandTracker.resultReceived(clientName, exit.id, exit.error != null ? exit.error
+                        : exit.code != 0 ? "exit code " + exit.code : null);
+                FanOut run = fanOuts.get(exit.id);
+                if (run != null) {
+                    run.exitReceived(clientName, exit);
+                } else if (shellListener != null && !fanOutIds.contains(exit.id)) {
+                    shellListener.onShellExit(clientName, exit);
+                }
+                break;
+            case BINARY_READY:
+                connection.readBinary();
+                break;
+            case PING:
+                connection.send(new EncodedPacket(new CommandPacket(CommandPacket.Type.PONG, "ADMIN",
+                        packet.getPayload())));
+                break;
+            case PONG:
+                Heartbeat pong = Heartbeat.parse(packet.getPayload());
+                if (pong != null) {
+                    connection.rtt.sample((System.nanoTime() - pong.time) / 1e6);
+                }
+                break;
+            case ACK:
+                try {
+                    commandTracker.ackReceived(clientName, Long.parseLong(packet.getPayload()));
+                } catch (NumberFormatException e) {
+                    // Malformed ACK
+                }
+                break;
+            case RESULT:
+                CommandResult result = CommandResult.parse(packet.getPayload());
+                if (result != null) {
+                    commandTracker.resultReceived(clientName, result.id, result.ok ? null
+                            : result.error != null ? result.error : "failed");
+                }
+                break;
+            case MSG:
+                // Forward student messages to all other students (LAN chat)
+                broadcastExcept(packet, connection);
+                break;
+            case SWARM_REPORT:
+                swarmCoordinator.reportReceived(clientName, Swarm.Report.parse(packet.getPayload()));
+                break;
+            case FILE_STATUS:
+                fileDistributor.statusReceived(clientName, FileTransfer.Status.parse(packet.getPayload()));
+                break;
+            case MCAST_NACK:
+                repairMulticast(connection, packet.getPayload());
+                break;
+            case MCAST_CONFIG:
+                // Student could not join the group - fall back to TCP frames
+                if ("OFF".equals(packet.getPayload())) {
+                    connection.multicast = false;
+                    System.out.println("Client " + clientName + " using TCP for screen share");
+                }
+                break;
+            case KEYFRAME_REQUEST:
+                if (multicastSender != null) {
+                    multicastSender.requestKeyframe();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Answers the client's CONNECT with the accepted capabilities and switches
+     * the connection to binary frames if both sides support them.
+     */
+    private void negotiate(ClientConnection connection, Handshake requested) {
+        if (!requested.requestsAnything())
+            return; // Pre-handshake client, stays on JSON and TCP
+
+        Handshake accepted = new Handshake();
+        accepted.binary = requested.binary && Config.BINARY_WIRE;
+        accepted.binaryAck = accepted.binary && requested.binaryAck;
+        accepted.multicast = requested.multicast && multicastSender != null;
+        accepted.tiles = requested.tiles && Config.TILE_DELTA;
+        accepted.frameAcks = requested.frameAcks;
+        connection.frameAcks = accepted.frameAcks;
+        accepted.subscribe = requested.subscribe;
+        accepted.fileChunks = requested.fileChunks;
+        connection.fileChunks = accepted.fileChunks;
+        accepted.swarmPort = Config.SWARM_ENABLED ? requested.swarmPort : 0;
+        connection.swarmPort = accepted.swarmPort;
+        accepted.shellStream = requested.shellStream;
+        connection.shellStream = accepted.shellStream;
+        accepted.commandAcks = requested.commandAcks;
+        connection.commandAcks = accepted.commandAcks;
+        if (accepted.subscribe) {
+            connection.subscription = new Subscription(Subscription.Level.THUMB); // Clients start at thumbnail level
+        }
+        if (accepted.multicast) {
+            accepted.multicastGroup = multicastSender.getGroupAddress();
+            accepted.multicastPort = multicastSender.getPort();
+            connection.multicast = true;
+            multicastSender.requestKeyframe(); // New viewer needs a frame it can decode on its own
+        }
+
+        accepted.heartbeatMs = requested.heartbeatMs > 0 ? Config.HEARTBEAT_INTERVAL_MS : 0;
+        accepted.labState = requested.labState;
+
+        CommandPacket answer = new CommandPacket(CommandPacket.Type.CONNECT, "ADMIN", accepted.toJson());
+        if (accepted.binary) {
+            // The client may have given up waiting and still be writing JSON: unless it
+            // predates BINARY_READY, keep reading JSON until it says it switched
+            connection.switchToBinary(answer, !accepted.binaryAck);
+            System.out.println("Client " + connection.getClientName() + " using binary frames");
+        } else {
+            connection.send(new EncodedPacket(answer));
+        }
+        // Only now, so no PING can overtake the answer
+        connection.heartbeatMs = Math.max(0, requested.heartbeatMs);
+        connection.labState = accepted.labState;
+        if (accepted.labState) {
+            sendLabState(connection); // Whatever it missed while away
+        }
+    }
+
+    /**
+     * Resends multicast fragments a student missed, over its TCP connection.
+     * Payload is "seq:i,j,k" or "seq:*" for a frame that never arrived.
+     */
+    private void repairMulticast(ClientConnection connection, String nack) {
+        if (multicastSender == null || nack == null)
+            return;
+        try {
+            int sep = nack.indexOf(':');
+            int seq = Integer.parseInt(nack.substring(0, sep));
+            String list = nack.substring(sep + 1);
+            int[] missing = null;
+            if (!"*".equals(list)) {
+                String[] parts = list.split(",");
+                missing = new int[parts.length];
+                for (int i = 0; i < parts.length; i++) {
+                    missing[i] = Integer.parseInt(parts[i]);
+                }
+            }
+            byte[] repair = multicastSender.repair(seq, missing);
+            if (repair != null) {
+                connection.send(new EncodedPacket(new CommandPacket(CommandPacket.Type.MCAST_REPAIR, "ADMIN", repair)));
+            }
+        } catch (RuntimeException e) {
+            // Malformed NACK
+        }
+    }
+
+    /**
+     * Blocking engine: one thread per client reading from a PacketStream, plus a
+     * writer thread draining the client's send queue so a slow socket only
+     * stalls its own writer.
+     */
+    private class ClientHandler extends ClientConnection implements Runnable {
         private Socket socket;
-        private PrintWriter out;
-        private BufferedReader in;
-        private String clientName = "Unknown";
+        private volatile PacketStream stream;
 
         public ClientHandler(Socket socket) {
             this.socket = socket;
+            this.remoteHost = socket.getInetAddress().getHostAddress();
         }
 
         @Override
         public void run() {
             try {
-                out = new PrintWriter(socket.getOutputStream(), true);
-                in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                stream = new PacketStream(socket);
+                pool.execute(this::writeLoop);
 
-                String inputLine;
-                while ((inputLine = in.readLine()) != null) {
+                CommandPacket packet;
+                while ((packet = stream.read()) != null) {
                     try {
-                        CommandPacket packet = gson.fromJson(inputLine, CommandPacket.class);
-                        handlePacket(packet);
+                        packetReceived(this, packet);
                     } catch (Exception e) {
-                        // Silently ignore parse errors
+                        // Silently ignore malformed packets
                     }
                 }
             } catch (IOException e) {
                 // Client disconnected
             } finally {
-                System.out.println("Client disconnected: " + clientName);
-                clients.remove(this);
-                clientsByName.remove(clientName);
+                close();
+                connectionClosed(this);
+            }
+        }
 
-                // Notify listener of disconnect
-                if (statusListener != null && !"Unknown".equals(clientName)) {
-                    statusListener.onClientDisconnected(clientName);
+        private void writeLoop() {
+            try {
+                EncodedPacket packet;
+                while ((packet = queue.take()) != null) {
+                    stream.write(packet);
                 }
+            } catch (InterruptedException | IOException e) {
+                // Socket broken; closing it also ends the reader thread
+                close();
+            }
+        }
 
-                try {
-                    socket.close();
-                } catch (IOException e) {
+        @Override
+        void switchToBinary(CommandPacket answer, boolean readToo) {
+            try {
+                synchronized (stream) {
+                    stream.write(answer);
+                    stream.setWriteMode(WireFormat.Mode.BINARY);
                 }
+                if (readToo)
+                    stream.setReadMode(WireFormat.Mode.BINARY);
+            } catch (IOException e) {
+                stream.close();
             }
         }
 
-        private void handlePacket(CommandPacket packet) {
-            switch (packet.getType()) {
-                case CONNECT:
-                    clientName = packet.getSender();
-                    clientsByName.put(clientName, this);
-                    System.out.println("Client connected: " + clientName);
-
-                    // Notify listener of connection
-                    if (statusListener != null) {
-                        statusListener.onClientConnected(clientName);
-                    }
-                    break;
-                case SCREEN_DATA:
-                    if (screenListener != null) {
-                        screenListener.onScreenUpdate(clientName, packet.getPayload());
-                    }
-                    break;
-                case SHELL_OUTPUT:
-                    // Forward command output to admin terminal
-                    if (screenListener != null) {
-                        screenListener.onShellOutput(clientName, packet.getPayload());
-                    }
-                    break;
-                case MSG:
-                    // Forward student messages to all other students (LAN chat)
-                    broadcastExcept(packet, this);
-                    break;
-                default:
-                    break;
-            }
+        @Override
+        void readBinary() {
+            stream.setReadMode(WireFormat.Mode.BINARY);
         }
 
-        public void send(String msg) {
-            if (out != null)
-                out.println(msg);
+        @Override
+        protected void onQueued() {
+            // Writer thread is already waiting on the queue
         }
 
-        public String getClientName() {
-            return clientName;
+        @Override
+        void close() {
+            queue.close();
+            try {
+                socket.close();
+            } catch (IOException e) {
+            }
         }
     }
 }
@@ -0,0 +1,47 @@
+package com.ghost.net;
+
+/**
+ * Capabilities exchanged in the CONNECT payload.
+ * The client lists what it can speak; the server answers with a CONNECT packet
+ * holding the subset it accepted. Servers that predate the handshake never
+ * answer, and the client stays on the JSON line protocol.
+ */
+public class Handshake {
+    public boolean binary; // Length-prefixed binary frames for media packets
+    public boolean binaryAck; // Client sends BINARY_READY once it writes binary; the server reads JSON until then
+    public boolean multicast; // Client can join the ADMIN_SCREEN multicast group
+    public String multicastGroup; // Set in the server's answer when multicast is accepted
+    public int multicastPort;
+    public boolean tiles; // Client can send SCREEN_DATA as TileFrame deltas
+    public boolean frameAcks; // Server acknowledges screen bytes (FRAME_ACK), client reports STREAM_STATS
+    public boolean subscribe; // Client streams only at the level the server SUBSCRIBEs it to
+    public boolean fileChunks; // Client receives files as FILE_OFFER / FILE_CHUNK instead of one FILE_DATA
+    public int swarmPort; // Client serves swarm chunks to other students on this port, 0 = no swarm
+    public boolean shellStream; // SHELL carries {id, command} and output streams back in batches (see Shell)
+    public boolean commandAcks; // Client answers commands that carry an id with ACK and RESULT
+    public int heartbeatMs; // Sender pings this often and answers PING with PONG, 0 = no heartbeats
+    public boolean labState; // Client applies LAB_STATE snapshots (sent after the handshake)
+
+    /**
+     * True if the client asked for anything; old clients send "{}" and get no answer
+     */
+    public boolean requestsAnything() {
+        return binary || multicast || tiles || frameAcks || subscribe || fileChunks || swarmPort > 0 || shellStream || commandAcks
+                || heartbeatMs > 0 || labState;
+    }
+
+    public static Handshake parse(String payload) {
+        if (payload == null || payload.isEmpty())
+            return new Handshake();
+        try {
+            Handshake h = WireFormat.gson.fromJson(payload, Handshake.class);
+            return h != null ? h : new Handshake();
+        } catch (RuntimeException e) {
+            return new Handshake();
+        }
+    }
+
+    public String toJson() {
+        return WireFormat.gson.toJson(this);
+    }
+}
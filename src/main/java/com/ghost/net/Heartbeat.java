@@ -0,0 +1,31 @@
+package com.ghost.net;
+
+/**
+ * Payload of PING and PONG. Either side pings every HEARTBEAT_INTERVAL_MS and
+ * the other echoes the payload back unchanged, so the round trip is measured
+ * on the pinging side's own clock.
+ */
+public class Heartbeat {
+    public long seq;
+    public long time; // Sender's System.nanoTime() when pinging
+
+    public Heartbeat() {
+    }
+
+    public Heartbeat(long seq, long time) {
+        this.seq = seq;
+        this.time = time;
+    }
+
+    public static Heartbeat parse(String payload) {
+        try {
+            return WireFormat.gson.fromJson(payload, Heartbeat.class);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    public String toJson() {
+        return WireFormat.gson.toJson(this);
+    }
+}
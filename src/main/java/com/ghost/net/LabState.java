@@ -0,0 +1,41 @@
+package com.ghost.net;
+
+/**
+ * What the admin currently wants the lab to be, sent as LAB_STATE right after
+ * the handshake and whenever screen sharing starts or stops. A student that
+ * was offline while LOCK or INTERNET went out catches up from this one
+ * snapshot instead of replaying the commands it missed.
+ *
+ * An admin that has no record of the lab (first start, or its saved state
+ * was lost) sends it as unknown: students then keep their restrictions and
+ * only take on the ones it does ask for.
+ */
+public class LabState {
+    public boolean locked;
+    public boolean inputBlocked;
+    public boolean internetOff;
+    public boolean shareActive; // Admin screen share running
+    public boolean unknown; // Admin has no record: restrictions that are off here are left as they are
+
+    public LabState copy() {
+        LabState s = new LabState();
+        s.locked = locked;
+        s.inputBlocked = inputBlocked;
+        s.internetOff = internetOff;
+        s.shareActive = shareActive;
+        s.unknown = unknown;
+        return s;
+    }
+
+    public static LabState parse(String payload) {
+        try {
+            return WireFormat.gson.fromJson(payload, LabState.class);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    public String toJson() {
+        return WireFormat.gson.toJson(this);
+    }
+}
@@ -0,0 +1,363 @@
+package com.ghost.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reassembles multicast screen frames sent by MulticastFrameSender.
+ *
+ * Missing fragments are NACKed through the listener (which forwards them over
+ * the TCP control connection); repairs come back through acceptRepair().
+ * Keyframes can be shown on their own and supersede everything older. Other
+ * frames are delivered strictly in sequence, because they may depend on the
+ * previous one; once a frame is given up, later non-key frames are discarded
+ * and a keyframe is requested.
+ */
+public class MulticastFrameReceiver {
+    private static final long NACK_DELAY_MS = 20; // Let reordered fragments arrive first
+    private static final long NACK_RETRY_MS = 60;
+    private static final int MAX_NACKS = 3;
+    private static final long GIVE_UP_MS = 500;
+    private static final int MAX_PENDING_FRAMES = 64;
+
+    public interface Listener {
+        void onFrame(byte[] frame, boolean keyframe);
+
+        /**
+         * @param missing fragment indices, or null when no fragment of the frame arrived
+         */
+        void onNack(int seq, int[] missing);
+
+        void onKeyframeNeeded();
+    }
+
+    private final InetSocketAddress group;
+    private final NetworkInterface iface;
+    private final Listener listener;
+    private DatagramChannel channel;
+    private MembershipKey membership;
+    private volatile boolean running;
+
+    // Reassembly state, guarded by this
+    private final TreeMap<Integer, PartialFrame> pending = new TreeMap<>();
+    private int lastDelivered = -1;
+    private int highestSeen = -1;
+    private boolean haveReference = false; // Last delivered frame is usable as a base for the next
+    private long framesDelivered;
+    private long framesLost;
+    private long lastKeyframeRequest;
+
+    public MulticastFrameReceiver(String groupAddress, int port, NetworkInterface iface, Listener listener)
+            throws IOException {
+        this.group = new InetSocketAddress(InetAddress.getByName(groupAddress), port);
+        this.iface = iface;
+        this.listener = listener;
+    }
+
+    public void start() throws IOException {
+        channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        channel.setOption(StandardSocketOptions.SO_RCVBUF, 4 << 20); // Absorb a full frame burst
+        channel.bind(new InetSocketAddress(group.getPort()));
+        NetworkInterface joinIface = iface != null ? iface : MulticastFrameSender.resolveInterface();
+        membership = channel.join(group.getAddress(), joinIface);
+        running = true;
+
+        Thread rx = new Thread(this::receiveLoop, "MulticastReceiver");
+        rx.setDaemon(true);
+        rx.start();
+        Thread nack = new Thread(this::nackLoop, "MulticastNack");
+        nack.setDaemon(true);
+        nack.start();
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            if (membership != null)
+                membership.drop();
+            if (channel != null)
+                channel.close();
+        } catch (IOException e) {
+        }
+    }
+
+    /**
+     * Feeds a MCAST_REPAIR body (length-prefixed datagrams) received over TCP
+     */
+    public void acceptRepair(byte[] body) {
+        ByteBuffer buf = ByteBuffer.wrap(body);
+        while (buf.remaining() >= 2) {
+            int len = buf.getShort() & 0xFFFF;
+            if (len > buf.remaining())
+                break;
+            ByteBuffer datagram = buf.slice();
+            datagram.limit(len);
+            onDatagram(datagram);
+            buf.position(buf.position() + len);
+        }
+    }
+
+    public synchronized long getFramesDelivered() {
+        return framesDelivered;
+    }
+
+    public synchronized long getFramesLost() {
+        return framesLost;
+    }
+
+    private void receiveLoop() {
+        ByteBuffer buf = ByteBuffer.allocateDirect(65536);
+        while (running) {
+            try {
+                buf.clear();
+                channel.receive(buf);
+                buf.flip();
+                onDatagram(buf);
+            } catch (IOException e) {
+                if (running)
+                    System.err.println("Multicast receive error: " + e.getMessage());
+                break;
+            }
+        }
+    }
+
+    /**
+     * Handles one datagram, from the group or from a TCP repair
+     */
+    void onDatagram(ByteBuffer buf) {
+        if (buf.remaining() < MulticastFrameSender.HEADER_SIZE)
+            return;
+        if (buf.get() != MulticastFrameSender.MAGIC_0 || buf.get() != MulticastFrameSender.MAGIC_1)
+            return;
+        boolean keyframe = (buf.get() & MulticastFrameSender.FLAG_KEYFRAME) != 0;
+        buf.get(); // reserved
+        int seq = buf.getInt();
+        int index = buf.getShort() & 0xFFFF;
+        int count = buf.getShort() & 0xFFFF;
+        int length = buf.getInt();
+        if (count == 0 || index >= count || length < 0 || length > WireFormat.MAX_FRAME_SIZE)
+            return;
+
+        List<Delivery> ready;
+        synchronized (this) {
+            if (highestSeen < 0 && lastDelivered < 0)
+                lastDelivered = seq - 1; // Joined mid-stream: earlier frames were never ours to lose
+            if (seq <= lastDelivered)
+                return; // Duplicate or superseded
+            PartialFrame frame = pending.get(seq);
+            if (frame == null || frame.count == 0) {
+                frame = new PartialFrame(seq, count, length, keyframe);
+                pending.put(seq, frame);
+            }
+            if (!frame.add(index, buf))
+                return;
+
+            // Frames between the last one seen and this one never showed up at all
+            for (int missing = Math.max(highestSeen, lastDelivered) + 1; missing < seq; missing++) {
+                pending.putIfAbsent(missing, new PartialFrame(missing));
+            }
+            highestSeen = Math.max(highestSeen, seq);
+            trimPending();
+            ready = collectReady();
+        }
+        deliver(ready);
+    }
+
+    /**
+     * Pulls every frame that can be shown now, in order. Caller holds the lock.
+     */
+    private List<Delivery> collectReady() {
+        List<Delivery> ready = new ArrayList<>();
+
+        // A complete keyframe makes everything older irrelevant
+        Integer newestKey = null;
+        for (PartialFrame f : pending.values()) {
+            if (f.isComplete() && f.keyframe)
+                newestKey = f.seq;
+        }
+        if (newestKey != null) {
+            Iterator<Map.Entry<Integer, PartialFrame>> it = pending.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Integer, PartialFrame> e = it.next();
+                if (e.getKey() >= newestKey)
+                    break;
+                it.remove();
+            }
+        }
+
+        while (!pending.isEmpty()) {
+            PartialFrame first = pending.firstEntry().getValue();
+            if (!first.isComplete())
+                break;
+            pending.pollFirstEntry();
+            boolean usable = first.keyframe || (haveReference && first.seq == lastDelivered + 1);
+            lastDelivered = first.seq;
+            if (usable) {
+                haveReference = true;
+                framesDelivered++;
+                ready.add(new Delivery(first.data, first.keyframe));
+            } else {
+                framesLost++; // Depends on a frame we never got
+                requestKeyframe();
+            }
+        }
+        return ready;
+    }
+
+    private void trimPending() {
+        while (pending.size() > MAX_PENDING_FRAMES) {
+            pending.pollFirstEntry();
+            loseReference();
+        }
+    }
+
+    private void loseReference() {
+        framesLost++;
+        haveReference = false;
+        requestKeyframe();
+    }
+
+    /**
+     * Asks for a keyframe at most a few times per second. Caller holds the lock.
+     */
+    private void requestKeyframe() {
+        long now = System.currentTimeMillis();
+        if (now - lastKeyframeRequest >= GIVE_UP_MS) {
+            lastKeyframeRequest = now;
+            listener.onKeyframeNeeded();
+        }
+    }
+
+    private void deliver(List<Delivery> ready) {
+        for (Delivery d : ready) {
+            listener.onFrame(d.frame, d.keyframe);
+        }
+    }
+
+    /**
+     * Periodically NACKs incomplete frames and gives up on hopeless ones
+     */
+    private void nackLoop() {
+        while (running) {
+            try {
+                Thread.sleep(NACK_DELAY_MS);
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            List<int[]> nacks = new ArrayList<>(); // [seq, missing...] or [seq] for whole frame
+            List<Delivery> ready;
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                Iterator<PartialFrame> it = pending.values().iterator();
+                while (it.hasNext()) {
+                    PartialFrame f = it.next();
+                    if (f.isComplete())
+                        continue;
+                    long age = now - f.firstSeen;
+                    if (age > GIVE_UP_MS || (f.nacks >= MAX_NACKS && now - f.lastNack > NACK_RETRY_MS)) {
+                        it.remove();
+                        loseReference();
+                        continue;
+                    }
+                    // Only NACK once a newer frame proves this one is really behind
+                    boolean behind = f.seq < highestSeen && age >= NACK_DELAY_MS;
+                    if (behind && f.nacks < MAX_NACKS && now - f.lastNack >= NACK_RETRY_MS) {
+                        f.nacks++;
+                        f.lastNack = now;
+                        nacks.add(f.missing());
+                    }
+                }
+                // Dropping a stuck frame may have unblocked the frames behind it
+                ready = collectReady();
+            }
+            deliver(ready);
+            for (int[] nack : nacks) {
+                int[] missing = null;
+                if (nack.length > 1) {
+                    missing = new int[nack.length - 1];
+                    System.arraycopy(nack, 1, missing, 0, missing.length);
+                }
+                listener.onNack(nack[0], missing);
+            }
+        }
+    }
+
+    private static class Delivery {
+        final byte[] frame;
+        final boolean keyframe;
+
+        Delivery(byte[] frame, boolean keyframe) {
+            this.frame = frame;
+            this.keyframe = keyframe;
+        }
+    }
+
+    private static class PartialFrame {
+        final int seq;
+        final long firstSeen = System.currentTimeMillis();
+        int count; // 0 = placeholder, no fragment seen yet
+        boolean keyframe;
+        byte[] data;
+        BitSet received;
+        int receivedCount;
+        int nacks;
+        long lastNack;
+
+        /** Placeholder for a frame none of whose fragments arrived */
+        PartialFrame(int seq) {
+            this.seq = seq;
+        }
+
+        PartialFrame(int seq, int count, int length, boolean keyframe) {
+            this.seq = seq;
+            this.count = count;
+            this.keyframe = keyframe;
+            this.data = new byte[length];
+            this.received = new BitSet(count);
+        }
+
+        boolean add(int index, ByteBuffer payload) {
+            if (received.get(index))
+                return false;
+            int offset = index * MulticastFrameSender.FRAGMENT_PAYLOAD;
+            int len = payload.remaining();
+            if (offset + len > data.length)
+                return false;
+            payload.get(data, offset, len);
+            received.set(index);
+            receivedCount++;
+            return true;
+        }
+
+        boolean isComplete() {
+            return count > 0 && receivedCount == count;
+        }
+
+        int[] missing() {
+            if (count == 0)
+                return new int[] { seq };
+            int[] result = new int[1 + count - receivedCount];
+            result[0] = seq;
+            int n = 1;
+            for (int i = received.nextClearBit(0); i < count; i = received.nextClearBit(i + 1)) {
+                result[n++] = i;
+            }
+            return result;
+        }
+    }
+}
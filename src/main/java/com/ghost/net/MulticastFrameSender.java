@@ -0,0 +1,184 @@
+package com.ghost.net;
+
+import com.ghost.util.Config;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sends admin screen frames to a multicast group so the admin uplink carries
+ * each frame once, however many students watch.
+ *
+ * Frames are split into fragments that fit a single Ethernet datagram:
+ *
+ * <pre>
+ *   [2] magic 'G' 'M'
+ *   [1] flags (FLAG_KEYFRAME)
+ *   [1] reserved
+ *   [4] frame sequence number
+ *   [2] fragment index
+ *   [2] fragment count
+ *   [4] total frame length
+ *   [..] fragment payload (up to FRAGMENT_PAYLOAD bytes)
+ * </pre>
+ *
+ * Recent frames are kept so fragments a receiver NACKs over its TCP control
+ * connection can be repaired by unicast instead of re-multicasting.
+ */
+public class MulticastFrameSender {
+    static final byte MAGIC_0 = 'G';
+    static final byte MAGIC_1 = 'M';
+    public static final int HEADER_SIZE = 16;
+    public static final int FRAGMENT_PAYLOAD = 1400 - HEADER_SIZE; // Below a 1500 byte MTU with IP/UDP headers
+    static final byte FLAG_KEYFRAME = 1;
+
+    private static final int HISTORY_FRAMES = 64;
+
+    private final DatagramChannel channel;
+    private final InetSocketAddress group;
+    private final int keyframeInterval;
+    private final Map<Integer, byte[][]> history = new LinkedHashMap<Integer, byte[][]>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, byte[][]> eldest) {
+            return size() > HISTORY_FRAMES;
+        }
+    };
+    private int nextSeq = 0;
+    private int framesSinceKeyframe = Integer.MAX_VALUE;
+    private volatile boolean keyframeRequested = true;
+
+    public MulticastFrameSender(String groupAddress, int port, NetworkInterface iface, int keyframeInterval)
+            throws IOException {
+        this.group = new InetSocketAddress(InetAddress.getByName(groupAddress), port);
+        this.keyframeInterval = keyframeInterval;
+        channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        channel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, 1); // Stay inside the lab subnet
+        channel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true); // Same-machine testing
+        channel.setOption(StandardSocketOptions.SO_SNDBUF, 1 << 20);
+        if (iface != null) {
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, iface);
+        }
+    }
+
+    /**
+     * Whether the next frame should be a keyframe: periodically, after a
+     * receiver asked for one, or before the first frame.
+     */
+    public synchronized boolean isKeyframeDue() {
+        return keyframeRequested || framesSinceKeyframe >= keyframeInterval;
+    }
+
+    /**
+     * Called when a student joins or a receiver lost its reference frame
+     */
+    public void requestKeyframe() {
+        keyframeRequested = true;
+    }
+
+    /**
+     * Fragments and multicasts one frame.
+     *
+     * @return the frame's sequence number
+     */
+    public synchronized int send(byte[] frame, boolean keyframe) throws IOException {
+        int seq = nextSeq++;
+        int count = Math.max(1, (frame.length + FRAGMENT_PAYLOAD - 1) / FRAGMENT_PAYLOAD);
+        byte[][] fragments = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            int offset = i * FRAGMENT_PAYLOAD;
+            int len = Math.min(FRAGMENT_PAYLOAD, frame.length - offset);
+            ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + len);
+            buf.put(MAGIC_0).put(MAGIC_1);
+            buf.put(keyframe ? FLAG_KEYFRAME : 0).put((byte) 0);
+            buf.putInt(seq);
+            buf.putShort((short) i);
+            buf.putShort((short) count);
+            buf.putInt(frame.length);
+            buf.put(frame, offset, len);
+            fragments[i] = buf.array();
+        }
+        history.put(seq, fragments);
+
+        if (keyframe) {
+            framesSinceKeyframe = 0;
+            keyframeRequested = false;
+        } else {
+            framesSinceKeyframe++;
+        }
+
+        for (byte[] fragment : fragments) {
+            channel.send(ByteBuffer.wrap(fragment), group);
+        }
+        return seq;
+    }
+
+    /**
+     * Builds a MCAST_REPAIR body for a NACK: the requested datagrams, each
+     * prefixed with its 2-byte length.
+     *
+     * @param missing fragment indices, or null for the whole frame
+     * @return the repair body, or null if the frame has left the history
+     */
+    public synchronized byte[] repair(int seq, int[] missing) {
+        byte[][] fragments = history.get(seq);
+        if (fragments == null)
+            return null;
+
+        int size = 0;
+        int count = missing != null ? missing.length : fragments.length;
+        for (int i = 0; i < count; i++) {
+            int idx = missing != null ? missing[i] : i;
+            if (idx >= 0 && idx < fragments.length)
+                size += 2 + fragments[idx].length;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        for (int i = 0; i < count; i++) {
+            int idx = missing != null ? missing[i] : i;
+            if (idx >= 0 && idx < fragments.length) {
+                buf.putShort((short) fragments[idx].length);
+                buf.put(fragments[idx]);
+            }
+        }
+        return buf.array();
+    }
+
+    /**
+     * Interface for multicast traffic: Config.MULTICAST_IFACE if set (e.g. "lo"
+     * for single-machine testing), else the one holding the LAN address, else
+     * loopback.
+     */
+    public static NetworkInterface resolveInterface() throws IOException {
+        if (!Config.MULTICAST_IFACE.isEmpty()) {
+            NetworkInterface named = NetworkInterface.getByName(Config.MULTICAST_IFACE);
+            if (named != null)
+                return named;
+            System.err.println("Multicast: interface " + Config.MULTICAST_IFACE + " not found");
+        }
+        NetworkInterface lan = NetworkInterface.getByInetAddress(InetAddress.getByName(DiscoveryService.getLocalIp()));
+        if (lan != null)
+            return lan;
+        return NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+    }
+
+    public String getGroupAddress() {
+        return group.getAddress().getHostAddress();
+    }
+
+    public int getPort() {
+        return group.getPort();
+    }
+
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package com.ghost.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking server engine for large labs.
+ *
+ * A fixed number of reactor threads each own a Selector. Reactor 0 also accepts
+ * connections and hands them out round-robin. Every connection reads into its
+ * own direct ByteBuffer and feeds a FrameDecoder, so partial lines and frames
+ * are reassembled without a thread per client. Writes from other threads go
+ * into the connection's OutboundQueue and are flushed by the owning reactor
+ * when the socket is writable, straight from the packet's shared encoding.
+ * When AdmissionControl runs out of tokens, reactor 0 stops selecting for
+ * accepts until the next token, so further connections wait in the backlog.
+ */
+class NioServerEngine {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final GhostServer server;
+    private final int port;
+    private final Reactor[] reactors;
+    private final AtomicInteger nextReactor = new AtomicInteger();
+    private final AdmissionControl admission;
+    private ServerSocketChannel acceptChannel;
+    private SelectionKey acceptKey; // Reactor 0 thread only
+    private long acceptResumeNanos; // Reactor 0 thread only, 0 while accepting
+    private volatile boolean running;
+
+    NioServerEngine(GhostServer server, int port, int reactorCount, AdmissionControl admission) {
+        this.server = server;
+        this.port = port;
+        this.admission = admission;
+        this.reactors = new Reactor[Math.max(1, reactorCount)];
+    }
+
+    void start() throws IOException {
+        for (int i = 0; i < reactors.length; i++) {
+            reactors[i] = new Reactor(i);
+        }
+
+        acceptChannel = ServerSocketChannel.open();
+        acceptChannel.bind(new InetSocketAddress(port));
+        acceptChannel.configureBlocking(false);
+        reactors[0].submit(() -> {
+            try {
+                acceptKey = acceptChannel.register(reactors[0].selector, SelectionKey.OP_ACCEPT);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+
+        running = true;
+        for (Reactor r : reactors) {
+            Thread t = new Thread(r, "GhostReactor-" + r.index);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    void stop() {
+        running = false;
+        for (Reactor r : reactors) {
+            r.selector.wakeup();
+        }
+        try {
+            acceptChannel.close();
+        } catch (IOException e) {
+        }
+    }
+
+    private void accept() {
+        try {
+            SocketChannel channel;
+            while (true) {
+                long wait = admission.delayNanos();
+                if (wait > 0) {
+                    acceptKey.interestOps(0);
+                    acceptResumeNanos = System.nanoTime() + wait;
+                    return;
+                }
+                if ((channel = acceptChannel.accept()) == null)
+                    return;
+                admission.admitted();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                Reactor owner = reactors[Math.floorMod(nextReactor.getAndIncrement(), reactors.length)];
+                NioConnection connection = new NioConnection(channel, owner);
+                server.connectionOpened(connection);
+                owner.submit(() -> owner.register(connection));
+            }
+        } catch (IOException e) {
+            System.err.println("NIO accept error: " + e.getMessage());
+        }
+    }
+
+    private class Reactor implements Runnable {
+        final int index;
+        final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        Reactor(int index) throws IOException {
+            this.index = index;
+            this.selector = Selector.open();
+        }
+
+        /**
+         * Runs a task on this reactor's thread before its next select
+         */
+        void submit(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void register(NioConnection connection) {
+            try {
+                connection.key = connection.channel.register(selector, SelectionKey.OP_READ, connection);
+                connection.flush(); // Anything queued between accept and registration
+            } catch (IOException e) {
+                connection.close();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    long resume = index == 0 ? acceptResumeNanos : 0;
+                    if (resume == 0) {
+                        selector.select();
+                    } else {
+                        long waitNanos = resume - System.nanoTime();
+                        if (waitNanos > 0)
+                            selector.select(Math.max(1, waitNanos / 1_000_000));
+                        if (System.nanoTime() >= resume) {
+                            acceptResumeNanos = 0;
+                            acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+                        }
+                    }
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        if (!key.isValid())
+                            continue;
+
+                        if (key.isAcceptable()) {
+                            accept();
+                            continue;
+                        }
+                        NioConnection connection = (NioConnection) key.attachment();
+                        if (key.isReadable()) {
+                            connection.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                    }
+                } catch (Exception e) {
+                    System.err.println("Reactor " + index + " error: " + e.getMessage());
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    private class NioConnection extends ClientConnection {
+        final SocketChannel channel;
+        final Reactor reactor;
+        SelectionKey key;
+
+        private final ByteBuffer readBuf = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        private final FrameDecoder decoder = new FrameDecoder();
+        private final Queue<ByteBuffer> handshake = new ConcurrentLinkedQueue<>(); // Pre-encoded, sent first
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+        private ByteBuffer current; // Partially written message, reactor thread only
+        private WireFormat.Mode writeMode = WireFormat.Mode.JSON; // Reactor thread only
+        private volatile boolean closed;
+
+        NioConnection(SocketChannel channel, Reactor reactor) {
+            this.channel = channel;
+            this.reactor = reactor;
+            this.remoteHost = channel.socket().getInetAddress().getHostAddress();
+        }
+
+        void onReadable() {
+            try {
+                int n = channel.read(readBuf);
+                if (n < 0) {
+                    close();
+                    return;
+                }
+                readBuf.flip();
+                CommandPacket packet;
+                while (!closed && (packet = decoder.next(readBuf)) != null) {
+                    try {
+                        server.packetReceived(this, packet);
+                    } catch (Exception e) {
+                        // Silently ignore malformed packets
+                    }
+                }
+                readBuf.compact();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        @Override
+        protected void onQueued() {
+            // One pending flush task is enough however many packets were queued
+            if (!closed && flushScheduled.compareAndSet(false, true)) {
+                reactor.submit(() -> {
+                    flushScheduled.set(false);
+                    flush();
+                });
+            }
+        }
+
+        /**
+         * Runs on the reactor thread while decoding CONNECT. Packets polled from
+         * the queue after this point are encoded as binary frames.
+         */
+        @Override
+        void switchToBinary(CommandPacket answer, boolean readToo) {
+            handshake.add(ByteBuffer.wrap(WireFormat.encodeJson(answer)));
+            writeMode = WireFormat.Mode.BINARY;
+            if (readToo)
+                decoder.setMode(WireFormat.Mode.BINARY);
+            onQueued();
+        }
+
+        /**
+         * Runs on the reactor thread while decoding BINARY_READY, so the next
+         * packet in the read buffer is already decoded as a binary frame
+         */
+        @Override
+        void readBinary() {
+            decoder.setMode(WireFormat.Mode.BINARY);
+        }
+
+        private ByteBuffer nextMessage() {
+            ByteBuffer raw = handshake.poll();
+            if (raw != null)
+                return raw;
+            EncodedPacket packet = queue.poll();
+            return packet != null ? packet.bufferFor(writeMode) : null;
+        }
+
+        /**
+         * Writes queued messages straight from their shared encodings until the
+         * socket would block, then waits for OP_WRITE. Reactor thread only.
+         */
+        void flush() {
+            if (closed || key == null || !key.isValid())
+                return;
+            try {
+                while (true) {
+                    if (current == null && (current = nextMessage()) == null) {
+                        key.interestOps(SelectionKey.OP_READ);
+                        return;
+                    }
+                    channel.write(current);
+                    if (current.hasRemaining()) {
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    current = null;
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        @Override
+        void close() {
+            if (closed)
+                return;
+            closed = true;
+            if (key != null)
+                key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+            }
+            queue.close();
+            server.connectionClosed(this);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.ghost.net;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded per-client send queue.
+ *
+ * Control packets (LOCK, SHUTDOWN, MSG, ...) are kept in order and never
+ * dropped. Media packets are "latest frame wins": each media type has a single
+ * slot, and a newer frame replaces one that has not been written yet, so a slow
+ * client just sees a lower frame rate instead of stalling the sender.
+ *
+ * Producers (broadcast, UI handlers) never block. Consumers are the per-client
+ * writer thread (blocking engine) or the reactor flush (NIO engine).
+ */
+public class OutboundQueue {
+    private final int controlCapacity;
+    private final ArrayDeque<EncodedPacket> control = new ArrayDeque<>();
+    private final Map<CommandPacket.Type, EncodedPacket> latestMedia = new EnumMap<>(CommandPacket.Type.class);
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private boolean closed;
+
+    public OutboundQueue(int controlCapacity) {
+        this.controlCapacity = controlCapacity;
+    }
+
+    /**
+     * Queues a packet without blocking.
+     *
+     * @return false if the control lane is full; the client is hopelessly
+     *         behind and the caller should disconnect it rather than lose commands
+     */
+    public synchronized boolean offer(EncodedPacket packet) {
+        if (closed)
+            return true;
+
+        CommandPacket.Type type = packet.getPacket().getType();
+        if (WireFormat.isMedia(type)) {
+            if (latestMedia.put(type, packet) != null) {
+                dropped.incrementAndGet(); // Superseded before it was written
+            }
+        } else {
+            if (control.size() >= controlCapacity)
+                return false;
+            control.add(packet);
+        }
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Next packet to write, control before media, or null if empty
+     */
+    public synchronized EncodedPacket poll() {
+        EncodedPacket next = control.poll();
+        if (next == null && !latestMedia.isEmpty()) {
+            CommandPacket.Type type = latestMedia.keySet().iterator().next();
+            next = latestMedia.remove(type);
+        }
+        if (next != null)
+            sent.incrementAndGet();
+        return next;
+    }
+
+    /**
+     * Blocks until a packet is available.
+     *
+     * @return the packet, or null once the queue is closed
+     */
+    public synchronized EncodedPacket take() throws InterruptedException {
+        while (true) {
+            if (closed)
+                return null;
+            EncodedPacket next = poll();
+            if (next != null)
+                return next;
+            wait(TimeUnit.SECONDS.toMillis(1));
+        }
+    }
+
+    public synchronized void close() {
+        closed = true;
+        control.clear();
+        latestMedia.clear();
+        notifyAll();
+    }
+
+    public synchronized int depth() {
+        return control.size() + latestMedia.size();
+    }
+
+    /** Media frames replaced by a newer frame before they were written */
+    public long getDroppedFrames() {
+        return dropped.get();
+    }
+
+    public long getSentPackets() {
+        return sent.get();
+    }
+}
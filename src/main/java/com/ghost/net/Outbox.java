@@ -0,0 +1,410 @@
+package com.ghost.net;
+
+import com.ghost.util.Config;
+import java.io.File;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admin-side store-and-forward for students that are offline.
+ *
+ * Each student the admin has seen has an append-only log in OUTBOX_DIR with
+ * one JSON line per record: a packet still owed ({seq, type, sender,
+ * payload, expires}), a delivery mark ({done: seq}) or when the student was
+ * last connected ({seen: epoch ms}). Replaying the log
+ * gives the packets still owed; once OUTBOX_COMPACT_MIN were delivered and
+ * they outnumber the pending ones, the log is rewritten with only the
+ * pending ones. A torn last line from a crash is skipped. The log files are
+ * only touched on the outbox thread, in the order the records were made, so
+ * holding a packet (often on the FX thread) never waits for the disk.
+ * Students not seen for longer than the longest TTL, with nothing left to
+ * deliver, are forgotten along with their log.
+ *
+ * When the student reconnects its packets are drained in order on the
+ * outbox thread, never more than OUTBOX_MAX_QUEUED at a time in its send
+ * queue, so live packets to it and to everyone else are not held up. A
+ * packet counts as delivered once the connection's writer has passed it;
+ * whatever was still queued when the connection dropped is sent again next
+ * time. Files are kept as their path and handed to the file transfer, which
+ * resumes on its own.
+ */
+class Outbox {
+    private static final String SUFFIX = ".log";
+    private static final long FORGET_AFTER_MS = Math.max(Config.OUTBOX_MSG_TTL_MS,
+            Math.max(Config.OUTBOX_FILE_TTL_MS, Config.OUTBOX_COMMAND_TTL_MS));
+
+    private final GhostServer server;
+    private final Path dir;
+    private final Map<String, Student> students = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService drainer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Outbox");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** One log line */
+    private static class Record {
+        long seq;
+        CommandPacket.Type type;
+        String sender;
+        String payload; // The file's path for FILE_DATA
+        long expires; // Epoch ms
+        long done; // Set only on delivery marks: the delivered seq
+        long seen; // Set only on seen marks: when the student was last connected
+        transient long sentMark; // Connection's sent count once this packet is written
+    }
+
+    /** Guarded by its own monitor */
+    private static class Student {
+        final String name;
+        final Path log;
+        final ArrayDeque<Record> pending = new ArrayDeque<>(); // Not yet handed to a connection, oldest first
+        final ArrayDeque<Record> inFlight = new ArrayDeque<>(); // In the send queue, not yet written
+        long nextSeq = 1;
+        int delivered; // Delivered records still in the log
+        ClientConnection connection; // Draining to this one
+        boolean scheduled;
+        long lastSeen; // Epoch ms the student was last connected
+
+        Student(String name, Path log) {
+            this.name = name;
+            this.log = log;
+        }
+    }
+
+    Outbox(GhostServer server, Path dir) {
+        this.server = server;
+        this.dir = dir;
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException e) {
+            System.err.println("Could not create outbox " + dir + ": " + e.getMessage());
+        }
+        load();
+        drainer.scheduleWithFixedDelay(this::forgetGone, 1, 1, TimeUnit.HOURS);
+    }
+
+    /**
+     * How long a packet of this type is kept for an offline student; 0 = not
+     * kept. Lock, input and internet state come with LAB_STATE instead.
+     */
+    static long ttlMs(CommandPacket.Type type) {
+        switch (type) {
+            case MSG:
+                return Config.OUTBOX_MSG_TTL_MS;
+            case FILE_DATA:
+                return Config.OUTBOX_FILE_TTL_MS;
+            case SHUTDOWN:
+            case RESTART:
+            case MUTE:
+                return Config.OUTBOX_COMMAND_TTL_MS;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Every student the admin has seen, connected or not
+     */
+    Set<String> knownStudents() {
+        return new TreeSet<>(students.keySet());
+    }
+
+    /**
+     * Keeps a packet for a student that is offline, or that is online but
+     * still has older packets to drain, so they arrive in order.
+     *
+     * @return true if the outbox took the packet; false if the caller should
+     *         send it now (online) or it is not worth keeping (offline)
+     */
+    boolean hold(String name, boolean online, CommandPacket packet) {
+        long ttl = ttlMs(packet.getType());
+        if (ttl <= 0 || packet.getPayload() == null)
+            return false;
+        Student s = online ? students.get(name) : student(name);
+        if (s == null)
+            return false;
+        synchronized (s) {
+            if (online && s.pending.isEmpty())
+                return false; // Anything in flight is ahead of it in the send queue anyway
+            append(s, packet.getType(), packet.getSender(), packet.getPayload(), ttl);
+        }
+        return true;
+    }
+
+    /**
+     * Keeps a file for an offline student; it is sent from its path, so it
+     * must still be there when the student comes back
+     */
+    void holdFile(String name, File file) {
+        Student s = student(name);
+        synchronized (s) {
+            append(s, CommandPacket.Type.FILE_DATA, "ADMIN", file.getAbsolutePath(), Config.OUTBOX_FILE_TTL_MS);
+        }
+    }
+
+    /**
+     * The student (re)connected: starts draining to this connection
+     */
+    void clientReady(String name, ClientConnection connection) {
+        Student s = student(name);
+        synchronized (s) {
+            s.connection = connection;
+            seen(s);
+            requeueInFlight(s);
+            schedule(s, 0);
+        }
+    }
+
+    private Student student(String name) {
+        return students.computeIfAbsent(name, n -> {
+            Student s = new Student(n, dir.resolve(URLEncoder.encode(n, StandardCharsets.UTF_8) + SUFFIX));
+            synchronized (s) {
+                seen(s); // Remembers the student across admin restarts
+            }
+            return s;
+        });
+    }
+
+    /** Caller holds the student's lock */
+    private void seen(Student s) {
+        s.lastSeen = System.currentTimeMillis();
+        Record mark = new Record();
+        mark.seen = s.lastSeen;
+        write(s, mark);
+    }
+
+    /**
+     * Forgets students not seen for longer than the longest TTL that have
+     * nothing left that could still be delivered. Outbox thread.
+     */
+    private void forgetGone() {
+        long now = System.currentTimeMillis();
+        for (Student s : students.values()) {
+            synchronized (s) {
+                if (s.connection != null || !s.inFlight.isEmpty() || now - s.lastSeen < FORGET_AFTER_MS)
+                    continue;
+                boolean live = false;
+                for (Record r : s.pending) {
+                    live |= r.expires >= now;
+                }
+                if (live)
+                    continue;
+                students.remove(s.name, s);
+            }
+            try {
+                Files.deleteIfExists(s.log);
+                System.out.println("Outbox: forgot " + s.name + ", not seen since " + new java.util.Date(s.lastSeen));
+            } catch (IOException e) {
+                System.err.println("Could not delete outbox of " + s.name + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /** Caller holds the student's lock */
+    private void append(Student s, CommandPacket.Type type, String sender, String payload, long ttl) {
+        if (s.pending.size() >= Config.OUTBOX_MAX_RECORDS) {
+            System.err.println("Outbox for " + s.name + " full, dropping its oldest packet");
+            markDone(s, s.pending.poll());
+        }
+        Record r = new Record();
+        r.seq = s.nextSeq++;
+        r.type = type;
+        r.sender = sender;
+        r.payload = payload;
+        r.expires = System.currentTimeMillis() + ttl;
+        s.pending.add(r);
+        write(s, r);
+        if (s.connection != null)
+            schedule(s, 0);
+    }
+
+    /** Caller holds the student's lock */
+    private void schedule(Student s, long delayMs) {
+        if (s.scheduled)
+            return;
+        s.scheduled = true;
+        drainer.schedule(() -> drain(s), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Packets that were queued but never written go back to the front, in
+     * order. Caller holds the student's lock.
+     */
+    private static void requeueInFlight(Student s) {
+        while (!s.inFlight.isEmpty()) {
+            s.pending.addFirst(s.inFlight.pollLast());
+        }
+    }
+
+    private void drain(Student s) {
+        List<Record> files = new ArrayList<>();
+        ClientConnection c;
+        synchronized (s) {
+            s.scheduled = false;
+            c = s.connection;
+            if (c == null)
+                return;
+            if (server.connectionFor(s.name) != c) {
+                s.connection = null; // Dropped; the rest goes out on the next connection
+                seen(s);
+                requeueInFlight(s);
+                return;
+            }
+            long sent = c.queue.getSentPackets();
+            while (!s.inFlight.isEmpty() && sent >= s.inFlight.peek().sentMark) {
+                markDone(s, s.inFlight.poll());
+            }
+            long now = System.currentTimeMillis();
+            while (!s.pending.isEmpty() && c.queue.depth() < Config.OUTBOX_MAX_QUEUED) {
+                Record r = s.pending.poll();
+                if (r.expires < now) {
+                    markDone(s, r); // Too old to matter any more
+                } else if (r.type == CommandPacket.Type.FILE_DATA) {
+                    files.add(r);
+                    markDone(s, r);
+                } else {
+                    c.send(new EncodedPacket(new CommandPacket(r.type, r.sender, r.payload)));
+                    r.sentMark = c.queue.getSentPackets() + c.queue.depth();
+                    s.inFlight.add(r);
+                }
+            }
+            if (!s.pending.isEmpty() || !s.inFlight.isEmpty())
+                schedule(s, Config.OUTBOX_DRAIN_INTERVAL_MS);
+            compactIfNeeded(s);
+        }
+        for (Record r : files) {
+            server.deliverHeldFile(c, new File(r.payload)); // Outside the lock: builds the file's manifest
+        }
+    }
+
+    /** Caller holds the student's lock */
+    private void markDone(Student s, Record r) {
+        Record mark = new Record();
+        mark.done = r.seq;
+        write(s, mark);
+        s.delivered++;
+    }
+
+    /** Caller holds the student's lock */
+    private void compactIfNeeded(Student s) {
+        if (s.delivered < Config.OUTBOX_COMPACT_MIN || s.delivered <= s.pending.size() + s.inFlight.size())
+            return;
+        List<Record> live = new ArrayList<>(s.inFlight);
+        live.addAll(s.pending);
+        rewrite(s, live);
+    }
+
+    /**
+     * Replaces the log with the given records. The text is taken now and
+     * written on the outbox thread after every record made before it, which
+     * it supersedes. Caller holds the student's lock, or is loading.
+     */
+    private void rewrite(Student s, List<Record> live) {
+        Record seen = new Record();
+        seen.seen = s.lastSeen;
+        StringBuilder text = new StringBuilder(WireFormat.gson.toJson(seen)).append('\n');
+        for (Record r : live) {
+            text.append(WireFormat.gson.toJson(r)).append('\n');
+        }
+        s.delivered = 0;
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        drainer.execute(() -> {
+            try {
+                Path tmp = s.log.resolveSibling(s.log.getFileName() + ".tmp");
+                Files.write(tmp, bytes);
+                Files.move(tmp, s.log, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                System.err.println("Could not compact outbox of " + s.name + ": " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Appends a record on the outbox thread. Caller holds the student's lock,
+     * so records are queued in the order they were made.
+     */
+    private void write(Student s, Record r) {
+        byte[] line = (WireFormat.gson.toJson(r) + "\n").getBytes(StandardCharsets.UTF_8);
+        drainer.execute(() -> {
+            try {
+                Files.write(s.log, line, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                System.err.println("Could not write outbox of " + s.name + ": " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Replays every student's log, dropping expired packets, and compacts
+     * logs that had anything to drop
+     */
+    private void load() {
+        if (!Files.isDirectory(dir))
+            return;
+        try (DirectoryStream<Path> logs = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path log : logs) {
+                String file = log.getFileName().toString();
+                String name = URLDecoder.decode(file.substring(0, file.length() - SUFFIX.length()),
+                        StandardCharsets.UTF_8);
+                Student s = new Student(name, log);
+                s.lastSeen = Files.getLastModifiedTime(log).toMillis(); // Logs from before seen marks
+                boolean marked = false;
+                Map<Long, Record> owed = new LinkedHashMap<>();
+                int dropped = 0;
+                for (String line : Files.readAllLines(log, StandardCharsets.UTF_8)) {
+                    Record r;
+                    try {
+                        r = WireFormat.gson.fromJson(line, Record.class);
+                    } catch (RuntimeException e) {
+                        r = null;
+                    }
+                    if (r == null) {
+                        dropped++; // Blank or torn
+                    } else if (r.done > 0) {
+                        owed.remove(r.done);
+                        dropped++;
+                    } else if (r.seen > 0) {
+                        s.lastSeen = marked ? Math.max(s.lastSeen, r.seen) : r.seen;
+                        marked = true;
+                    } else if (r.type != null) {
+                        owed.put(r.seq, r);
+                        s.nextSeq = Math.max(s.nextSeq, r.seq + 1);
+                    }
+                }
+                long now = System.currentTimeMillis();
+                for (Record r : owed.values()) {
+                    if (r.expires >= now)
+                        s.pending.add(r);
+                    else
+                        dropped++;
+                }
+                if (dropped > 0)
+                    rewrite(s, new ArrayList<>(s.pending));
+                students.put(name, s);
+                if (!s.pending.isEmpty())
+                    System.out.println("Outbox: " + s.pending.size() + " packets kept for " + name);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not read outbox " + dir + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.ghost.net;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Blocking packet reader/writer over a socket, used by GhostClient and the
+ * thread-per-client GhostServer. Replaces the PrintWriter/BufferedReader pair so
+ * the connection can switch from JSON lines to binary frames after the handshake.
+ */
+public class PacketStream {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private final SocketChannel channel; // Present for server sockets accepted through a channel
+    private final FrameDecoder decoder = new FrameDecoder();
+    private final ByteBuffer readBuf = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private volatile WireFormat.Mode writeMode = WireFormat.Mode.JSON;
+
+    public PacketStream(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = socket.getInputStream();
+        this.out = new BufferedOutputStream(socket.getOutputStream(), READ_BUFFER_SIZE);
+        this.channel = socket.getChannel();
+        readBuf.flip(); // Start empty
+    }
+
+    public WireFormat.Mode getReadMode() {
+        return decoder.getMode();
+    }
+
+    public void setReadMode(WireFormat.Mode mode) {
+        decoder.setMode(mode);
+    }
+
+    public WireFormat.Mode getWriteMode() {
+        return writeMode;
+    }
+
+    public synchronized void setWriteMode(WireFormat.Mode mode) {
+        this.writeMode = mode;
+    }
+
+    /**
+     * Blocks until a full packet arrives.
+     *
+     * @return the packet, or null on end of stream
+     */
+    public CommandPacket read() throws IOException {
+        while (true) {
+            CommandPacket packet = decoder.next(readBuf);
+            if (packet != null)
+                return packet;
+
+            readBuf.compact();
+            int n = -1;
+            try {
+                n = in.read(readBuf.array(), readBuf.arrayOffset() + readBuf.position(), readBuf.remaining());
+                if (n > 0)
+                    readBuf.position(readBuf.position() + n);
+            } finally {
+                readBuf.flip(); // Keep the buffer readable even if the read timed out
+            }
+            if (n < 0)
+                return null;
+        }
+    }
+
+    public synchronized void write(CommandPacket packet) throws IOException {
+        writeEncoded(WireFormat.encode(packet, writeMode));
+    }
+
+    /**
+     * Writes a shared packet using whichever encoding matches the current write
+     * mode. With a socket channel the shared buffer goes to the socket as-is;
+     * otherwise it is streamed through a small scratch array.
+     */
+    public synchronized void write(EncodedPacket packet) throws IOException {
+        ByteBuffer buf = packet.bufferFor(writeMode);
+        if (channel != null) {
+            out.flush();
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            return;
+        }
+        byte[] scratch = new byte[Math.min(buf.remaining(), 8192)];
+        while (buf.hasRemaining()) {
+            int n = Math.min(scratch.length, buf.remaining());
+            buf.get(scratch, 0, n);
+            out.write(scratch, 0, n);
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes bytes already encoded for this stream's current write mode
+     */
+    public synchronized void writeEncoded(byte[] bytes) throws IOException {
+        out.write(bytes);
+        out.flush();
+    }
+
+    public void setSoTimeout(int millis) throws IOException {
+        socket.setSoTimeout(millis);
+    }
+
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+        }
+    }
+}
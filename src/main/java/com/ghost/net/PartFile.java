@@ -0,0 +1,197 @@
+package com.ghost.net;
+
+import com.ghost.util.ContentChunker;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * A file being received against a FileManifest, shared by the chunked and the
+ * swarm transfer. Lives as "name.id.part" in the download folder until every
+ * chunk is in place, then is renamed to the real name.
+ *
+ * Opening it works out which chunks are still needed: chunks already in the
+ * part file (an interrupted transfer) and chunks found in the ChunkCache (an
+ * earlier copy of the same or a similar file) are kept, verified by hash.
+ */
+class PartFile {
+    private static final String PART_SUFFIX = ".part";
+
+    final FileManifest manifest;
+    private final BitSet have = new BitSet();
+    private Path path;
+    private FileChannel channel;
+    private boolean complete;
+    private long resumedBytes; // Already in the part file
+    private long cachedBytes; // Copied from earlier files
+
+    private PartFile(FileManifest manifest) {
+        this.manifest = manifest;
+    }
+
+    /**
+     * Opens or creates the part file and fills in every chunk that is already
+     * on this machine. Reads and hashes up to the whole file, so call it off
+     * the connection's reader thread.
+     */
+    static PartFile open(Path dir, FileManifest manifest, ChunkCache cache) throws IOException {
+        manifest.name = Paths.get(manifest.name).getFileName().toString(); // No paths from the wire
+        PartFile part = new PartFile(manifest);
+        Files.createDirectories(dir);
+        part.path = dir.resolve(manifest.name + "." + Long.toHexString(manifest.id) + PART_SUFFIX);
+        part.channel = FileChannel.open(part.path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+
+        long onDisk = part.channel.size();
+        ByteBuffer buf = ByteBuffer.allocate(0);
+        for (int i = 0; i < manifest.chunkCount(); i++) {
+            int length = manifest.length(i);
+            long offset = manifest.offset(i);
+            if (offset + length <= onDisk) {
+                if (buf.capacity() < length)
+                    buf = ByteBuffer.allocate(length);
+                buf.clear().limit(length);
+                readFully(part.channel, buf, offset);
+                if (manifest.chunks[i].equals(ContentChunker.sha256Hex(buf.array(), 0, length))) {
+                    part.have.set(i);
+                    part.resumedBytes += length;
+                    continue;
+                }
+            }
+            byte[] cached = cache != null ? cache.read(manifest.chunks[i], length) : null;
+            if (cached != null) {
+                writeFully(part.channel, ByteBuffer.wrap(cached), offset);
+                part.have.set(i);
+                part.cachedBytes += length;
+            }
+        }
+        return part;
+    }
+
+    synchronized int[] have() {
+        return have.stream().toArray();
+    }
+
+    synchronized int[] missing() {
+        int[] missing = new int[manifest.chunkCount() - have.cardinality()];
+        int n = 0;
+        for (int i = have.nextClearBit(0); i < manifest.chunkCount(); i = have.nextClearBit(i + 1)) {
+            missing[n++] = i;
+        }
+        return missing;
+    }
+
+    synchronized boolean has(int index) {
+        return have.get(index);
+    }
+
+    synchronized int haveCount() {
+        return have.cardinality();
+    }
+
+    synchronized boolean isComplete() {
+        return have.cardinality() == manifest.chunkCount();
+    }
+
+    synchronized boolean isOpen() {
+        return channel != null;
+    }
+
+    long getResumedBytes() {
+        return resumedBytes;
+    }
+
+    long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    /**
+     * Writes a received chunk in place if it matches the manifest
+     *
+     * @return false if the data does not hash to the chunk (resend needed)
+     */
+    boolean write(int index, byte[] data, int offset, int length) throws IOException {
+        if (index < 0 || index >= manifest.chunkCount() || length != manifest.length(index)
+                || !manifest.chunks[index].equals(ContentChunker.sha256Hex(data, offset, length)))
+            return false;
+        synchronized (this) {
+            if (channel == null || complete)
+                return true; // Closed meanwhile, or a duplicate after completion
+            writeFully(channel, ByteBuffer.wrap(data, offset, length), manifest.offset(index));
+            have.set(index);
+        }
+        return true;
+    }
+
+    /**
+     * Reads a chunk held here, for serving peers; null if not held
+     */
+    byte[] read(int index) throws IOException {
+        FileChannel c;
+        synchronized (this) {
+            c = channel;
+            if (c == null || !have.get(index))
+                return null;
+        }
+        // Positional reads don't need the lock; a channel closed meanwhile just fails this request
+        byte[] chunk = new byte[manifest.length(index)];
+        readFully(c, ByteBuffer.wrap(chunk), manifest.offset(index));
+        return chunk;
+    }
+
+    /**
+     * Flushes the complete file and renames it to its real name, never over an
+     * existing file ("notes.pdf" becomes "notes (1).pdf"). The file stays open
+     * read-only so it can still be served.
+     */
+    synchronized Path finish() throws IOException {
+        channel.force(false);
+        channel.close();
+        Path target = path.resolveSibling(manifest.name);
+        String base = manifest.name;
+        String ext = "";
+        int dot = base.lastIndexOf('.');
+        if (dot > 0) {
+            ext = base.substring(dot);
+            base = base.substring(0, dot);
+        }
+        for (int i = 1; Files.exists(target); i++) {
+            target = target.resolveSibling(base + " (" + i + ")" + ext);
+        }
+        Files.move(path, target, StandardCopyOption.ATOMIC_MOVE);
+        path = target;
+        channel = FileChannel.open(target, StandardOpenOption.READ);
+        complete = true;
+        return target;
+    }
+
+    synchronized void close() {
+        try {
+            if (channel != null)
+                channel.close();
+        } catch (IOException e) {
+        }
+        channel = null;
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position);
+            if (n < 0)
+                throw new IOException("unexpected end of file");
+            position += n;
+        }
+    }
+
+    static void writeFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.ghost.net;
+
+/**
+ * Round-trip time from heartbeat samples, smoothed like TCP's SRTT and RTTVAR
+ * (RFC 6298): the smoothed RTT follows each sample by 1/8 and the jitter, the
+ * mean deviation, by 1/4. The lowest sample is kept as the path's base delay,
+ * what a frame would take with nothing queued.
+ */
+class RttEstimator {
+    private double smoothedMs = -1;
+    private double jitterMs;
+    private double minMs = -1;
+
+    synchronized void sample(double ms) {
+        if (ms < 0)
+            return;
+        if (smoothedMs < 0) {
+            smoothedMs = ms;
+            jitterMs = ms / 2;
+        } else {
+            jitterMs += (Math.abs(smoothedMs - ms) - jitterMs) / 4;
+            smoothedMs += (ms - smoothedMs) / 8;
+        }
+        minMs = minMs < 0 ? ms : Math.min(minMs, ms);
+    }
+
+    /** -1 until the first sample */
+    synchronized double getSmoothedMs() {
+        return smoothedMs;
+    }
+
+    synchronized double getJitterMs() {
+        return jitterMs;
+    }
+
+    /** -1 until the first sample */
+    synchronized double getMinMs() {
+        return minMs;
+    }
+}
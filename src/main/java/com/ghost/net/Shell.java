@@ -0,0 +1,121 @@
+package com.ghost.net;
+
+/**
+ * Messages of the streamed remote shell.
+ *
+ * <pre>
+ *   admin   SHELL        {id, command}
+ *   student SHELL_OUTPUT {id, seq, text}     while the command runs, batched by size and time
+ *   admin   SHELL_ACK    {id, bytes}         for every SHELL_OUTPUT
+ *   admin   SHELL        {id, cancel}        optional: kill the command and its children
+ *   ...
+ *   student SHELL_EXIT   {id, code, bytes, lines[, truncated][, cancelled][, error]}
+ * </pre>
+ *
+ * The student keeps at most SHELL_WINDOW_BYTES of output unacknowledged per
+ * command; beyond that it stops reading the process, whose own writes then
+ * block until the admin catches up. Clients and servers without the streamed
+ * shell exchange the command and one SHELL_OUTPUT as plain text.
+ */
+public final class Shell {
+
+    private Shell() {
+    }
+
+    public static class Run {
+        public long id;
+        public String command;
+        public boolean cancel; // Stop the running command with this id instead
+
+        public Run() {
+        }
+
+        public Run(long id, String command) {
+            this.id = id;
+            this.command = command;
+        }
+
+        public static Run cancel(long id) {
+            Run run = new Run(id, null);
+            run.cancel = true;
+            return run;
+        }
+
+        public static Run parse(String payload) {
+            try {
+                return WireFormat.gson.fromJson(payload, Run.class);
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+
+        public String toJson() {
+            return WireFormat.gson.toJson(this);
+        }
+    }
+
+    public static class Output {
+        public long id;
+        public int seq; // Batches of one command arrive in order; seq makes gaps visible
+        public String text;
+
+        public static Output parse(String payload) {
+            try {
+                return WireFormat.gson.fromJson(payload, Output.class);
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+
+        public String toJson() {
+            return WireFormat.gson.toJson(this);
+        }
+    }
+
+    public static class Ack {
+        public long id;
+        public int bytes; // UTF-8 size of the acknowledged batch
+
+        public Ack() {
+        }
+
+        public Ack(long id, int bytes) {
+            this.id = id;
+            this.bytes = bytes;
+        }
+
+        public static Ack parse(String payload) {
+            try {
+                return WireFormat.gson.fromJson(payload, Ack.class);
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+
+        public String toJson() {
+            return WireFormat.gson.toJson(this);
+        }
+    }
+
+    public static class Exit {
+        public long id;
+        public int code = -1;
+        public long bytes; // Output produced, including what the caps dropped
+        public long lines;
+        public boolean truncated; // Output went past SHELL_MAX_BYTES or SHELL_MAX_LINES
+        public boolean cancelled; // Killed on the admin's request
+        public String error; // The command could not be started
+
+        public static Exit parse(String payload) {
+            try {
+                return WireFormat.gson.fromJson(payload, Exit.class);
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+
+        public String toJson() {
+            return WireFormat.gson.toJson(this);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.ghost.net;
+
+import com.ghost.util.Config;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Student side of the streamed remote shell (see Shell).
+ *
+ * Each command gets a thread that reads the process output into a batch of at
+ * most about SHELL_BATCH_BYTES. A full batch is sent right away, a partial one
+ * by the flusher every SHELL_BATCH_MS, so a long build or an endless ping shows
+ * up on the admin while it runs. When SHELL_WINDOW_BYTES are unacknowledged the
+ * reader stops reading, and the process blocks on its own full pipe.
+ */
+class ShellRunner {
+    private static final int READ_CHARS = 4096;
+
+    interface Events {
+        void send(CommandPacket.Type type, String payload);
+    }
+
+    private final Events events;
+    private final Map<Long, Command> running = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ShellFlusher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Output state guarded by its own monitor; sendLock keeps batches in seq order */
+    private static class Command {
+        final long id;
+        final Object sendLock = new Object();
+        final StringBuilder batch = new StringBuilder();
+        int seq;
+        long unacked; // Bytes sent and not yet acknowledged
+        long bytes; // All output, including what the caps dropped
+        long lines;
+        boolean truncated;
+        boolean detached; // Admin gone: output is read and dropped
+        boolean cancelled;
+        Process process;
+
+        Command(long id) {
+            this.id = id;
+        }
+    }
+
+    ShellRunner(Events events) {
+        this.events = events;
+        flusher.scheduleWithFixedDelay(this::flushAll, Config.SHELL_BATCH_MS, Config.SHELL_BATCH_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    void runReceived(Shell.Run run) {
+        if (run != null && run.cancel) {
+            cancel(run.id);
+            return;
+        }
+        if (run == null || run.command == null || run.command.isEmpty() || running.containsKey(run.id))
+            return;
+        Command c = new Command(run.id);
+        running.put(run.id, c);
+        Thread t = new Thread(() -> execute(c, run.command), "Shell-" + run.id);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    void ackReceived(Shell.Ack ack) {
+        Command c = ack != null ? running.get(ack.id) : null;
+        if (c == null)
+            return;
+        synchronized (c) {
+            c.unacked = Math.max(0, c.unacked - ack.bytes);
+            c.notifyAll();
+        }
+    }
+
+    /**
+     * Kills the command and everything it started; its SHELL_EXIT still follows
+     */
+    private void cancel(long id) {
+        Command c = running.get(id);
+        if (c == null)
+            return;
+        Process p;
+        synchronized (c) {
+            c.cancelled = true;
+            p = c.process;
+        }
+        if (p != null) {
+            p.descendants().forEach(ProcessHandle::destroyForcibly);
+            p.destroyForcibly();
+        }
+    }
+
+    /**
+     * Connection lost: running commands finish, but their output is dropped
+     */
+    void disconnected() {
+        for (Command c : running.values()) {
+            synchronized (c) {
+                c.detached = true;
+                c.batch.setLength(0);
+                c.notifyAll();
+            }
+        }
+    }
+
+    private void execute(Command c, String command) {
+        Shell.Exit exit = new Shell.Exit();
+        exit.id = c.id;
+        try {
+            ProcessBuilder pb = new ProcessBuilder(shellCommand(command));
+            pb.redirectErrorStream(true);
+            Process p = pb.start();
+            synchronized (c) {
+                c.process = p;
+                if (c.cancelled) // Cancel arrived while starting
+                    p.destroyForcibly();
+            }
+            p.getOutputStream().close(); // Nobody types into remote commands
+            try (Reader in = new InputStreamReader(p.getInputStream())) {
+                char[] buf = new char[READ_CHARS];
+                int n;
+                while ((n = in.read(buf)) >= 0) {
+                    append(c, buf, n);
+                    awaitWindow(c);
+                }
+            }
+            exit.code = p.waitFor();
+        } catch (IOException e) {
+            exit.error = e.getMessage() != null ? e.getMessage() : e.toString();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exit.error = "interrupted";
+        }
+
+        flush(c, true);
+        running.remove(c.id);
+        synchronized (c) {
+            if (c.detached)
+                return;
+            exit.bytes = c.bytes;
+            exit.lines = c.lines;
+            exit.truncated = c.truncated;
+            exit.cancelled = c.cancelled;
+        }
+        events.send(CommandPacket.Type.SHELL_EXIT, exit.toJson());
+    }
+
+    /**
+     * Adds output to the batch up to the caps; beyond them it is only counted
+     */
+    private static void append(Command c, char[] buf, int n) {
+        String text = new String(buf, 0, n);
+        int size = text.getBytes(StandardCharsets.UTF_8).length;
+        int newlines = 0;
+        for (int i = 0; i < n; i++) {
+            if (buf[i] == '\n')
+                newlines++;
+        }
+        synchronized (c) {
+            long bytesBefore = c.bytes;
+            long linesBefore = c.lines;
+            c.bytes += size;
+            c.lines += newlines;
+            if (c.detached || c.truncated)
+                return;
+            if (c.bytes <= Config.SHELL_MAX_BYTES && c.lines <= Config.SHELL_MAX_LINES) {
+                c.batch.append(text);
+                return;
+            }
+            // Keep what fits: chars are at least one byte each, and stop after the last allowed line
+            int keep = (int) Math.min(n, Config.SHELL_MAX_BYTES - bytesBefore);
+            long lineRoom = Config.SHELL_MAX_LINES - linesBefore;
+            if (lineRoom <= 0)
+                keep = 0; // The allowed lines were already full
+            for (int i = 0; i < keep; i++) {
+                if (buf[i] == '\n' && --lineRoom == 0) {
+                    keep = i + 1;
+                    break;
+                }
+            }
+            c.batch.append(buf, 0, Math.max(0, keep));
+            c.truncated = true;
+        }
+    }
+
+    /**
+     * Sends a full batch once the admin has room for it, blocking the reader
+     * (and with it the process) until then
+     */
+    private void awaitWindow(Command c) throws InterruptedException {
+        synchronized (c) {
+            while (!c.detached && c.batch.length() >= Config.SHELL_BATCH_BYTES
+                    && c.unacked >= Config.SHELL_WINDOW_BYTES) {
+                c.wait();
+            }
+            if (c.batch.length() < Config.SHELL_BATCH_BYTES)
+                return;
+        }
+        flush(c, false);
+    }
+
+    private void flushAll() {
+        for (Command c : running.values()) {
+            flush(c, false);
+        }
+    }
+
+    /**
+     * Sends the batch unless the window is full; the final flush goes out
+     * regardless, it is at most one batch
+     */
+    private void flush(Command c, boolean last) {
+        synchronized (c.sendLock) {
+            Shell.Output out = new Shell.Output();
+            synchronized (c) {
+                if (c.detached || c.batch.length() == 0 || (!last && c.unacked >= Config.SHELL_WINDOW_BYTES))
+                    return;
+                out.id = c.id;
+                out.seq = c.seq++;
+                out.text = c.batch.toString();
+                c.batch.setLength(0);
+                c.unacked += out.text.getBytes(StandardCharsets.UTF_8).length;
+            }
+            events.send(CommandPacket.Type.SHELL_OUTPUT, out.toJson());
+        }
+    }
+
+    static String[] shellCommand(String command) {
+        if (System.getProperty("os.name", "").startsWith("Windows"))
+            return new String[] { "cmd.exe", "/c", command };
+        return new String[] { "sh", "-c", command };
+    }
+}
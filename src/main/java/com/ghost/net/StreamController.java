@@ -0,0 +1,277 @@
+package com.ghost.net;
+
+import com.ghost.util.Config;
+import java.util.ArrayDeque;
+
+/**
+ * Picks frame rate, scale and JPEG quality for one student's screen stream.
+ *
+ * Inputs are the time each frame spends between being sent and being
+ * acknowledged by the admin (FRAME_ACK), the bytes still unacknowledged, the
+ * acknowledged byte rate and the capture + encode time. When frames back up
+ * the controller cuts the frame rate in one step to what the acknowledged rate
+ * says the network carries, then waits until the frames sent after the cut are
+ * acknowledged before judging again, so a saturated exam network settles
+ * within a round trip or two instead of ratcheting down to the floor. Only at
+ * the minimum frame rate does it lower quality, then scale. With sustained
+ * headroom it steps back up in the opposite order, because legibility
+ * matters more than smoothness for watching a lab.
+ *
+ * With heartbeats the lowest round trip seen is taken as the path's base
+ * delay and only the delay above it counts as congestion, so a student on a
+ * slow but idle link (Wi-Fi, VPN) is not throttled for its distance.
+ */
+public class StreamController {
+    private static final long TICK_MS = 250;
+    private static final long RAISE_AFTER_MS = 1500; // Calm period before stepping up
+    private static final long STATUS_INTERVAL_MS = 2000;
+    private static final long MAX_HOLD_MS = 3000; // Longest wait for a decrease to take effect
+    private static final double EWMA = 0.3;
+
+    private final boolean networkFeedback;
+
+    // Current ceilings, lowered while the admin only needs a thumbnail
+    private int maxFps = Config.STREAM_MAX_FPS;
+    private double maxScale = Config.STREAM_MAX_SCALE;
+    private double maxQuality = Config.STREAM_MAX_QUALITY;
+
+    private int fps = maxFps;
+    private double scale = maxScale;
+    private double quality = maxQuality;
+    private String reason = "start";
+
+    private long sentBytes;
+    private long ackedBytes;
+    private final ArrayDeque<long[]> unacked = new ArrayDeque<>(); // {end offset, send time}
+    private double frameDelayMs; // Smoothed, for reporting
+    private long lastFrameDelayMs; // Latest sample, for decisions
+    private double encodeMs;
+    private double ackedBytesPerSec;
+    private double baseRttMs; // Lowest heartbeat round trip, 0 without heartbeats
+    private double rttMs = -1;
+    private double jitterMs;
+    private double sentBytesPerSec;
+    private long rateWindowStart = System.currentTimeMillis();
+    private long rateWindowAcked;
+    private long rateWindowSent;
+
+    private long lastTick;
+    private long calmSince = System.currentTimeMillis();
+    private long holdUntilAcked = -1; // Don't decrease again until this much was acknowledged
+    private long lastDecrease;
+    private long lastStatus;
+    private boolean changed = true;
+
+    /**
+     * @param networkFeedback whether the admin acknowledges frames; without it
+     *                        only the encode time is used
+     */
+    public StreamController(boolean networkFeedback) {
+        this.networkFeedback = networkFeedback;
+    }
+
+    /**
+     * True if the admin acknowledges frames, and so also wants STREAM_STATS
+     */
+    public boolean hasNetworkFeedback() {
+        return networkFeedback;
+    }
+
+    /**
+     * Sets new ceilings and jumps straight to them: when the admin opens a
+     * full-screen view it should get full quality at once, and backing off
+     * from there is quick if the network cannot carry it.
+     */
+    public synchronized void setLimits(int maxFps, double maxScale, double maxQuality, String why) {
+        this.maxFps = maxFps;
+        this.maxScale = maxScale;
+        this.maxQuality = maxQuality;
+        fps = maxFps;
+        scale = maxScale;
+        quality = maxQuality;
+        setReason(why);
+    }
+
+    public synchronized int getFrameIntervalMs() {
+        return 1000 / fps;
+    }
+
+    public synchronized double getScale() {
+        return scale;
+    }
+
+    public synchronized float getQuality() {
+        return (float) quality;
+    }
+
+    public synchronized void onFrameEncoded(long encodeNanos) {
+        encodeMs += EWMA * (encodeNanos / 1e6 - encodeMs);
+    }
+
+    public synchronized void onFrameSent(int bytes) {
+        sentBytes += bytes;
+        if (networkFeedback)
+            unacked.addLast(new long[] { sentBytes, System.currentTimeMillis() });
+    }
+
+    /**
+     * @param totalBytes cumulative screen bytes the admin has received
+     */
+    public synchronized void onAck(long totalBytes) {
+        long now = System.currentTimeMillis();
+        ackedBytes = Math.max(ackedBytes, totalBytes);
+        while (!unacked.isEmpty() && unacked.peekFirst()[0] <= ackedBytes) {
+            lastFrameDelayMs = now - unacked.pollFirst()[1];
+            frameDelayMs += EWMA * (lastFrameDelayMs - frameDelayMs);
+        }
+        updateRate(now);
+    }
+
+    /**
+     * Latest heartbeat round trip figures
+     */
+    public synchronized void onRtt(double minMs, double smoothedMs, double jitterMs) {
+        baseRttMs = Math.max(0, minMs);
+        rttMs = smoothedMs;
+        this.jitterMs = jitterMs;
+    }
+
+    private void updateRate(long now) {
+        long elapsed = now - rateWindowStart;
+        if (elapsed >= 500) {
+            ackedBytesPerSec += 0.5 * ((ackedBytes - rateWindowAcked) * 1000.0 / elapsed - ackedBytesPerSec);
+            sentBytesPerSec += 0.5 * ((sentBytes - rateWindowSent) * 1000.0 / elapsed - sentBytesPerSec);
+            rateWindowStart = now;
+            rateWindowAcked = ackedBytes;
+            rateWindowSent = sentBytes;
+        }
+    }
+
+    /**
+     * Re-evaluates the settings at most every TICK_MS.
+     *
+     * @return true when a status report is due: the settings changed or the
+     *         periodic interval passed
+     */
+    public synchronized boolean tick() {
+        long now = System.currentTimeMillis();
+        if (now - lastTick < TICK_MS)
+            return false;
+        lastTick = now;
+        if (networkFeedback)
+            updateRate(now);
+
+        double budgetMs = 1000.0 / fps;
+        double delay = currentDelay(now);
+        double queueing = Math.max(0, delay - baseRttMs); // What the network adds beyond its base delay
+        boolean congested = networkFeedback && queueing > Config.STREAM_TARGET_DELAY_MS;
+        boolean cpuBound = encodeMs > budgetMs * 0.7;
+
+        if (congested) {
+            calmSince = now;
+            // Judge a cut once frames sent after it are through and the backlog stopped shrinking
+            boolean draining = sentBytesPerSec < ackedBytesPerSec * 0.9;
+            boolean decreaseTookEffect = (ackedBytes >= holdUntilAcked && !draining)
+                    || now - lastDecrease > MAX_HOLD_MS;
+            if (decreaseTookEffect) {
+                // Aim a bit below what actually got through
+                double ratio = ackedBytesPerSec > 0 && sentBytesPerSec > 0
+                        ? Math.max(0.25, Math.min(0.7, 0.85 * ackedBytesPerSec / sentBytesPerSec))
+                        : 0.5;
+                backOff(ratio, String.format("network: %.0f ms frame delay, %d KB unacked, %.0f KB/s acked",
+                        delay, (sentBytes - ackedBytes) / 1024, ackedBytesPerSec / 1024));
+                holdUntilAcked = sentBytes;
+                lastDecrease = now;
+            }
+        } else if (cpuBound) {
+            calmSince = now;
+            int affordable = Math.max(minFps(), (int) (1000 / (encodeMs / 0.5)));
+            if (affordable < fps) {
+                setReason(String.format("cpu: encode %.0f ms of %.0f ms frame budget", encodeMs, budgetMs));
+                fps = affordable;
+            }
+        } else if (queueing > Config.STREAM_TARGET_DELAY_MS / 3.0 || encodeMs > budgetMs * 0.4) {
+            calmSince = now; // Not congested, but no headroom either
+        } else if (now - calmSince >= RAISE_AFTER_MS) {
+            calmSince = now;
+            stepUp(String.format("headroom: %.0f ms frame delay, encode %.0f ms", delay, encodeMs));
+        }
+
+        if (changed || now - lastStatus >= STATUS_INTERVAL_MS) {
+            changed = false;
+            lastStatus = now;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Delay of the latest acknowledged frame, or the age of the oldest
+     * unacknowledged frame if that is longer (the admin has gone quiet)
+     */
+    private double currentDelay(long now) {
+        if (!networkFeedback)
+            return 0;
+        double oldest = unacked.isEmpty() ? 0 : now - unacked.peekFirst()[1];
+        return Math.max(lastFrameDelayMs, oldest);
+    }
+
+    // Floors never exceed the current ceilings (thumbnails are below the full-screen floors)
+    private int minFps() {
+        return Math.min(Config.STREAM_MIN_FPS, maxFps);
+    }
+
+    private double minScale() {
+        return Math.min(Config.STREAM_MIN_SCALE, maxScale);
+    }
+
+    private double minQuality() {
+        return Math.min(Config.STREAM_MIN_QUALITY, maxQuality);
+    }
+
+    private void backOff(double ratio, String why) {
+        if (fps > minFps()) {
+            fps = Math.max(minFps(), (int) (fps * ratio));
+        } else if (quality > minQuality() + 1e-9) {
+            quality = Math.max(minQuality(), quality - 0.15);
+        } else if (scale > minScale() + 1e-9) {
+            scale = Math.max(minScale(), scale - 0.1);
+        } else {
+            return; // Already at the floor
+        }
+        setReason(why);
+    }
+
+    private void stepUp(String why) {
+        if (scale < maxScale - 1e-9) {
+            scale = Math.min(maxScale, scale + 0.1);
+        } else if (quality < maxQuality - 1e-9) {
+            quality = Math.min(maxQuality, quality + 0.05);
+        } else if (fps < maxFps) {
+            fps = Math.min(maxFps, fps + Math.max(2, fps / 3));
+        } else {
+            return;
+        }
+        setReason(why);
+    }
+
+    private void setReason(String why) {
+        reason = why;
+        changed = true;
+    }
+
+    public synchronized StreamStatus getStatus() {
+        StreamStatus s = new StreamStatus();
+        s.fps = fps;
+        s.scale = scale;
+        s.quality = quality;
+        s.encodeMs = encodeMs;
+        s.frameDelayMs = Math.max(frameDelayMs, currentDelay(System.currentTimeMillis()));
+        s.ackedKBps = ackedBytesPerSec / 1024;
+        s.unackedKB = (sentBytes - ackedBytes) / 1024;
+        s.rttMs = rttMs;
+        s.jitterMs = jitterMs;
+        s.reason = reason;
+        return s;
+    }
+}
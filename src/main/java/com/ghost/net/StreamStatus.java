@@ -0,0 +1,52 @@
+package com.ghost.net;
+
+/**
+ * A student's current screen stream settings and the measurements behind
+ * them, sent to the admin as a STREAM_STATS packet.
+ */
+public class StreamStatus {
+    public Subscription.Level level; // Null when the admin does not use subscriptions
+    public int fps;
+    public double scale; // Of the admin's display size, or of the monitor without one
+    public int width; // Frame size actually sent
+    public int height;
+    public double quality;
+    public double encodeMs; // Capture + encode time per frame
+    public double frameDelayMs; // Time from sending a frame until the admin acknowledged it
+    public double ackedKBps; // Screen bytes per second the admin confirmed receiving
+    public long unackedKB; // Sent but not yet acknowledged
+    public double rttMs = -1; // Smoothed heartbeat round trip, -1 without heartbeats
+    public double jitterMs;
+    public String reason; // Why the settings last changed
+
+    public static StreamStatus parse(String payload) {
+        if (payload == null || payload.isEmpty())
+            return null;
+        try {
+            return WireFormat.gson.fromJson(payload, StreamStatus.class);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    public String toJson() {
+        return WireFormat.gson.toJson(this);
+    }
+
+    /**
+     * Short form for a student card, e.g. "FULL 12 fps · 1200x675 · q65"
+     */
+    public String summary() {
+        if (level == Subscription.Level.NONE)
+            return "paused";
+        String size = width > 0 ? width + "x" + height : Math.round(scale * 100) + "%";
+        return (level != null ? level + " " : "") + fps + " fps · " + size + " · q" + Math.round(quality * 100);
+    }
+
+    @Override
+    public String toString() {
+        String rtt = rttMs >= 0 ? String.format(", rtt %.1f ± %.1f ms", rttMs, jitterMs) : "";
+        return String.format("%s, encode %.0f ms, delay %.0f ms%s, %.0f KB/s acked, %d KB in flight - %s",
+                summary(), encodeMs, frameDelayMs, rtt, ackedKBps, unackedKB, reason);
+    }
+}
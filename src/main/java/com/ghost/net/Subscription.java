@@ -0,0 +1,66 @@
+package com.ghost.net;
+
+/**
+ * What the admin currently needs from a student's screen stream, sent as a
+ * SUBSCRIBE packet whenever it changes: the level, and the device pixel size
+ * the frames will be displayed at, so students capture at that size instead
+ * of their monitor's.
+ */
+public class Subscription {
+    public enum Level {
+        NONE, // Card scrolled away or the admin window is minimized: send nothing
+        THUMB, // Visible in the thumbnail grid: small and slow
+        FULL // A full-screen view is open: full resolution and rate
+    }
+
+    public Level level = Level.THUMB;
+    public int width; // Display size in pixels; 0 = unknown, capture at the default scale
+    public int height;
+    public boolean preserveRatio; // Viewer fits the screen inside width x height instead of stretching it
+
+    public Subscription() {
+    }
+
+    public Subscription(Level level) {
+        this.level = level;
+    }
+
+    public Subscription(Level level, int width, int height, boolean preserveRatio) {
+        this.level = level;
+        this.width = width;
+        this.height = height;
+        this.preserveRatio = preserveRatio;
+    }
+
+    public boolean hasSize() {
+        return width > 0 && height > 0;
+    }
+
+    public static Subscription parse(String payload) {
+        if (payload == null || payload.isEmpty())
+            return null;
+        try {
+            Subscription s = WireFormat.gson.fromJson(payload, Subscription.class);
+            return s != null && s.level != null ? s : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    public String toJson() {
+        return WireFormat.gson.toJson(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Subscription))
+            return false;
+        Subscription s = (Subscription) o;
+        return level == s.level && width == s.width && height == s.height && preserveRatio == s.preserveRatio;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((level.hashCode() * 31 + width) * 31 + height) * 2 + (preserveRatio ? 1 : 0);
+    }
+}
@@ -0,0 +1,65 @@
+package com.ghost.net;
+
+/**
+ * Messages of the peer-assisted (swarm) file distribution.
+ *
+ * <pre>
+ *   admin   SWARM_OFFER  FileManifest {id, name, size, chunks[sha-256], lengths[], seedPort}
+ *   student SWARM_REPORT {id, have[]}               chunks already on this machine
+ *   admin   SWARM_ASSIGN {id, chunk, peer, host, port}   fetch this chunk from that peer
+ *   student SWARM_REPORT {id, chunk, source[, failed]}   after each fetch
+ *   student SWARM_REPORT {id, done}
+ *   admin   SWARM_DONE   id                       transfer over, stop serving it
+ * </pre>
+ *
+ * Chunk data never travels over the GhostServer connection: students fetch
+ * chunks by hash from each other's ChunkServer, or from the admin's when no
+ * student holds a chunk yet. The admin only decides who fetches what from whom.
+ */
+public final class Swarm {
+
+    private Swarm() {
+    }
+
+    public static class Assign {
+        public long id;
+        public int chunk;
+        public String peer; // Student to fetch from, null for the admin
+        public String host; // Null for the admin: use the address the student connected to
+        public int port;
+
+        public static Assign parse(String payload) {
+            try {
+                return WireFormat.gson.fromJson(payload, Assign.class);
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+
+        public String toJson() {
+            return WireFormat.gson.toJson(this);
+        }
+    }
+
+    public static class Report {
+        public long id;
+        public int[] have; // Answer to an offer: chunks found in the part file or chunk cache
+        public int chunk = -1; // A finished fetch
+        public String source; // Peer the chunk came from, null for the admin
+        public boolean failed; // The fetch did not produce a verified chunk
+        public boolean done;
+        public String error; // Student gave up on the transfer
+
+        public static Report parse(String payload) {
+            try {
+                return WireFormat.gson.fromJson(payload, Report.class);
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+
+        public String toJson() {
+            return WireFormat.gson.toJson(this);
+        }
+    }
+}
@@ -0,0 +1,448 @@
+package com.ghost.net;
+
+import com.ghost.util.Config;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admin side of swarm distribution: seeds chunks from the original file and
+ * tells each student which chunk to fetch from which peer.
+ *
+ * Assignments go rarest chunk first (counting fetches in flight), from the
+ * least busy source that has the chunk. The admin's seed is one source among
+ * many, so early on it hands out distinct chunks and the students spread them
+ * among themselves; the admin NIC carries each chunk about once instead of once
+ * per student. Students whose chunk server cannot be reached (firewall) keep
+ * downloading but are no longer used as sources; a student that cannot fetch
+ * from the seed either gives up the transfer. A transfer ends once every
+ * student has it, or when no student reported on it for
+ * SWARM_TRANSFER_EXPIRY_MS (they never came back).
+ *
+ * Reports arrive on connection reader/reactor threads; all state is guarded
+ * by this object's monitor and nothing here blocks on I/O.
+ */
+class SwarmCoordinator {
+    static final String ADMIN = "ADMIN"; // Source name of the seed
+    private static final int UNREACHABLE_AFTER = 3; // Consecutive failed fetches from a peer
+    private static final int SEED_FAILURES = 5; // Consecutive failed fetches from the seed before a student gives up
+
+    private final GhostServer server;
+    private final Map<Long, Transfer> transfers = new LinkedHashMap<>();
+    private final Map<String, List<Location>> seedIndex = new HashMap<>(); // Hash -> every running transfer with it
+    private final Map<String, Integer> uploads = new HashMap<>(); // Source -> fetches in flight
+    private final Map<String, Integer> failures = new HashMap<>(); // Source -> consecutive failed fetches
+    private ChunkServer seed;
+    private ScheduledExecutorService expiry;
+
+    private static class Location {
+        final Transfer transfer;
+        final int index;
+
+        Location(Transfer transfer, int index) {
+            this.transfer = transfer;
+            this.index = index;
+        }
+    }
+
+    private static class Transfer {
+        final FileManifest manifest;
+        final File file;
+        final FileChannel channel;
+        final GhostServer.FileProgressListener listener;
+        final int chunkCount;
+        final int[] holders; // Students holding each chunk
+        final int[] inFlight; // Fetches of each chunk in progress
+        final Map<String, Peer> peers = new LinkedHashMap<>(); // Every target, done or not
+        long lastActivity = System.currentTimeMillis(); // Last offer or report
+
+        Transfer(FileManifest manifest, File file, GhostServer.FileProgressListener listener) throws IOException {
+            this.manifest = manifest;
+            this.file = file;
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            this.listener = listener;
+            this.chunkCount = manifest.chunkCount();
+            this.holders = new int[chunkCount];
+            this.inFlight = new int[chunkCount];
+        }
+    }
+
+    private static class Peer {
+        final BitSet have = new BitSet();
+        final BitSet assigned = new BitSet();
+        final Map<Integer, String> sources = new HashMap<>(); // Assigned chunk -> source
+        boolean joined; // Answered the current offer
+        boolean done;
+        int seedFailures; // Consecutive failed fetches from the seed
+    }
+
+    SwarmCoordinator(GhostServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Offers the file to the given students and seeds it
+     */
+    void start(File file, FileManifest manifest, List<String> clientNames, GhostServer.FileProgressListener listener)
+            throws IOException {
+        synchronized (this) {
+            startSeed();
+            manifest.seedPort = seed.getPort();
+            Transfer t = transfers.get(manifest.id);
+            if (t == null) {
+                t = new Transfer(manifest, file, listener);
+                transfers.put(manifest.id, t);
+                for (int i = 0; i < t.chunkCount; i++) {
+                    seedIndex.computeIfAbsent(manifest.chunks[i], k -> new ArrayList<>()).add(new Location(t, i));
+                }
+            }
+            t.lastActivity = System.currentTimeMillis();
+            for (String name : clientNames) {
+                if (!t.peers.containsKey(name)) {
+                    t.peers.put(name, new Peer());
+                    offer(name, t);
+                }
+            }
+        }
+    }
+
+    private void startSeed() throws IOException {
+        if (seed == null) {
+            seed = new ChunkServer(Config.SWARM_PORT, Config.SWARM_UPLOAD_KBPS * 1024L, this::readSeedChunk);
+            System.out.println("Swarm seed serving chunks on port " + seed.getPort());
+            expiry = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "SwarmCoordinator");
+                t.setDaemon(true);
+                return t;
+            });
+            expiry.scheduleWithFixedDelay(this::expireIdle, 1, 1, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * Runs on the seed's connection threads
+     */
+    private byte[] readSeedChunk(String hash) throws IOException {
+        Location loc;
+        synchronized (this) {
+            List<Location> locs = seedIndex.get(hash);
+            loc = locs != null ? locs.get(0) : null;
+        }
+        if (loc == null)
+            return null;
+        byte[] chunk = new byte[loc.transfer.manifest.length(loc.index)];
+        PartFile.readFully(loc.transfer.channel, ByteBuffer.wrap(chunk), loc.transfer.manifest.offset(loc.index));
+        return chunk;
+    }
+
+    long getSeedBytesServed() {
+        ChunkServer s = seed;
+        return s != null ? s.getBytesServed() : 0;
+    }
+
+    private void offer(String name, Transfer t) {
+        server.sendToClient(name, new CommandPacket(CommandPacket.Type.SWARM_OFFER, ADMIN, t.manifest.toJson()));
+    }
+
+    /**
+     * Re-offers running transfers after a reconnect; the student answers with
+     * the chunks it kept, and finished students become sources again
+     */
+    synchronized void clientReady(String name) {
+        failures.remove(name); // Fetches that failed because it went away don't count
+        for (Transfer t : transfers.values()) {
+            Peer p = t.peers.get(name);
+            if (p != null) {
+                t.lastActivity = System.currentTimeMillis();
+                offer(name, t);
+            }
+        }
+    }
+
+    /**
+     * The student's chunk server is gone with it; its own fetches are void
+     */
+    synchronized void clientGone(String name) {
+        for (Transfer t : transfers.values()) {
+            Peer p = t.peers.get(name);
+            if (p != null) {
+                forget(t, p);
+            }
+        }
+        uploads.remove(name);
+        schedule(); // Its fetches went back into the pool
+    }
+
+    /**
+     * Removes a student's chunks and fetches from the bookkeeping
+     */
+    private void forget(Transfer t, Peer p) {
+        for (int i = p.have.nextSetBit(0); i >= 0; i = p.have.nextSetBit(i + 1)) {
+            t.holders[i]--;
+        }
+        p.have.clear();
+        for (Map.Entry<Integer, String> e : p.sources.entrySet()) {
+            t.inFlight[e.getKey()]--;
+            release(e.getValue(), false);
+        }
+        p.sources.clear();
+        p.assigned.clear();
+        p.joined = false;
+    }
+
+    synchronized void reportReceived(String name, Swarm.Report r) {
+        if (r == null)
+            return;
+        Transfer t = transfers.get(r.id);
+        Peer p = t != null ? t.peers.get(name) : null;
+        if (p == null)
+            return;
+        t.lastActivity = System.currentTimeMillis();
+
+        if (r.error != null) {
+            drop(t, name, p, r.error);
+            return;
+        }
+        if (r.have != null) {
+            for (int i = p.have.nextSetBit(0); i >= 0; i = p.have.nextSetBit(i + 1)) {
+                t.holders[i]--;
+            }
+            p.have.clear();
+            for (int i : r.have) {
+                if (i >= 0 && i < t.chunkCount && !p.have.get(i)) {
+                    p.have.set(i);
+                    t.holders[i]++;
+                }
+            }
+            p.joined = true;
+        }
+        if (r.chunk >= 0 && p.assigned.get(r.chunk)) {
+            p.assigned.clear(r.chunk);
+            t.inFlight[r.chunk]--;
+            String source = p.sources.remove(r.chunk);
+            release(source, r.failed);
+            if (source == null) {
+                p.seedFailures = r.failed ? p.seedFailures + 1 : 0;
+                if (p.seedFailures >= SEED_FAILURES) {
+                    drop(t, name, p, "cannot fetch from the admin (" + p.seedFailures + " failed attempts)");
+                    return;
+                }
+            }
+            if (r.failed) {
+                Peer sourcePeer = source != null ? t.peers.get(source) : null;
+                if (sourcePeer != null && sourcePeer.have.get(r.chunk)) {
+                    sourcePeer.have.clear(r.chunk); // Don't send anyone there for it again
+                    t.holders[r.chunk]--;
+                }
+            } else if (!p.have.get(r.chunk)) {
+                p.have.set(r.chunk);
+                t.holders[r.chunk]++;
+            }
+        }
+        if (r.done && !p.done) {
+            p.done = true;
+            t.listener.onComplete(name, t.manifest.name);
+            finishIfIdle(t);
+        } else if (r.have != null || r.chunk >= 0) {
+            long bytes = 0;
+            for (int i = p.have.nextSetBit(0); i >= 0; i = p.have.nextSetBit(i + 1)) {
+                bytes += t.manifest.length(i);
+            }
+            t.listener.onProgress(name, t.manifest.name, bytes, t.manifest.size);
+        }
+        schedule();
+    }
+
+    /**
+     * Gives up the transfer for one student
+     */
+    private void drop(Transfer t, String name, Peer p, String error) {
+        forget(t, p);
+        t.peers.remove(name);
+        server.sendToClient(name, new CommandPacket(CommandPacket.Type.SWARM_DONE, ADMIN,
+                Long.toString(t.manifest.id)));
+        t.listener.onFailed(name, t.manifest.name, error);
+        finishIfIdle(t);
+        schedule();
+    }
+
+    private void release(String source, boolean failed) {
+        String key = source != null ? source : ADMIN;
+        uploads.computeIfPresent(key, (k, n) -> n > 1 ? n - 1 : null);
+        if (source == null)
+            return;
+        if (failed) {
+            failures.merge(source, 1, Integer::sum);
+        } else {
+            failures.remove(source);
+        }
+    }
+
+    /**
+     * Hands out fetches until every joined student has SWARM_PARALLEL in
+     * flight or no source with a needed chunk has a free upload slot
+     */
+    private void schedule() {
+        for (Transfer t : transfers.values()) {
+            for (Map.Entry<String, Peer> e : t.peers.entrySet()) {
+                Peer p = e.getValue();
+                if (!p.joined || p.done)
+                    continue;
+                while (p.assigned.cardinality() < Config.SWARM_PARALLEL && assignOne(t, e.getKey(), p)) {
+                    // Keep filling
+                }
+            }
+        }
+    }
+
+    private boolean assignOne(Transfer t, String name, Peer p) {
+        // Least busy sources first; the admin only when no student can serve
+        List<String> sources = new ArrayList<>();
+        for (Map.Entry<String, Peer> e : t.peers.entrySet()) {
+            String source = e.getKey();
+            if (!source.equals(name) && !e.getValue().have.isEmpty()
+                    && uploads.getOrDefault(source, 0) < Config.SWARM_PEER_UPLOADS
+                    && failures.getOrDefault(source, 0) < UNREACHABLE_AFTER
+                    && server.getSwarmEndpoint(source) != null) {
+                sources.add(source);
+            }
+        }
+        sources.sort((a, b) -> uploads.getOrDefault(a, 0) - uploads.getOrDefault(b, 0));
+        if (uploads.getOrDefault(ADMIN, 0) < Config.SWARM_SEED_UPLOADS) {
+            sources.add(ADMIN);
+        }
+
+        for (String source : sources) {
+            BitSet candidates;
+            if (ADMIN.equals(source)) {
+                candidates = new BitSet(t.chunkCount);
+                candidates.set(0, t.chunkCount);
+            } else {
+                candidates = (BitSet) t.peers.get(source).have.clone();
+            }
+            candidates.andNot(p.have);
+            candidates.andNot(p.assigned);
+            int chunk = rarest(t, candidates);
+            if (chunk < 0)
+                continue;
+            assign(t, name, p, chunk, ADMIN.equals(source) ? null : source);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Rarest of the candidates, scanning a bounded number from a random start
+     * so students working the same rarity level pick different chunks
+     */
+    private static int rarest(Transfer t, BitSet candidates) {
+        if (candidates.isEmpty())
+            return -1;
+        int i = candidates.nextSetBit(ThreadLocalRandom.current().nextInt(t.chunkCount));
+        if (i < 0)
+            i = candidates.nextSetBit(0);
+        int first = i;
+        int best = -1;
+        int bestCount = Integer.MAX_VALUE;
+        for (int scanned = 0; scanned < 64; scanned++) {
+            int count = t.holders[i] + t.inFlight[i];
+            if (count < bestCount) {
+                best = i;
+                bestCount = count;
+            }
+            i = candidates.nextSetBit(i + 1);
+            if (i < 0)
+                i = candidates.nextSetBit(0);
+            if (i == first)
+                break;
+        }
+        return best;
+    }
+
+    private void assign(Transfer t, String name, Peer p, int chunk, String source) {
+        Swarm.Assign a = new Swarm.Assign();
+        a.id = t.manifest.id;
+        a.chunk = chunk;
+        if (source != null) {
+            InetSocketAddress endpoint = server.getSwarmEndpoint(source);
+            a.peer = source;
+            a.host = endpoint.getHostString();
+            a.port = endpoint.getPort();
+        }
+        p.assigned.set(chunk);
+        p.sources.put(chunk, source);
+        t.inFlight[chunk]++;
+        uploads.merge(source != null ? source : ADMIN, 1, Integer::sum);
+        server.sendToClient(name, new CommandPacket(CommandPacket.Type.SWARM_ASSIGN, ADMIN, a.toJson()));
+    }
+
+    /**
+     * Drops a transfer once every remaining student has it. Students that are
+     * offline keep it alive and resume when they reconnect.
+     */
+    private void finishIfIdle(Transfer t) {
+        for (Peer p : t.peers.values()) {
+            if (!p.done)
+                return;
+        }
+        end(t);
+    }
+
+    /**
+     * Ends transfers nobody reported on for SWARM_TRANSFER_EXPIRY_MS, failing
+     * them for the students that never finished. Runs on the expiry thread.
+     */
+    private synchronized void expireIdle() {
+        long now = System.currentTimeMillis();
+        for (Transfer t : new ArrayList<>(transfers.values())) {
+            if (now - t.lastActivity < Config.SWARM_TRANSFER_EXPIRY_MS)
+                continue;
+            for (Map.Entry<String, Peer> e : t.peers.entrySet()) {
+                Peer p = e.getValue();
+                if (!p.done) {
+                    forget(t, p);
+                    t.listener.onFailed(e.getKey(), t.manifest.name, "expired, the student did not come back");
+                }
+            }
+            end(t);
+        }
+        schedule();
+    }
+
+    /**
+     * Forgets a transfer: its chunks stay served from other running transfers
+     * that share them, and its students stop serving it
+     */
+    private void end(Transfer t) {
+        transfers.remove(t.manifest.id);
+        for (int i = 0; i < t.chunkCount; i++) {
+            List<Location> locs = seedIndex.get(t.manifest.chunks[i]);
+            if (locs != null) {
+                locs.removeIf(loc -> loc.transfer == t);
+                if (locs.isEmpty())
+                    seedIndex.remove(t.manifest.chunks[i]);
+            }
+        }
+        for (String name : t.peers.keySet()) {
+            server.sendToClient(name, new CommandPacket(CommandPacket.Type.SWARM_DONE, ADMIN,
+                    Long.toString(t.manifest.id)));
+        }
+        try {
+            t.channel.close();
+        } catch (IOException e) {
+        }
+    }
+}
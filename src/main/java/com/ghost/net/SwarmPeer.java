@@ -0,0 +1,296 @@
+package com.ghost.net;
+
+import com.ghost.util.Config;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Student side of swarm distribution: fetches the chunks the admin assigns
+ * from other students or the admin's seed, verifies each against the
+ * manifest's SHA-256, writes it in place, and serves every verified chunk to
+ * other students from its own ChunkServer - also after the file is complete.
+ *
+ * Fetches run on a small pool, never on the connection's reader thread.
+ * Public so simulated students can run many peers in one process.
+ */
+public class SwarmPeer {
+    private static final int CONNECT_TIMEOUT_MS = 3000;
+    private static final int READ_TIMEOUT_MS = 15000;
+
+    /**
+     * How the peer talks to the admin
+     */
+    public interface Events {
+        void send(CommandPacket.Type type, String payload);
+
+        void notify(String message);
+    }
+
+    private final Events events;
+    private final ChunkCache cache; // May be null: no reuse of earlier files
+    private final ChunkServer chunkServer;
+    private final ExecutorService workers = Executors.newFixedThreadPool(Config.SWARM_PARALLEL + 1, r -> {
+        Thread t = new Thread(r, "SwarmPeer");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Map<Long, Download> downloads = new ConcurrentHashMap<>();
+    private final Map<String, Location> index = new ConcurrentHashMap<>(); // Hash -> verified chunk on disk
+    private volatile String folder = System.getProperty("user.home") + File.separator + "Downloads";
+
+    private static class Location {
+        final PartFile part;
+        final int chunk;
+
+        Location(PartFile part, int chunk) {
+            this.part = part;
+            this.chunk = chunk;
+        }
+    }
+
+    /** Guarded by its own monitor */
+    private static class Download {
+        final PartFile part;
+        boolean complete;
+        int lastQuarter;
+
+        Download(PartFile part) {
+            this.part = part;
+        }
+    }
+
+    /**
+     * Starts serving chunks on the preferred port, or any free one
+     */
+    public SwarmPeer(int preferredPort, Events events) throws IOException {
+        this(preferredPort, null, events);
+    }
+
+    SwarmPeer(int preferredPort, ChunkCache cache, Events events) throws IOException {
+        this.events = events;
+        this.cache = cache;
+        this.chunkServer = new ChunkServer(preferredPort, Config.SWARM_UPLOAD_KBPS * 1024L, this::readChunk);
+    }
+
+    public int getPort() {
+        return chunkServer.getPort();
+    }
+
+    public long getBytesServed() {
+        return chunkServer.getBytesServed();
+    }
+
+    public void setFolder(String folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * Opens (or reopens after a reconnect) the part file, collects the chunks
+     * already on this machine and tells the admin
+     */
+    public void offerReceived(FileManifest manifest) {
+        if (manifest != null) {
+            workers.execute(() -> open(manifest));
+        }
+    }
+
+    private void open(FileManifest manifest) {
+        Download existing = downloads.get(manifest.id);
+        if (existing != null && existing.part.isOpen()) {
+            synchronized (existing) {
+                report(manifest.id, existing.part.have(), existing.complete);
+            }
+            return;
+        }
+
+        PartFile part;
+        try {
+            part = PartFile.open(Paths.get(folder), manifest, cache);
+        } catch (IOException e) {
+            fail(manifest, e);
+            return;
+        }
+        Download d = new Download(part);
+        downloads.put(manifest.id, d);
+        for (int i : part.have()) {
+            index.putIfAbsent(manifest.chunks[i], new Location(part, i));
+        }
+        if (part.getResumedBytes() > 0 || part.getCachedBytes() > 0) {
+            System.out.println(manifest.name + ": " + part.getResumedBytes() + " bytes resumed, "
+                    + part.getCachedBytes() + " bytes from earlier files");
+        }
+        synchronized (d) {
+            if (part.isComplete()) {
+                complete(d);
+            } else {
+                report(manifest.id, part.have(), false);
+            }
+        }
+    }
+
+    private void report(long id, int[] have, boolean done) {
+        Swarm.Report r = new Swarm.Report();
+        r.id = id;
+        r.have = have;
+        r.done = done;
+        events.send(CommandPacket.Type.SWARM_REPORT, r.toJson());
+    }
+
+    /**
+     * @param adminHost the admin's address, for chunks fetched from its seed
+     */
+    public void assignReceived(Swarm.Assign assign, String adminHost) {
+        if (assign == null)
+            return;
+        Download d = downloads.get(assign.id);
+        if (d == null || assign.chunk < 0 || assign.chunk >= d.part.manifest.chunkCount())
+            return;
+        workers.execute(() -> fetch(d, assign, adminHost));
+    }
+
+    private void fetch(Download d, Swarm.Assign assign, String adminHost) {
+        FileManifest m = d.part.manifest;
+        Swarm.Report r = new Swarm.Report();
+        r.id = m.id;
+        r.chunk = assign.chunk;
+        r.source = assign.peer;
+        try {
+            String host = assign.host != null ? assign.host : adminHost;
+            int port = assign.host != null ? assign.port : m.seedPort;
+            byte[] chunk = download(host, port, m.chunks[assign.chunk]);
+            r.failed = chunk == null || !d.part.write(assign.chunk, chunk, 0, chunk.length);
+            if (!r.failed) {
+                index.putIfAbsent(m.chunks[assign.chunk], new Location(d.part, assign.chunk));
+            }
+        } catch (IOException | RuntimeException e) {
+            r.failed = true; // Reported either way, so the coordinator frees the chunk
+        }
+        events.send(CommandPacket.Type.SWARM_REPORT, r.toJson());
+        if (!r.failed) {
+            progressed(d);
+        }
+    }
+
+    private static byte[] download(String host, int port, String hash) throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+            socket.setSoTimeout(READ_TIMEOUT_MS);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeUTF(hash);
+            out.flush();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            int length = in.readInt();
+            if (length < 0 || length > Config.CHUNK_MAX_SIZE)
+                return null;
+            byte[] chunk = new byte[length];
+            in.readFully(chunk);
+            return chunk;
+        }
+    }
+
+    private void progressed(Download d) {
+        synchronized (d) {
+            if (d.complete || !d.part.isOpen())
+                return;
+            if (d.part.isComplete()) {
+                complete(d);
+                return;
+            }
+            int count = d.part.haveCount();
+            int total = d.part.manifest.chunkCount();
+            int quarter = count * 4 / total;
+            if (quarter != d.lastQuarter) {
+                d.lastQuarter = quarter;
+                events.notify("📥 Receiving " + d.part.manifest.name + ": " + (count * 100 / total) + "%");
+            }
+        }
+    }
+
+    /**
+     * Moves the finished file into place and keeps serving it from there.
+     * Caller holds the download's monitor.
+     */
+    private void complete(Download d) {
+        FileManifest m = d.part.manifest;
+        try {
+            Path target = d.part.finish();
+            d.complete = true;
+            if (cache != null)
+                cache.add(target, m);
+            report(m.id, d.part.have(), true);
+            events.notify("📁 File received: " + target.getFileName() + " (saved to " + target.getParent() + ")");
+        } catch (IOException e) {
+            fail(m, e);
+        }
+    }
+
+    private void fail(FileManifest manifest, IOException e) {
+        System.err.println("Swarm transfer failed for " + manifest.name + ": " + e.getMessage());
+        Swarm.Report r = new Swarm.Report();
+        r.id = manifest.id;
+        r.error = e.getMessage() != null ? e.getMessage() : e.toString();
+        events.send(CommandPacket.Type.SWARM_REPORT, r.toJson());
+        events.notify("❌ Failed to save " + manifest.name + ": " + r.error);
+    }
+
+    /**
+     * Runs on the chunk server's connection threads
+     */
+    private byte[] readChunk(String hash) throws IOException {
+        Location loc = index.get(hash);
+        return loc != null ? loc.part.read(loc.chunk) : null;
+    }
+
+    /**
+     * The admin dropped the transfer: nobody will fetch from it any more, so
+     * its file is closed and forgotten (an unfinished one resumes from disk
+     * if it is offered again)
+     */
+    public void transferEnded(long id) {
+        Download d = downloads.remove(id);
+        if (d == null)
+            return;
+        synchronized (d) {
+            d.part.close();
+        }
+        index.values().removeIf(loc -> loc.part == d.part);
+    }
+
+    /**
+     * Connection to the admin lost: the admin forgets our fetches and chunks,
+     * so unfinished downloads are reopened from disk on the next offer.
+     * Finished files stay open for serving.
+     */
+    public void disconnected() {
+        for (Download d : downloads.values()) {
+            synchronized (d) {
+                if (d.complete)
+                    continue;
+                d.part.close();
+            }
+            downloads.remove(d.part.manifest.id);
+            index.values().removeIf(loc -> loc.part == d.part);
+        }
+    }
+
+    public void close() {
+        disconnected();
+        for (Download d : downloads.values()) {
+            d.part.close();
+        }
+        chunkServer.close();
+        workers.shutdownNow();
+    }
+}
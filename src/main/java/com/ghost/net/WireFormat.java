@@ -0,0 +1,134 @@
+package com.ghost.net;
+
+import com.google.gson.Gson;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encoding for the two wire protocols spoken between GhostServer and GhostClient.
+ *
+ * JSON mode is the original protocol: one Gson-encoded CommandPacket per line.
+ *
+ * BINARY mode is negotiated in the CONNECT handshake. Every packet becomes a
+ * length-prefixed frame:
+ *
+ * <pre>
+ *   [1]  frame type   (CommandPacket.Type ordinal for media, FRAME_JSON otherwise)
+ *   [2]  sender length
+ *   [n]  sender (UTF-8)
+ *   [8]  timestamp
+ *   [4]  body length
+ *   [..] body         (raw JPEG bytes for media, UTF-8 JSON packet otherwise)
+ * </pre>
+ */
+public final class WireFormat {
+    public enum Mode {
+        JSON, BINARY
+    }
+
+    /** Frame type for packets whose body is a JSON-encoded CommandPacket */
+    public static final byte FRAME_JSON = (byte) 0x7F;
+
+    /** Upper bound for a single line or frame; anything larger is treated as a corrupt stream */
+    public static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+    /** Fixed part of the binary header: type + sender length + timestamp + body length */
+    static final int HEADER_FIXED_SIZE = 1 + 2 + 8 + 4;
+
+    static final Gson gson = new Gson();
+
+    private WireFormat() {
+    }
+
+    /**
+     * Screen frames: superseded by the next frame, so send queues may drop them
+     */
+    public static boolean isMedia(CommandPacket.Type type) {
+        return type == CommandPacket.Type.SCREEN_DATA || type == CommandPacket.Type.ADMIN_SCREEN;
+    }
+
+    /**
+     * Packet types whose bytes travel raw in binary mode instead of as JSON
+     */
+    public static boolean hasRawBody(CommandPacket.Type type) {
+        return isMedia(type) || type == CommandPacket.Type.MCAST_REPAIR || type == CommandPacket.Type.FILE_CHUNK;
+    }
+
+    public static byte[] encode(CommandPacket packet, Mode mode) {
+        return mode == Mode.BINARY ? encodeBinary(packet) : encodeJson(packet);
+    }
+
+    /**
+     * One JSON line, newline included
+     */
+    public static byte[] encodeJson(CommandPacket packet) {
+        String line = gson.toJson(packet.asTextPacket()) + "\n";
+        return line.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static byte[] encodeBinary(CommandPacket packet) {
+        return encodeBinary(packet, false).array();
+    }
+
+    /**
+     * Encodes a binary frame straight into a new heap or direct buffer, flipped
+     * and ready to write. Media bodies are copied exactly once, into the target.
+     */
+    static ByteBuffer encodeBinary(CommandPacket packet, boolean direct) {
+        byte[] sender = packet.getSender() != null
+                ? packet.getSender().getBytes(StandardCharsets.UTF_8)
+                : new byte[0];
+        byte type;
+        byte[] body;
+        if (hasRawBody(packet.getType()) && packet.hasData()) {
+            type = (byte) packet.getType().ordinal();
+            body = packet.getData();
+        } else {
+            type = FRAME_JSON;
+            body = gson.toJson(packet.asTextPacket()).getBytes(StandardCharsets.UTF_8);
+        }
+
+        int size = HEADER_FIXED_SIZE + sender.length + body.length;
+        ByteBuffer buf = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        buf.put(type);
+        buf.putShort((short) sender.length);
+        buf.put(sender);
+        buf.putLong(packet.getTimestamp());
+        buf.putInt(body.length);
+        buf.put(body);
+        buf.flip();
+        return buf;
+    }
+
+    static CommandPacket decodeJson(byte[] bytes, int offset, int length) {
+        String json = new String(bytes, offset, length, StandardCharsets.UTF_8).trim();
+        if (json.isEmpty())
+            return null;
+        return gson.fromJson(json, CommandPacket.class);
+    }
+
+    static CommandPacket decodeFrame(byte type, String sender, long timestamp, byte[] body) {
+        if (type == FRAME_JSON) {
+            return decodeJson(body, 0, body.length);
+        }
+        CommandPacket.Type[] types = CommandPacket.Type.values();
+        if (type < 0 || type >= types.length) {
+            return null;
+        }
+        return new CommandPacket(types[type], sender, body, timestamp);
+    }
+
+    /**
+     * Growable byte sink that exposes its backing array without copying
+     */
+    static class ByteSink extends ByteArrayOutputStream {
+        ByteSink(int size) {
+            super(size);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+}
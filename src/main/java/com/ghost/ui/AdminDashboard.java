@@ -2,7 +2,13 @@ package com.ghost.ui;
 
 import com.ghost.database.User;
 import com.ghost.net.CommandPacket;
+import com.ghost.net.CommandStats;
+import com.ghost.net.FanOut;
 import com.ghost.net.GhostServer;
+import com.ghost.net.Shell;
+import com.ghost.net.StreamStatus;
+import com.ghost.net.Subscription;
+import com.ghost.util.Config;
 import com.ghost.util.ScreenCapture;
 import javafx.application.Platform;
 import javafx.geometry.Insets;
@@ -11,12 +17,12 @@ import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
+import javafx.scene.image.WritableImage;
 import javafx.scene.layout.*;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Circle;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.util.Base64;
 import java.util.HashMap;
@@ -24,12 +30,37 @@ import java.util.Map;
 
 public class AdminDashboard {
     private static GhostServer server;
-    private static FlowPane thumbnailGrid;
+    private static StudentWall wall;
     private static VBox chatBox;
     private static TextArea chatArea;
+    private static ListView<CommandStats> commandList; // Newest first
+    private static String lastShellSource; // "client#id" of the output last appended, FX thread only
     private static boolean internetKilled = false;
-    private static Map<String, VBox> studentCards = new HashMap<>();
-    private static Map<String, ImageView> studentImages = new HashMap<>();
+    private static Map<String, java.util.List<ImageView>> fullScreenViews = new HashMap<>(); // Open per student
+    private static final int THUMB_WIDTH = 280;
+    private static final int THUMB_HEIGHT = 180;
+    private static final FrameBus frameBus = new FrameBus(); // Frames for the full-screen windows
+    private static final ScreenDecoder screenDecoder = new ScreenDecoder(THUMB_WIDTH, THUMB_HEIGHT,
+            new ScreenDecoder.Events() {
+                @Override
+                public void frameReady(String clientName, WritableImage canvas, boolean replaced) {
+                    if (!wall.contains(clientName)) {
+                        wall.add(clientName, canvas);
+                        refreshSubscriptions();
+                    } else if (replaced) {
+                        wall.setImage(clientName, canvas);
+                    }
+                    frameBus.publish(clientName, canvas);
+                }
+
+                @Override
+                public void keyframeNeeded(String clientName) {
+                    server.requestKeyframe(clientName);
+                }
+            });
+    private static final javafx.animation.PauseTransition resizeSettle = new javafx.animation.PauseTransition(
+            javafx.util.Duration.millis(300));
+    private static Stage adminStage;
 
     public static void show(Stage stage, User user) {
         if (server == null) {
@@ -37,7 +68,17 @@ public class AdminDashboard {
             server.setScreenListener(new GhostServer.ScreenUpdateListener() {
                 @Override
                 public void onScreenUpdate(String clientName, String base64Image) {
-                    Platform.runLater(() -> updateStudentScreen(clientName, base64Image));
+                    onScreenFrame(clientName, Base64.getDecoder().decode(base64Image));
+                }
+
+                @Override
+                public void onScreenFrame(String clientName, byte[] jpeg) {
+                    screenDecoder.submit(clientName, jpeg); // Decoded off the FX thread
+                }
+
+                @Override
+                public void onStreamStatus(String clientName, StreamStatus status) {
+                    Platform.runLater(() -> updateStreamStatus(clientName, status));
                 }
 
                 @Override
@@ -50,6 +91,26 @@ public class AdminDashboard {
                     });
                 }
             });
+            server.setShellListener(new GhostServer.ShellListener() {
+                @Override
+                public void onShellOutput(String clientName, long commandId, String text) {
+                    Platform.runLater(() -> appendShellOutput(clientName, commandId, text));
+                }
+
+                @Override
+                public void onShellExit(String clientName, Shell.Exit exit) {
+                    String status = exit.error != null ? "failed to start: " + exit.error
+                            : "exit code " + exit.code + (exit.truncated ? ", output truncated at "
+                                    + exit.lines + " lines / " + exit.bytes + " bytes" : "");
+                    Platform.runLater(() -> {
+                        if (chatArea != null) {
+                            chatArea.appendText("\n--- " + clientName + " #" + exit.id + ": " + status + " ---\n");
+                            lastShellSource = null;
+                        }
+                    });
+                }
+            });
+            server.setCommandListener(stats -> Platform.runLater(() -> showCommandStats(stats)));
             server.setStatusListener(new GhostServer.ClientStatusListener() {
                 @Override
                 public void onClientConnected(String clientName) {
@@ -95,11 +156,11 @@ public class AdminDashboard {
         // Control Sections
         VBox controlSection = createControlSection("POWER CONTROLS",
                 createStyledButton("🔒 LOCK ALL", "#e74c3c",
-                        () -> server.broadcast(new CommandPacket(CommandPacket.Type.LOCK, "ADMIN", "{}"))),
+                        () -> server.sendCommand(null, new CommandPacket(CommandPacket.Type.LOCK, "ADMIN", "{}"))),
                 createStyledButton("🔓 UNLOCK ALL", "#2ecc71",
-                        () -> server.broadcast(new CommandPacket(CommandPacket.Type.UNLOCK, "ADMIN", "{}"))),
+                        () -> server.sendCommand(null, new CommandPacket(CommandPacket.Type.UNLOCK, "ADMIN", "{}"))),
                 createStyledButton("⏻ SHUTDOWN ALL", "#9b59b6",
-                        () -> server.broadcast(new CommandPacket(CommandPacket.Type.SHUTDOWN, "ADMIN", "{}"))));
+                        () -> server.sendCommand(null, new CommandPacket(CommandPacket.Type.SHUTDOWN, "ADMIN", "{}"))));
 
         VBox networkSection = createControlSection("NETWORK",
                 createNetworkToggle());
@@ -109,11 +170,11 @@ public class AdminDashboard {
 
         VBox extraSection = createControlSection("EXTRAS",
                 createStyledButton("🔇 MUTE ALL", "#f39c12",
-                        () -> server.broadcast(new CommandPacket(CommandPacket.Type.MUTE, "ADMIN", "{}"))),
+                        () -> server.sendCommand(null, new CommandPacket(CommandPacket.Type.MUTE, "ADMIN", "{}"))),
                 createStyledButton("🖐️ BLOCK INPUT", "#e67e22",
-                        () -> server.broadcast(new CommandPacket(CommandPacket.Type.BLOCK_INPUT, "ADMIN", "BLOCK"))),
+                        () -> server.sendCommand(null, new CommandPacket(CommandPacket.Type.BLOCK_INPUT, "ADMIN", "BLOCK"))),
                 createStyledButton("✋ UNBLOCK INPUT", "#27ae60",
-                        () -> server.broadcast(new CommandPacket(CommandPacket.Type.BLOCK_INPUT, "ADMIN", "UNBLOCK"))));
+                        () -> server.sendCommand(null, new CommandPacket(CommandPacket.Type.BLOCK_INPUT, "ADMIN", "UNBLOCK"))));
 
         VBox fileSection = createControlSection("FILE SHARING",
                 createStyledButton("📁 SEND FILES", "#3498db", () -> sendFilesToStudents(stage)));
@@ -137,18 +198,15 @@ public class AdminDashboard {
         Label gridTitle = new Label("CONNECTED STUDENTS");
         gridTitle.setStyle("-fx-font-size: 16px; -fx-text-fill: #888; -fx-font-weight: bold;");
 
-        thumbnailGrid = new FlowPane(20, 20);
-        thumbnailGrid.setPadding(new Insets(10));
-        thumbnailGrid.setStyle("-fx-background-color: transparent;");
-
-        ScrollPane scrollPane = new ScrollPane(thumbnailGrid);
-        scrollPane.setFitToWidth(true);
-        scrollPane.setStyle("-fx-background: transparent; -fx-background-color: transparent;");
-        VBox.setVgrow(scrollPane, Priority.ALWAYS);
+        // Only the rows in view have cards; students only stream, and are only
+        // decoded, while their card is on screen
+        wall = new StudentWall(THUMB_WIDTH + 20, AdminDashboard::createStudentCard,
+                visible -> refreshSubscriptions());
+        VBox.setVgrow(wall.getView(), Priority.ALWAYS);
 
-        // Cards added dynamically when students connect
+        // Students are added when their first frame arrives
 
-        centerContainer.getChildren().addAll(gridTitle, scrollPane);
+        centerContainer.getChildren().addAll(gridTitle, wall.getView());
         root.setCenter(centerContainer);
 
         // ========== RIGHT - CHAT PANEL ==========
@@ -184,7 +242,36 @@ public class AdminDashboard {
         });
         chatInput.getChildren().addAll(msgField, sendBtn);
 
-        rightPanel.getChildren().addAll(chatTitle, chatArea, chatInput);
+        Label commandTitle = new Label("📊 COMMANDS");
+        commandTitle.setStyle("-fx-font-size: 14px; -fx-text-fill: #00ffaa; -fx-font-weight: bold;");
+
+        commandList = new ListView<>();
+        commandList.setPrefHeight(200);
+        commandList.setStyle("-fx-control-inner-background: #1a1a2e; -fx-font-family: 'Consolas'; -fx-font-size: 11px;");
+        commandList.setCellFactory(list -> new ListCell<CommandStats>() {
+            @Override
+            protected void updateItem(CommandStats stats, boolean empty) {
+                super.updateItem(stats, empty);
+                if (empty || stats == null) {
+                    setText(null);
+                    setTooltip(null);
+                    return;
+                }
+                setText("#" + stats.getId() + " " + stats.getLabel() + "\n"
+                        + stats.getSucceeded() + "/" + stats.getTargets() + " ok, " + stats.getDelivered()
+                        + " delivered" + (stats.getPending() > 0 ? ", " + stats.getPending() + " pending" : "")
+                        + (stats.getFailed() + stats.getTimedOut() > 0
+                                ? ", " + (stats.getFailed() + stats.getTimedOut()) + " failed" : "")
+                        + "\ndelivery " + stats.getDelivery() + "\nexec     " + stats.getExecution());
+                setStyle("-fx-text-fill: " + (stats.getFailures().isEmpty() ? "#ccc" : "#e74c3c") + ";");
+                StringBuilder failures = new StringBuilder();
+                stats.getFailures().forEach((student, reason) ->
+                        failures.append(student).append(": ").append(reason).append('\n'));
+                setTooltip(failures.length() > 0 ? new Tooltip(failures.toString().trim()) : null);
+            }
+        });
+
+        rightPanel.getChildren().addAll(chatTitle, chatArea, chatInput, commandTitle, commandList);
         root.setRight(rightPanel);
 
         // ========== BOTTOM - COMMAND CONSOLE ==========
@@ -202,25 +289,91 @@ public class AdminDashboard {
                 "-fx-background-color: #1a1a2e; -fx-text-fill: #0f0; -fx-font-family: 'Consolas'; -fx-prompt-text-fill: #555;");
         HBox.setHgrow(cmdInput, Priority.ALWAYS);
 
+        // Lab-wide runs: students at once, and seconds before the rest is cancelled
+        Spinner<Integer> parallel = new Spinner<>(1, 200, Config.FANOUT_CONCURRENCY);
+        parallel.setPrefWidth(75);
+        parallel.setTooltip(new Tooltip("Students running the command at once"));
+        Spinner<Integer> deadline = new Spinner<>(5, 3600, Config.FANOUT_DEADLINE_MS / 1000, 5);
+        deadline.setPrefWidth(85);
+        deadline.setTooltip(new Tooltip("Seconds until unfinished students are cancelled"));
+
         Button execBtn = new Button("EXECUTE");
         execBtn.setStyle(
                 "-fx-background-color: #e74c3c; -fx-text-fill: white; -fx-font-weight: bold; -fx-padding: 10 20;");
         execBtn.setOnAction(e -> {
             String cmd = cmdInput.getText();
             if (!cmd.isEmpty()) {
-                server.broadcast(new CommandPacket(CommandPacket.Type.SHELL, "ADMIN", cmd));
+                FanOut.Options options = new FanOut.Options();
+                options.concurrency = parallel.getValue();
+                options.deadlineMs = deadline.getValue() * 1000L;
+                FanOutView.show(server, cmd, options);
                 chatArea.appendText("[CMD]: " + cmd + "\n");
                 cmdInput.clear();
             }
         });
 
-        console.getChildren().addAll(prompt, cmdInput, execBtn);
+        Button rolloutBtn = new Button("ROLLOUT");
+        rolloutBtn.setStyle(
+                "-fx-background-color: #8e44ad; -fx-text-fill: white; -fx-font-weight: bold; -fx-padding: 10 20;");
+        rolloutBtn.setTooltip(new Tooltip("Run with per-student timeout, retries and a failure-rate stop"));
+        rolloutBtn.setOnAction(e -> {
+            String cmd = cmdInput.getText();
+            if (cmd.isEmpty())
+                return;
+            FanOut.Options options = new FanOut.Options();
+            options.concurrency = parallel.getValue();
+            options.deadlineMs = deadline.getValue() * 1000L;
+            FanOutView.askRollout(options).ifPresent(o -> {
+                FanOutView.show(server, cmd, o);
+                chatArea.appendText("[ROLLOUT]: " + cmd + "\n");
+                cmdInput.clear();
+            });
+        });
+
+        console.getChildren().addAll(prompt, cmdInput, parallel, deadline, execBtn, rolloutBtn);
         root.setBottom(console);
 
         Scene scene = new Scene(root, 1200, 800);
         stage.setScene(scene);
         stage.setTitle("Ghost - Admin Control Center");
         stage.setOnCloseRequest(e -> System.exit(0));
+        adminStage = stage;
+        stage.iconifiedProperty().addListener((obs, o, n) -> refreshSubscriptions());
+        stage.outputScaleXProperty().addListener((obs, o, n) -> refreshSubscriptions()); // Moved to a HiDPI monitor
+    }
+
+    /**
+     * Subscribes every student to what the admin can currently see of it, at
+     * the device pixel size it is drawn at: FULL with a full-screen window open
+     * (the largest one if several), THUMB while its card is in the wall's
+     * viewport, NONE otherwise. The server only sends actual changes, and
+     * students at NONE are not decoded either.
+     */
+    private static void refreshSubscriptions() {
+        if (server == null || wall == null)
+            return;
+        boolean minimized = adminStage != null && adminStage.isIconified();
+        double outputScale = adminStage != null ? adminStage.getOutputScaleX() : 1.0; // HiDPI
+        for (String name : wall.getNames()) {
+            java.util.List<ImageView> views = fullScreenViews.get(name);
+            Subscription subscription;
+            if (views != null && !views.isEmpty()) {
+                int w = 0, h = 0;
+                for (ImageView view : views) {
+                    double viewScale = view.getScene().getWindow().getOutputScaleX();
+                    w = Math.max(w, (int) (view.getFitWidth() * viewScale));
+                    h = Math.max(h, (int) (view.getFitHeight() * viewScale));
+                }
+                subscription = new Subscription(Subscription.Level.FULL, w, h, true);
+            } else if (!minimized && wall.isVisible(name)) {
+                subscription = new Subscription(Subscription.Level.THUMB, (int) (THUMB_WIDTH * outputScale),
+                        (int) (THUMB_HEIGHT * outputScale), false);
+            } else {
+                subscription = new Subscription(Subscription.Level.NONE);
+            }
+            server.subscribe(name, subscription);
+            screenDecoder.setShown(name, subscription.level != Subscription.Level.NONE);
+        }
     }
 
     private static VBox createControlSection(String title, javafx.scene.Node... controls) {
@@ -270,14 +423,14 @@ public class AdminDashboard {
                         "-fx-background-color: #e74c3c; -fx-text-fill: white; -fx-font-weight: bold; -fx-background-radius: 15;");
                 statusLabel.setText("● OFFLINE");
                 statusLabel.setStyle("-fx-text-fill: #e74c3c; -fx-font-weight: bold;");
-                server.broadcast(new CommandPacket(CommandPacket.Type.INTERNET, "ADMIN", "DISABLE"));
+                server.sendCommand(null, new CommandPacket(CommandPacket.Type.INTERNET, "ADMIN", "DISABLE"));
             } else {
                 toggle.setText("KILL");
                 toggle.setStyle(
                         "-fx-background-color: #2ecc71; -fx-text-fill: white; -fx-font-weight: bold; -fx-background-radius: 15;");
                 statusLabel.setText("● ONLINE");
                 statusLabel.setStyle("-fx-text-fill: #2ecc71; -fx-font-weight: bold;");
-                server.broadcast(new CommandPacket(CommandPacket.Type.INTERNET, "ADMIN", "ENABLE"));
+                server.sendCommand(null, new CommandPacket(CommandPacket.Type.INTERNET, "ADMIN", "ENABLE"));
             }
         });
 
@@ -308,6 +461,7 @@ public class AdminDashboard {
                 statusLabel.setText("● LIVE");
                 statusLabel.setStyle("-fx-text-fill: #e74c3c; -fx-font-weight: bold;");
                 startAdminScreenShare();
+                server.setShareActive(true);
             } else {
                 toggle.setText("START");
                 toggle.setStyle(
@@ -315,6 +469,7 @@ public class AdminDashboard {
                 statusLabel.setText("● OFF");
                 statusLabel.setStyle("-fx-text-fill: #888; -fx-font-weight: bold;");
                 stopAdminScreenShare();
+                server.setShareActive(false);
             }
         });
 
@@ -327,9 +482,9 @@ public class AdminDashboard {
         // 60fps = 16ms interval for smoother streaming
         screenScheduler.scheduleAtFixedRate(() -> {
             if (screenSharing) {
-                String base64 = ScreenCapture.captureForStreaming(); // 60% res, 80% quality
-                if (base64 != null) {
-                    server.broadcast(new CommandPacket(CommandPacket.Type.ADMIN_SCREEN, "ADMIN", base64));
+                byte[] jpeg = ScreenCapture.captureForStreamingJpeg(); // 80% res, 85% quality
+                if (jpeg != null) {
+                    server.broadcastAdminScreen(jpeg);
                 }
             }
         }, 0, 16, java.util.concurrent.TimeUnit.MILLISECONDS);
@@ -342,7 +497,11 @@ public class AdminDashboard {
         }
     }
 
-    private static void addStudentCard(String name, Image screenshot) {
+    /**
+     * Builds an empty student card for the wall; its buttons act on whichever
+     * student it shows when clicked
+     */
+    private static StudentWall.Card createStudentCard() {
         VBox card = new VBox(8);
         card.setPrefWidth(220);
         card.setStyle("-fx-background-color: rgba(255,255,255,0.05); -fx-background-radius: 15; " +
@@ -351,15 +510,12 @@ public class AdminDashboard {
 
         // Screenshot - larger size for better visibility
         ImageView imgView = new ImageView();
-        imgView.setFitWidth(280);
-        imgView.setFitHeight(180);
+        imgView.setFitWidth(THUMB_WIDTH);
+        imgView.setFitHeight(THUMB_HEIGHT);
         imgView.setPreserveRatio(false);
         imgView.setStyle("-fx-background-color: #333; -fx-cursor: hand;");
 
-        // Click to open fullscreen view
-        imgView.setOnMouseClicked(e -> openFullScreenView(name, imgView.getImage()));
-
-        Label nameLabel = new Label(name);
+        Label nameLabel = new Label();
         nameLabel.setStyle("-fx-text-fill: white; -fx-font-weight: bold;");
 
         // Status indicator
@@ -370,17 +526,33 @@ public class AdminDashboard {
         statusText.setStyle("-fx-text-fill: #888; -fx-font-size: 10px;");
         statusBox.getChildren().addAll(statusDot, statusText);
 
+        // Adaptive stream settings; hover for the measurements and the last reason
+        Label streamLabel = new Label();
+        streamLabel.setStyle("-fx-text-fill: #888; -fx-font-size: 10px;");
+
+        // File transfer progress, shown only while a file is on its way
+        ProgressBar fileProgress = new ProgressBar(0);
+        fileProgress.setPrefWidth(160);
+        fileProgress.setVisible(false);
+        fileProgress.setManaged(false);
+
+        StudentWall.Card bound = new StudentWall.Card(card, imgView, nameLabel, streamLabel, fileProgress);
+
+        // Click to open fullscreen view
+        imgView.setOnMouseClicked(e -> openFullScreenView(bound.getName(), imgView.getImage()));
+
         // Individual controls
         HBox controls = new HBox(5);
         controls.setAlignment(Pos.CENTER);
 
         Button lockBtn = new Button("🔒");
         lockBtn.setStyle("-fx-background-color: #e74c3c; -fx-text-fill: white; -fx-background-radius: 5;");
-        lockBtn.setOnAction(e -> server.sendToClient(name, new CommandPacket(CommandPacket.Type.LOCK, "ADMIN", "{}")));
+        lockBtn.setOnAction(e -> server.sendCommand(bound.getName(), new CommandPacket(CommandPacket.Type.LOCK, "ADMIN", "{}")));
 
         Button msgBtn = new Button("💬");
         msgBtn.setStyle("-fx-background-color: #3498db; -fx-text-fill: white; -fx-background-radius: 5;");
         msgBtn.setOnAction(e -> {
+            String name = bound.getName();
             javafx.scene.control.TextInputDialog dialog = new javafx.scene.control.TextInputDialog();
             dialog.setTitle("Message to " + name);
             dialog.setHeaderText("Send private message to " + name);
@@ -394,65 +566,111 @@ public class AdminDashboard {
         Button cmdBtn = new Button("⌨");
         cmdBtn.setStyle("-fx-background-color: #9b59b6; -fx-text-fill: white; -fx-background-radius: 5;");
         cmdBtn.setOnAction(e -> {
+            String name = bound.getName();
             javafx.scene.control.TextInputDialog dialog = new javafx.scene.control.TextInputDialog();
             dialog.setTitle("Execute on " + name);
             dialog.setHeaderText("Run command on " + name + "'s PC");
             dialog.setContentText("Command:");
             dialog.showAndWait().ifPresent(cmd -> {
-                server.sendToClient(name, new CommandPacket(CommandPacket.Type.SHELL, "ADMIN", cmd));
-                chatArea.appendText("[CMD->" + name + "]: " + cmd + "\n");
+                long id = server.runShell(name, cmd);
+                chatArea.appendText("[CMD #" + id + "->" + name + "]: " + cmd + "\n");
             });
         });
 
         controls.getChildren().addAll(lockBtn, msgBtn, cmdBtn);
 
-        card.getChildren().addAll(imgView, nameLabel, statusBox, controls);
-        thumbnailGrid.getChildren().add(card);
-        studentCards.put(name, card);
-        studentImages.put(name, imgView);
+        card.getChildren().addAll(imgView, nameLabel, statusBox, streamLabel, fileProgress, controls);
+        return bound;
     }
 
-    private static void updateStudentScreen(String clientName, String base64Image) {
-        try {
-            byte[] imageBytes = Base64.getDecoder().decode(base64Image);
-            Image image = new Image(new ByteArrayInputStream(imageBytes));
+    /**
+     * Appends a batch of streamed command output, with a header whenever the
+     * output switches to another student or command
+     */
+    private static void appendShellOutput(String clientName, long commandId, String text) {
+        if (chatArea == null)
+            return;
+        String source = clientName + " #" + commandId;
+        if (!source.equals(lastShellSource)) {
+            chatArea.appendText("\n--- Output from " + source + " ---\n");
+            lastShellSource = source;
+        }
+        chatArea.appendText(text);
+        chatArea.setScrollTop(Double.MAX_VALUE);
+    }
 
-            if (studentImages.containsKey(clientName)) {
-                // Update existing card
-                studentImages.get(clientName).setImage(image);
-            } else {
-                // Create new card for this client
-                addStudentCard(clientName, image);
+    /**
+     * Replaces the row of a tracked command with its latest snapshot
+     */
+    private static void showCommandStats(CommandStats stats) {
+        if (commandList == null)
+            return;
+        java.util.List<CommandStats> items = commandList.getItems();
+        for (int i = 0; i < items.size(); i++) {
+            if (items.get(i).getId() == stats.getId()) {
+                items.set(i, stats);
+                return;
             }
-        } catch (Exception e) {
-            System.err.println("Failed to decode screen from " + clientName + ": " + e.getMessage());
         }
+        items.add(0, stats);
+        if (items.size() > Config.COMMAND_HISTORY)
+            items.remove(items.size() - 1);
+    }
+
+    private static void updateStreamStatus(String clientName, StreamStatus status) {
+        wall.setStream(clientName, status.summary(), status + "\n" + screenDecoder.summary(clientName));
     }
 
     private static void sendFilesToStudents(Stage stage) {
         FileChooser fileChooser = new FileChooser();
         fileChooser.setTitle("Select Files to Send");
         java.util.List<File> files = fileChooser.showOpenMultipleDialog(stage);
-        if (files != null && !files.isEmpty()) {
+        if (files == null || files.isEmpty())
+            return;
+        // Files are streamed from disk by the server; only the legacy fallback reads them here
+        new Thread(() -> {
             for (File file : files) {
                 try {
-                    // Read file and encode as Base64
-                    byte[] fileBytes = java.nio.file.Files.readAllBytes(file.toPath());
-                    String base64Data = Base64.getEncoder().encodeToString(fileBytes);
-
-                    // Format: filename|base64data
-                    String payload = file.getName() + "|" + base64Data;
-
-                    chatArea.appendText(
-                            "[FILE]: Sending " + file.getName() + " (" + formatSize(fileBytes.length) + ")...\n");
-                    server.broadcast(new CommandPacket(CommandPacket.Type.FILE_DATA, "ADMIN", payload));
-                    chatArea.appendText("[FILE]: ✓ Sent " + file.getName() + "\n");
-
+                    int students = server.sendFile(file, fileProgressListener);
+                    Platform.runLater(() -> chatArea.appendText("[FILE]: Sending " + file.getName() + " ("
+                            + formatSize(file.length()) + ") to " + students + " students...\n"));
                 } catch (Exception e) {
-                    chatArea.appendText("[ERROR]: Failed to send " + file.getName() + ": " + e.getMessage() + "\n");
+                    Platform.runLater(() -> chatArea.appendText(
+                            "[ERROR]: Failed to send " + file.getName() + ": " + e.getMessage() + "\n"));
                 }
             }
+        }, "SendFiles").start();
+    }
+
+    private static final GhostServer.FileProgressListener fileProgressListener = new GhostServer.FileProgressListener() {
+        @Override
+        public void onProgress(String clientName, String fileName, long bytesDone, long totalBytes) {
+            Platform.runLater(() -> showFileProgress(clientName, fileName,
+                    totalBytes > 0 ? (double) bytesDone / totalBytes : 1));
+        }
+
+        @Override
+        public void onComplete(String clientName, String fileName) {
+            Platform.runLater(() -> {
+                showFileProgress(clientName, null, 1);
+                chatArea.appendText("[FILE]: ✓ " + clientName + " received " + fileName + "\n");
+            });
+        }
+
+        @Override
+        public void onFailed(String clientName, String fileName, String reason) {
+            Platform.runLater(() -> {
+                showFileProgress(clientName, null, 0);
+                chatArea.appendText("[ERROR]: " + fileName + " to " + clientName + " failed: " + reason + "\n");
+            });
         }
+    };
+
+    /**
+     * Shows a transfer's progress on the student's card; a null file name hides the bar
+     */
+    private static void showFileProgress(String clientName, String fileName, double progress) {
+        wall.setFile(clientName, fileName, progress);
     }
 
     private static String formatSize(long bytes) {
@@ -464,11 +682,9 @@ public class AdminDashboard {
     }
 
     private static void removeStudentCard(String clientName) {
-        VBox card = studentCards.remove(clientName);
-        if (card != null) {
-            thumbnailGrid.getChildren().remove(card);
-        }
-        studentImages.remove(clientName);
+        wall.remove(clientName);
+        screenDecoder.remove(clientName);
+        fullScreenViews.remove(clientName);
         if (chatArea != null) {
             chatArea.appendText("[SYSTEM]: " + clientName + " disconnected\n");
         }
@@ -501,26 +717,33 @@ public class AdminDashboard {
             }
         });
 
-        fullscreenStage.setScene(scene);
-        fullscreenStage.show();
+        // Keep updating with live screen data; the canvas is usually updated in place
+        Runnable unsubscribe = frameBus.subscribe(studentName, latest -> {
+            if (fullView.getImage() != latest)
+                fullView.setImage(latest);
+        });
 
-        // Keep updating with live screen data
-        final ImageView liveView = fullView;
-        Thread updateThread = new Thread(() -> {
-            while (fullscreenStage.isShowing()) {
-                try {
-                    Thread.sleep(100);
-                    ImageView studentImgView = studentImages.get(studentName);
-                    if (studentImgView != null && studentImgView.getImage() != null) {
-                        Image latest = studentImgView.getImage();
-                        Platform.runLater(() -> liveView.setImage(latest));
-                    }
-                } catch (InterruptedException e) {
-                    break;
+        fullscreenStage.setScene(scene);
+        fullscreenStage.setOnHidden(e -> {
+            unsubscribe.run();
+            java.util.List<ImageView> views = fullScreenViews.get(studentName);
+            if (views != null) {
+                views.remove(fullView);
+                if (views.isEmpty()) {
+                    fullScreenViews.remove(studentName);
+                    screenDecoder.setFullResolution(studentName, false);
                 }
             }
+            refreshSubscriptions();
         });
-        updateThread.setDaemon(true);
-        updateThread.start();
+        fullscreenStage.show();
+        fullScreenViews.computeIfAbsent(studentName, k -> new java.util.ArrayList<>()).add(fullView);
+        screenDecoder.setFullResolution(studentName, true);
+        refreshSubscriptions();
+
+        // Renegotiate the capture size once a window resize settles, not on every pixel
+        resizeSettle.setOnFinished(e -> refreshSubscriptions());
+        fullView.fitWidthProperty().addListener((obs, o, n) -> resizeSettle.playFromStart());
+        fullView.fitHeightProperty().addListener((obs, o, n) -> resizeSettle.playFromStart());
     }
 }
@@ -0,0 +1,205 @@
+package com.ghost.ui;
+
+import com.ghost.net.FanOut;
+import com.ghost.net.GhostServer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.geometry.Insets;
+import javafx.geometry.Orientation;
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.control.*;
+import javafx.scene.layout.GridPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+import javafx.stage.Stage;
+
+/**
+ * Window for one lab-wide shell run: identical results grouped at the top,
+ * one row per student below (a TableView, so only visible rows are laid
+ * out), and the selected student's output at the bottom. Selecting a group
+ * shows only its students. A progress bar, throughput and STOP make it
+ * usable for rollouts too.
+ */
+public class FanOutView {
+
+    public static void show(GhostServer server, String command, FanOut.Options options) {
+        Stage stage = new Stage();
+        stage.setTitle("Run: " + command);
+
+        Label status = new Label();
+        status.setStyle("-fx-text-fill: #00ffaa; -fx-font-family: 'Consolas'; -fx-font-size: 13px;");
+        Label rate = new Label();
+        rate.setStyle("-fx-text-fill: #aaa; -fx-font-family: 'Consolas';");
+        ProgressBar progress = new ProgressBar(0);
+        progress.setPrefWidth(250);
+        Button stop = new Button("STOP");
+        stop.setStyle("-fx-background-color: #e74c3c; -fx-text-fill: white; -fx-font-weight: bold;");
+        stop.setTooltip(new Tooltip("Start no more students; running ones finish"));
+        HBox header = new HBox(15, progress, status, rate, stop);
+        header.setAlignment(Pos.CENTER_LEFT);
+
+        TableView<FanOut.Group> groups = new TableView<>();
+        groups.setPrefHeight(150);
+        groups.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY_FLEX_LAST_COLUMN);
+        groups.getColumns().add(column("Machines", 90, g -> g.clients.size()));
+        groups.getColumns().add(column("Result", 600, FanOut.Group::summary));
+
+        TableView<FanOut.Result> results = new TableView<>();
+        results.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY_FLEX_LAST_COLUMN);
+        results.getColumns().add(column("Student", 140, r -> r.client));
+        results.getColumns().add(column("Status", 100, r -> r.state.name()));
+        results.getColumns().add(column("Tries", 50, r -> r.attempts > 1 ? r.attempts : ""));
+        results.getColumns().add(column("Exit", 50, r -> r.exitCode >= 0 ? Integer.toString(r.exitCode) : ""));
+        results.getColumns().add(column("Time", 70, r -> r.durationMs >= 0 ? r.durationMs / 100 / 10.0 + " s" : ""));
+        results.getColumns().add(column("Output", 400, r -> lastLine(r.output)));
+        VBox.setVgrow(results, Priority.ALWAYS);
+
+        TextArea detail = new TextArea();
+        detail.setEditable(false);
+        detail.setStyle("-fx-control-inner-background: #1a1a2e; -fx-text-fill: #ccc; -fx-font-family: 'Consolas';");
+        results.getSelectionModel().selectedItemProperty().addListener((obs, o, r) -> detail.setText(
+                r == null ? "" : (r.truncated ? "[earlier output truncated]\n" : "") + r.output));
+
+        SplitPane split = new SplitPane(results, detail);
+        split.setOrientation(Orientation.VERTICAL);
+        split.setDividerPositions(0.65);
+        VBox.setVgrow(split, Priority.ALWAYS);
+
+        VBox root = new VBox(10, header, groups, split);
+        root.setPadding(new Insets(15));
+        root.setStyle("-fx-background-color: #1a1a2e;");
+        stage.setScene(new Scene(root, 900, 700));
+        stage.show();
+
+        // Updates arrive per output batch; redraw at most once per pulse
+        AtomicBoolean scheduled = new AtomicBoolean();
+        boolean[] updating = new boolean[1]; // Replacing the groups must not re-enter refresh
+        FanOut[] run = new FanOut[1];
+        Runnable refresh = () -> {
+            scheduled.set(false);
+            if (run[0] == null)
+                return;
+            FanOut.Snapshot s = run[0].snapshot();
+            status.setText((s.finished ? "Finished" : s.stopReason != null ? "Stopping" : "Running") + " in "
+                    + s.elapsedMs / 100 / 10.0 + " s: " + s.done + "/" + s.results.size() + " done, " + s.running
+                    + " running, " + s.queued + " queued" + (s.retrying > 0 ? ", " + s.retrying + " to retry" : "")
+                    + (s.stopReason != null ? " (" + s.stopReason + ")" : ""));
+            long eta = s.etaMs();
+            rate.setText(String.format("%.1f/min, %d failed", s.perMinute(), s.failed)
+                    + (eta > 0 ? ", about " + (eta + 999) / 1000 + " s left" : ""));
+            progress.setProgress(s.results.isEmpty() ? 1 : (double) s.done / s.results.size());
+            stop.setDisable(s.finished || s.stopReason != null);
+
+            updating[0] = true;
+            FanOut.Group filter = groups.getSelectionModel().getSelectedItem();
+            groups.getItems().setAll(s.groups);
+            filter = filter != null ? matching(s.groups, filter) : null;
+            if (filter != null)
+                groups.getSelectionModel().select(filter);
+
+            FanOut.Result selected = results.getSelectionModel().getSelectedItem();
+            Set<String> shown = filter != null ? new HashSet<>(filter.clients) : null;
+            List<FanOut.Result> rows = new ArrayList<>();
+            for (FanOut.Result r : s.results) {
+                if (shown == null || shown.contains(r.client))
+                    rows.add(r);
+            }
+            results.getItems().setAll(rows);
+            if (selected != null) {
+                for (FanOut.Result r : rows) {
+                    if (r.client.equals(selected.client)) {
+                        results.getSelectionModel().select(r);
+                        break;
+                    }
+                }
+            }
+            updating[0] = false;
+        };
+        groups.getSelectionModel().selectedItemProperty().addListener((obs, o, g) -> {
+            if (!updating[0])
+                refresh.run();
+        });
+        run[0] = server.runFanOut(command, options, r -> {
+            if (scheduled.compareAndSet(false, true))
+                Platform.runLater(refresh);
+        });
+        stop.setOnAction(e -> run[0].stop());
+        refresh.run();
+    }
+
+    /**
+     * Asks for the rollout settings on top of the console's concurrency and
+     * deadline
+     *
+     * @return the options, or empty if cancelled
+     */
+    public static Optional<FanOut.Options> askRollout(FanOut.Options base) {
+        Spinner<Integer> timeout = new Spinner<>(0, 3600, (int) (base.hostTimeoutMs / 1000), 5);
+        Spinner<Integer> retries = new Spinner<>(0, 10, base.retries);
+        Spinner<Integer> backoff = new Spinner<>(1, 600, (int) Math.max(1, base.retryBackoffMs / 1000));
+        Spinner<Integer> failures = new Spinner<>(0, 100, (int) Math.round(base.maxFailureRate * 100), 5);
+        Spinner<Integer> minFinished = new Spinner<>(1, 500, base.minFinished);
+        for (Spinner<Integer> s : List.of(timeout, retries, backoff, failures, minFinished)) {
+            s.setEditable(true);
+        }
+
+        GridPane grid = new GridPane();
+        grid.setHgap(10);
+        grid.setVgap(8);
+        grid.addRow(0, new Label("Students at once:"), new Label(Integer.toString(base.concurrency)));
+        grid.addRow(1, new Label("Time per student (s, 0 = none):"), timeout);
+        grid.addRow(2, new Label("Retries per student:"), retries);
+        grid.addRow(3, new Label("First retry after (s):"), backoff);
+        grid.addRow(4, new Label("Stop above failure rate (%):"), failures);
+        grid.addRow(5, new Label("... after finished students:"), minFinished);
+
+        Dialog<ButtonType> dialog = new Dialog<>();
+        dialog.setTitle("Rollout");
+        dialog.setHeaderText("Rolling run on " + base.concurrency + " students at a time");
+        dialog.getDialogPane().setContent(grid);
+        dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+        if (dialog.showAndWait().orElse(ButtonType.CANCEL) != ButtonType.OK)
+            return Optional.empty();
+
+        base.hostTimeoutMs = timeout.getValue() * 1000L;
+        base.retries = retries.getValue();
+        base.retryBackoffMs = backoff.getValue() * 1000L;
+        base.maxFailureRate = failures.getValue() / 100.0;
+        base.minFinished = minFinished.getValue();
+        return Optional.of(base);
+    }
+
+    /**
+     * The group in a new snapshot that has the same outcome as the selected one
+     */
+    private static FanOut.Group matching(List<FanOut.Group> groups, FanOut.Group old) {
+        for (FanOut.Group g : groups) {
+            if (g.state == old.state && g.exitCode == old.exitCode && g.output.equals(old.output))
+                return g;
+        }
+        return null;
+    }
+
+    private static String lastLine(String output) {
+        String trimmed = output.trim();
+        int newline = trimmed.lastIndexOf('\n');
+        return newline >= 0 ? trimmed.substring(newline + 1).trim() : trimmed;
+    }
+
+    private static <T> TableColumn<T, Object> column(String title, double width,
+            Function<T, Object> value) {
+        TableColumn<T, Object> c = new TableColumn<>(title);
+        c.setPrefWidth(width);
+        c.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(value.apply(cell.getValue())));
+        return c;
+    }
+}
@@ -0,0 +1,77 @@
+package com.ghost.ui;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import javafx.animation.AnimationTimer;
+import javafx.scene.image.Image;
+
+/**
+ * Hands new frames of each stream to the viewers subscribed to it, at most
+ * once per display pulse.
+ *
+ * Publishing only records the stream's latest frame; an AnimationTimer,
+ * running only while a frame is waiting, delivers the latest frame of each
+ * changed stream on the next pulse. Frames published in between are
+ * coalesced into it, and idle streams cost nothing however many viewers are
+ * open. FX thread only.
+ */
+class FrameBus {
+    private final Map<String, List<Consumer<Image>>> viewers = new HashMap<>();
+    private final Map<String, Image> pending = new LinkedHashMap<>(); // Latest undelivered frame per stream
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            deliver();
+        }
+    };
+    private boolean running;
+
+    /**
+     * Calls the viewer with each new frame of the stream until the returned
+     * action is run
+     */
+    Runnable subscribe(String streamId, Consumer<Image> viewer) {
+        viewers.computeIfAbsent(streamId, k -> new ArrayList<>()).add(viewer);
+        return () -> {
+            List<Consumer<Image>> list = viewers.get(streamId);
+            if (list != null && list.remove(viewer) && list.isEmpty())
+                viewers.remove(streamId);
+        };
+    }
+
+    /**
+     * A new frame landed; a canvas that was updated in place is published
+     * again as is
+     */
+    void publish(String streamId, Image frame) {
+        if (!viewers.containsKey(streamId))
+            return; // Nobody watching
+        pending.put(streamId, frame);
+        if (!running) {
+            running = true;
+            timer.start();
+        }
+    }
+
+    private void deliver() {
+        if (pending.isEmpty()) {
+            timer.stop(); // Idle for a whole pulse
+            running = false;
+            return;
+        }
+        List<Map.Entry<String, Image>> frames = new ArrayList<>(pending.entrySet());
+        pending.clear();
+        for (Map.Entry<String, Image> frame : frames) {
+            List<Consumer<Image>> list = viewers.get(frame.getKey());
+            if (list == null)
+                continue;
+            for (Consumer<Image> viewer : new ArrayList<>(list)) {
+                viewer.accept(frame.getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package com.ghost.ui;
+
+import com.ghost.util.Config;
+import com.ghost.util.JpegDecoder;
+import com.ghost.util.TileFrame;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javafx.application.Platform;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.image.WritablePixelFormat;
+
+/**
+ * Decodes screen frames off the FX thread: the students' on the admin's
+ * wall, and the admin's screen share on a student.
+ *
+ * Frames queue per student. A worker takes all of a student's queued frames,
+ * decodes them in order into the student's own pixel buffer, and marks the
+ * changed region; the FX thread then copies each changed region into the
+ * student's canvas, once per pulse however many frames arrived. A keyframe
+ * replaces everything queued before it, so a student whose frames arrive
+ * faster than they decode costs only its newest keyframe and the deltas
+ * after it. Tile deltas are never dropped on their own: the canvas would be
+ * wrong until the next keyframe.
+ *
+ * Students on the wall are decoded subsampled by a power of two to about
+ * thumbnail size, deltas included; only students open full screen are
+ * decoded at the size they were sent. Students scrolled off the wall are
+ * not decoded at all until they are shown again.
+ */
+class ScreenDecoder {
+    private static final WritablePixelFormat<IntBuffer> FORMAT = PixelFormat.getIntArgbPreInstance();
+    private static final int MAX_SUBSAMPLING = 8;
+
+    interface Events {
+        /** FX thread: the student's canvas changed; replaced = a new canvas (first frame or new size) */
+        void frameReady(String clientName, WritableImage canvas, boolean replaced);
+
+        /** A tile delta arrived without a matching base image */
+        void keyframeNeeded(String clientName);
+    }
+
+    private final Events events;
+    private final int thumbWidth;
+    private final int thumbHeight;
+    private final Map<String, Student> students = new ConcurrentHashMap<>();
+    private final Set<String> ready = ConcurrentHashMap.newKeySet(); // Students with a changed region
+    private final AtomicBoolean pulseScheduled = new AtomicBoolean();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final ThreadLocal<JpegDecoder> decoders = ThreadLocal.withInitial(JpegDecoder::new);
+    private final ExecutorService workers = Executors.newFixedThreadPool(Config.SCREEN_DECODE_THREADS, r -> {
+        Thread t = new Thread(r, "ScreenDecoder");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static class Frame {
+        final byte[] data;
+        final long arrivedNanos;
+
+        Frame(byte[] data) {
+            this.data = data;
+            this.arrivedNanos = System.nanoTime();
+        }
+    }
+
+    /** Guarded by its own monitor, except canvas (FX thread only) */
+    private static class Student {
+        final String name;
+        final ArrayDeque<Frame> pending = new ArrayDeque<>();
+        boolean scheduled; // A worker owns this student
+        int[] pixels;
+        int[] spare; // Last keyframe's buffer, for the next one of the same size
+        int width;
+        int height;
+        int dirtyX0, dirtyY0, dirtyX1, dirtyY1; // Changed since the FX thread last copied; empty if x1 <= x0
+        long newestNanos; // Arrival of the newest frame in the pixels
+        boolean full; // Viewed full screen: decode at full size
+        boolean shown = true; // On screen somewhere: hidden students' frames are not decoded
+        int factor = 1; // Subsampling of the pixels
+        int sourceWidth; // Size the student sent, which tile deltas refer to
+        int sourceHeight;
+        WritableImage canvas;
+        // Statistics
+        long frames;
+        long skipped;
+        double lagMs; // Smoothed arrival-to-screen delay
+        long maxLagMs;
+
+        Student(String name) {
+            this.name = name;
+        }
+
+        void dirty(int x, int y, int w, int h) {
+            if (dirtyX1 <= dirtyX0) {
+                dirtyX0 = x;
+                dirtyY0 = y;
+                dirtyX1 = x + w;
+                dirtyY1 = y + h;
+            } else {
+                dirtyX0 = Math.min(dirtyX0, x);
+                dirtyY0 = Math.min(dirtyY0, y);
+                dirtyX1 = Math.max(dirtyX1, x + w);
+                dirtyY1 = Math.max(dirtyY1, y + h);
+            }
+        }
+    }
+
+    /**
+     * @param thumbWidth  size students are shown at on the wall; frames are
+     *                    decoded at no more than about twice that. 0 = always
+     *                    full size.
+     */
+    ScreenDecoder(int thumbWidth, int thumbHeight, Events events) {
+        this.thumbWidth = thumbWidth;
+        this.thumbHeight = thumbHeight;
+        this.events = events;
+    }
+
+    /**
+     * Decodes the student at full size while it is viewed full screen, and
+     * at thumbnail size otherwise. The switch takes effect at the next
+     * keyframe, which is requested right away.
+     */
+    void setFullResolution(String clientName, boolean full) {
+        Student s = students.computeIfAbsent(clientName, Student::new);
+        synchronized (s) {
+            if (s.full == full)
+                return;
+            s.full = full;
+        }
+        events.keyframeNeeded(clientName);
+    }
+
+    /**
+     * Decodes the student only while it is shown. Frames of a hidden student
+     * are dropped and its pixels let go, so showing it again requests a
+     * keyframe; its canvas keeps the last image until that arrives.
+     */
+    void setShown(String clientName, boolean shown) {
+        Student s = students.get(clientName);
+        if (s == null)
+            return; // New students start shown
+        synchronized (s) {
+            if (s.shown == shown)
+                return;
+            s.shown = shown;
+            if (!shown) {
+                s.skipped += s.pending.size();
+                dropped.addAndGet(s.pending.size());
+                s.pending.clear();
+                if (s.spare == null)
+                    s.spare = s.pixels;
+                s.pixels = null; // Deltas missed from here on would draw onto a stale base
+            }
+        }
+        if (shown)
+            events.keyframeNeeded(clientName);
+    }
+
+    /**
+     * Queues a frame (a JPEG keyframe or a TileFrame delta); any thread
+     */
+    void submit(String clientName, byte[] frame) {
+        received.incrementAndGet();
+        Student s = students.computeIfAbsent(clientName, Student::new);
+        synchronized (s) {
+            s.frames++;
+            if (!s.shown) {
+                s.skipped++;
+                dropped.incrementAndGet();
+                return;
+            }
+            if (!TileFrame.isTileFrame(frame) && !s.pending.isEmpty()) {
+                s.skipped += s.pending.size(); // Superseded by this keyframe
+                dropped.addAndGet(s.pending.size());
+                s.pending.clear();
+            }
+            s.pending.add(new Frame(frame));
+            if (s.scheduled)
+                return;
+            s.scheduled = true;
+        }
+        workers.execute(() -> decode(s));
+    }
+
+    /**
+     * Forgets a student that left
+     */
+    void remove(String clientName) {
+        students.remove(clientName);
+    }
+
+    /**
+     * Frames received from all students and how many of them were skipped
+     * for a newer keyframe or while their student was hidden
+     */
+    long getReceived() {
+        return received.get();
+    }
+
+    long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * One line for the student's card tooltip
+     */
+    String summary(String clientName) {
+        Student s = students.get(clientName);
+        if (s == null)
+            return "";
+        synchronized (s) {
+            return String.format("Decode lag %.0f ms (max %d ms), %d of %d frames skipped, %d queued",
+                    s.lagMs, s.maxLagMs, s.skipped, s.frames, s.pending.size());
+        }
+    }
+
+    private void decode(Student s) {
+        while (true) {
+            List<Frame> frames;
+            synchronized (s) {
+                if (s.pending.isEmpty()) {
+                    s.scheduled = false;
+                    return;
+                }
+                frames = new ArrayList<>(s.pending);
+                s.pending.clear();
+            }
+            boolean keyframeRequested = false;
+            for (Frame f : frames) {
+                try {
+                    if (TileFrame.isTileFrame(f.data)) {
+                        if (!applyTiles(s, TileFrame.parse(f.data), f) && !keyframeRequested) {
+                            events.keyframeNeeded(s.name);
+                            keyframeRequested = true;
+                        }
+                    } else {
+                        applyKeyframe(s, f);
+                    }
+                } catch (Exception e) {
+                    System.err.println("Failed to decode screen from " + s.name + ": " + e.getMessage());
+                }
+            }
+            ready.add(s.name);
+            if (pulseScheduled.compareAndSet(false, true))
+                Platform.runLater(this::pulse);
+        }
+    }
+
+    /**
+     * Keyframe: becomes the base image that later tile deltas are drawn onto.
+     * Decoded at full size only while the student is viewed full screen.
+     * It goes into the student's spare buffer, which then swaps with the
+     * shown one, so a stream of same-size keyframes allocates nothing.
+     */
+    private void applyKeyframe(Student s, Frame f) throws IOException {
+        boolean full;
+        int[] buffer;
+        synchronized (s) {
+            full = s.full;
+            buffer = s.spare;
+        }
+        JpegDecoder jpeg = decoders.get();
+        if (!jpeg.decode(f.data, 0, f.data.length, full ? (w, h) -> 1 : this::thumbnailFactor))
+            return;
+        int w = jpeg.getWidth();
+        int h = jpeg.getHeight();
+        if (buffer == null || buffer.length != w * h)
+            buffer = new int[w * h];
+        jpeg.copyTo(0, 0, w, h, buffer, 0, w);
+        synchronized (s) {
+            s.spare = s.pixels != null && s.pixels.length == w * h ? s.pixels : null;
+            s.pixels = buffer;
+            s.width = w;
+            s.height = h;
+            s.factor = jpeg.getFactor();
+            s.sourceWidth = jpeg.getSourceWidth();
+            s.sourceHeight = jpeg.getSourceHeight();
+            s.dirtyX0 = 0;
+            s.dirtyY0 = 0;
+            s.dirtyX1 = w;
+            s.dirtyY1 = h;
+            s.newestNanos = f.arrivedNanos;
+        }
+    }
+
+    /**
+     * Draws the changed tiles of a delta frame into the student's pixels, at
+     * the base image's subsampling
+     *
+     * @return false if there is no base image of the delta's size
+     */
+    private boolean applyTiles(Student s, TileFrame tiles, Frame f) throws IOException {
+        int k;
+        synchronized (s) {
+            if (s.pixels == null || s.sourceWidth != tiles.width || s.sourceHeight != tiles.height)
+                return false;
+            k = s.factor;
+        }
+        JpegDecoder atlas = decoders.get();
+        if (!atlas.decode(f.data, tiles.atlasOffset, tiles.atlasLength, (w, h) -> k))
+            return true;
+        synchronized (s) {
+            if (s.pixels == null || s.sourceWidth != tiles.width || s.sourceHeight != tiles.height || s.factor != k)
+                return false; // A keyframe of another size got in first
+            for (int i = 0; i < tiles.getTileCount(); i++) {
+                int x = tiles.screenX(i) / k;
+                int y = tiles.screenY(i) / k;
+                int w = Math.min((tiles.tileWidth(i) + k - 1) / k, s.width - x);
+                int h = Math.min((tiles.tileHeight(i) + k - 1) / k, s.height - y);
+                int ax = tiles.atlasX(i) / k;
+                int ay = tiles.atlasY(i) / k;
+                if (w <= 0 || h <= 0 || ax + w > atlas.getWidth() || ay + h > atlas.getHeight())
+                    continue;
+                atlas.copyTo(ax, ay, w, h, s.pixels, y * s.width + x, s.width);
+                s.dirty(x, y, w, h);
+            }
+            s.newestNanos = f.arrivedNanos;
+        }
+        return true;
+    }
+
+    /**
+     * Largest power of two, up to MAX_SUBSAMPLING, that keeps the image at
+     * least thumbnail size; it divides the tile size, so tile deltas land on
+     * whole subsampled pixels
+     */
+    private int thumbnailFactor(int width, int height) {
+        int k = 1;
+        while (thumbWidth > 0 && k < MAX_SUBSAMPLING && Config.TILE_SIZE % (k * 2) == 0 && width / (k * 2) >= thumbWidth
+                && height / (k * 2) >= thumbHeight) {
+            k *= 2;
+        }
+        return k;
+    }
+
+    /**
+     * FX thread: copies each student's changed region into its canvas
+     */
+    private void pulse() {
+        pulseScheduled.set(false);
+        long now = System.nanoTime();
+        for (Iterator<String> it = ready.iterator(); it.hasNext();) {
+            String name = it.next();
+            it.remove();
+            Student s = students.get(name);
+            if (s == null)
+                continue;
+            boolean replaced = false;
+            synchronized (s) {
+                if (s.pixels == null || s.dirtyX1 <= s.dirtyX0)
+                    continue;
+                if (s.canvas == null || (int) s.canvas.getWidth() != s.width
+                        || (int) s.canvas.getHeight() != s.height) {
+                    s.canvas = new WritableImage(s.width, s.height);
+                    s.dirtyX0 = 0;
+                    s.dirtyY0 = 0;
+                    s.dirtyX1 = s.width;
+                    s.dirtyY1 = s.height;
+                    replaced = true;
+                }
+                s.canvas.getPixelWriter().setPixels(s.dirtyX0, s.dirtyY0, s.dirtyX1 - s.dirtyX0,
+                        s.dirtyY1 - s.dirtyY0, FORMAT, s.pixels, s.dirtyY0 * s.width + s.dirtyX0, s.width);
+                s.dirtyX1 = s.dirtyX0;
+                long lagMs = (now - s.newestNanos) / 1_000_000;
+                s.lagMs = s.lagMs == 0 ? lagMs : 0.9 * s.lagMs + 0.1 * lagMs;
+                s.maxLagMs = Math.max(s.maxLagMs, lagMs);
+            }
+            events.frameReady(name, s.canvas, replaced);
+        }
+    }
+}
@@ -2,7 +2,9 @@ package com.ghost.ui;
 
 import com.ghost.database.User;
 import com.ghost.net.CommandPacket;
+import com.ghost.net.DiscoveryService;
 import com.ghost.net.GhostClient;
+import com.ghost.net.LabState;
 import com.ghost.util.Config;
 import com.ghost.util.PythonBridge;
 import javafx.application.Platform;
@@ -11,20 +13,23 @@ import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.effect.DropShadow;
-import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
+import javafx.scene.image.WritableImage;
 import javafx.scene.layout.*;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Circle;
 import javafx.stage.DirectoryChooser;
 import javafx.stage.Stage;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.util.Base64;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
 
 public class StudentDashboard {
-    private static GhostClient client;
+    private static GhostClient client; // Null until the lab is chosen
+    private static boolean screenSending = true;
     private static StackPane root;
     private static VBox lockOverlay;
     private static ImageView streamView;
@@ -38,6 +43,28 @@ public class StudentDashboard {
     private static Circle statusDot;
     private static Label statusLabel;
     private static String currentUsername;
+    // The admin's frames are decoded off the FX thread into one canvas that is updated in place
+    private static final FrameBus frameBus = new FrameBus(); // Frames for the full-screen window
+    private static final ScreenDecoder adminScreen = new ScreenDecoder(0, 0, new ScreenDecoder.Events() {
+        @Override
+        public void frameReady(String clientName, WritableImage canvas, boolean replaced) {
+            frameBus.publish(clientName, canvas);
+            if (streamView == null)
+                return;
+            if (streamView.getImage() != canvas) {
+                streamView.setImage(canvas);
+                // Hide waiting label
+                javafx.scene.Node waitLabel = streamView.getParent().lookup("#waitingLabel");
+                if (waitLabel != null)
+                    waitLabel.setVisible(false);
+            }
+        }
+
+        @Override
+        public void keyframeNeeded(String clientName) {
+            // Admin frames are whole JPEGs
+        }
+    });
 
     public static void show(Stage stage, User user) {
         currentUsername = user.getUsername();
@@ -45,9 +72,12 @@ public class StudentDashboard {
         new File(downloadFolder).mkdirs();
 
         if (client == null) {
-            client = new GhostClient(Config.ADMIN_IP);
-            client.setListener(packet -> handleCommand(packet));
-            client.connect();
+            if (!Config.ADMIN_IP.isEmpty())
+                startClient(new GhostClient(Config.ADMIN_IP));
+            else if (!Config.LAB_ID.isEmpty())
+                startClient(GhostClient.discovering(Config.LAB_ID));
+            else
+                chooseLab(labId -> startClient(GhostClient.discovering(labId)));
         }
 
         root = new StackPane();
@@ -151,6 +181,45 @@ public class StudentDashboard {
         stage.setOnCloseRequest(e -> System.exit(0));
     }
 
+    private static void startClient(GhostClient c) {
+        client = c;
+        client.setListener(packet -> handleCommand(packet));
+        client.setDownloadFolder(downloadFolder);
+        client.setScreenSending(screenSending);
+        client.connect();
+    }
+
+    /**
+     * Probes for labs off the FX thread, then calls back on it with the lab to
+     * join: asks when admins of several labs answer, starting at the one
+     * joined last time; keeps that one when nobody answers yet
+     */
+    private static void chooseLab(Consumer<String> chosen) {
+        Thread t = new Thread(() -> {
+            DiscoveryService.Endpoint cached = DiscoveryService.loadCached();
+            Set<String> labs = new TreeSet<>();
+            for (DiscoveryService.Endpoint e : DiscoveryService.probe("", Config.DISCOVERY_PROBE_WAIT_MS)) {
+                labs.add(e.labId);
+            }
+            String last = cached != null ? cached.labId : null;
+            Platform.runLater(() -> chosen.accept(pickLab(labs, last)));
+        }, "ChooseLab");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private static String pickLab(Set<String> labs, String last) {
+        if (labs.isEmpty())
+            return last != null ? last : "";
+        if (labs.size() < 2)
+            return "";
+        ChoiceDialog<String> dialog = new ChoiceDialog<>(labs.contains(last) ? last : labs.iterator().next(), labs);
+        dialog.setTitle("Ghost");
+        dialog.setHeaderText("Several labs are running on this network");
+        dialog.setContentText("Join lab:");
+        return dialog.showAndWait().orElse("");
+    }
+
     private static HBox createHeader(User user, Stage stage) {
         HBox header = new HBox(20);
         header.setAlignment(Pos.CENTER_LEFT);
@@ -306,7 +375,7 @@ public class StudentDashboard {
         sendBtn.setStyle("-fx-background-color: #00ffaa; -fx-text-fill: #1a1a2e; -fx-font-weight: bold;");
         sendBtn.setOnAction(e -> {
             String msg = input.getText();
-            if (!msg.isEmpty()) {
+            if (!msg.isEmpty() && client != null) { // Kept in the box until a lab is joined
                 chatArea.appendText("[YOU]: " + msg + "\n");
                 client.sendMessage(new CommandPacket(CommandPacket.Type.MSG, currentUsername, msg));
                 input.clear();
@@ -414,6 +483,8 @@ public class StudentDashboard {
             if (dir != null) {
                 downloadFolder = dir.getAbsolutePath();
                 currentFolder.setText(downloadFolder);
+                if (client != null)
+                    client.setDownloadFolder(downloadFolder);
             }
         });
         downloadSection.getChildren().addAll(downloadLabel, currentFolder, browseBtn);
@@ -427,7 +498,9 @@ public class StudentDashboard {
         screenToggle.setSelected(true);
         screenToggle.setStyle("-fx-text-fill: #888;");
         screenToggle.setOnAction(e -> {
-            client.setScreenSending(screenToggle.isSelected());
+            screenSending = screenToggle.isSelected();
+            if (client != null)
+                client.setScreenSending(screenSending);
         });
         screenSection.getChildren().addAll(screenLabel, screenToggle);
 
@@ -502,6 +575,11 @@ public class StudentDashboard {
     }
 
     private static void handleCommand(CommandPacket packet) {
+        if (packet.getType() == CommandPacket.Type.ADMIN_SCREEN) {
+            // Decoded off the FX thread; the stream view shows it on the next pulse
+            adminScreen.submit("ADMIN", packet.getPayloadBytes());
+            return;
+        }
         Platform.runLater(() -> {
             switch (packet.getType()) {
                 case LOCK:
@@ -530,26 +608,8 @@ public class StudentDashboard {
                         showNotification("💬 New message from " + packet.getSender());
                     }
                     break;
-                case ADMIN_SCREEN:
-                    // Update stream view with Admin's screen (must be on FX thread)
-                    Platform.runLater(() -> {
-                        try {
-                            byte[] imageBytes = Base64.getDecoder().decode(packet.getPayload());
-                            Image image = new Image(new ByteArrayInputStream(imageBytes));
-                            if (streamView != null) {
-                                streamView.setImage(image);
-                                // Hide waiting label
-                                javafx.scene.Node waitLabel = streamView.getParent().lookup("#waitingLabel");
-                                if (waitLabel != null)
-                                    waitLabel.setVisible(false);
-                            }
-                        } catch (Exception ex) {
-                            System.err.println("Failed to decode admin screen: " + ex.getMessage());
-                        }
-                    });
-                    break;
                 case FILE_DATA:
-                    // Receive and save file
+                    // Small files from admins without chunked transfer; chunked files are saved by GhostClient
                     try {
                         String payload = packet.getPayload();
                         // Format: filename|base64data
@@ -589,6 +649,16 @@ public class StudentDashboard {
                         showNotification("✋ Input unblocked");
                     }
                     break;
+                case LAB_STATE:
+                    LabState state = LabState.parse(packet.getPayload());
+                    if (state != null && !state.shareActive && streamView != null) {
+                        // Share ended while we were away: drop the stale frame
+                        streamView.setImage(null);
+                        javafx.scene.Node waitLabel = streamView.getParent().lookup("#waitingLabel");
+                        if (waitLabel != null)
+                            waitLabel.setVisible(true);
+                    }
+                    break;
                 case NOTIFICATION:
                     String notifPayload = packet.getPayload();
                     if ("CONNECTED".equals(notifPayload)) {
@@ -647,25 +717,15 @@ public class StudentDashboard {
             }
         });
 
+        // Live updates; the canvas is usually updated in place
+        Runnable unsubscribe = frameBus.subscribe("ADMIN", latest -> {
+            if (fullView.getImage() != latest)
+                fullView.setImage(latest);
+        });
+        fullscreenStage.setOnHidden(e -> unsubscribe.run());
+
         fullscreenStage.setScene(scene);
         fullscreenStage.setMaximized(true);
         fullscreenStage.show();
-
-        // Live update thread
-        Thread updateThread = new Thread(() -> {
-            while (fullscreenStage.isShowing()) {
-                try {
-                    Thread.sleep(50);
-                    if (streamView != null && streamView.getImage() != null) {
-                        Image latest = streamView.getImage();
-                        Platform.runLater(() -> fullView.setImage(latest));
-                    }
-                } catch (InterruptedException e) {
-                    break;
-                }
-            }
-        });
-        updateThread.setDaemon(true);
-        updateThread.start();
     }
 }
@@ -0,0 +1,273 @@
+package com.ghost.ui;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.geometry.Bounds;
+import javafx.geometry.Insets;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.control.Tooltip;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+
+/**
+ * The admin's wall of student cards, virtualized.
+ *
+ * A ListView of rows of students: only rows in the viewport get cells, and
+ * cells keep their cards as rows scroll through them, so layout and paint
+ * cost follow the window size rather than the lab size. What a card shows
+ * lives in a Tile per student, and a card is bound to whichever tile its row
+ * holds at the moment. Whenever the set of students with a card in the
+ * viewport changes, the listener gets it. FX thread only.
+ */
+class StudentWall {
+    private static final double GAP = 20;
+
+    /** What one student's card shows */
+    private static class Tile {
+        final String name;
+        Image image;
+        String stream = "";
+        String streamDetails = "";
+        String fileName; // Transfer in progress, or null
+        double fileProgress;
+
+        Tile(String name) {
+            this.name = name;
+        }
+    }
+
+    /** The nodes of one card, bound to one student at a time */
+    static class Card {
+        final VBox root;
+        private final ImageView image;
+        private final Label name;
+        private final Label stream;
+        private final ProgressBar file;
+        private String bound;
+
+        Card(VBox root, ImageView image, Label name, Label stream, ProgressBar file) {
+            this.root = root;
+            this.image = image;
+            this.name = name;
+            this.stream = stream;
+            this.file = file;
+            stream.setTooltip(new Tooltip());
+            file.setTooltip(new Tooltip());
+        }
+
+        /** The student shown, for the card's buttons */
+        String getName() {
+            return bound;
+        }
+
+        private void show(Tile t) {
+            bound = t.name;
+            name.setText(t.name);
+            image.setImage(t.image);
+            stream.setText(t.stream);
+            stream.getTooltip().setText(t.streamDetails);
+            boolean active = t.fileName != null;
+            file.setVisible(active);
+            file.setManaged(active);
+            file.setProgress(t.fileProgress);
+            if (active)
+                file.getTooltip().setText(t.fileName + " " + Math.round(t.fileProgress * 100) + "%");
+        }
+    }
+
+    private final ListView<List<String>> view = new ListView<>();
+    private final ObservableList<List<String>> rows = FXCollections.observableArrayList();
+    private final Map<String, Tile> tiles = new LinkedHashMap<>(); // In order of arrival
+    private final Map<String, Card> bound = new HashMap<>(); // Students that currently have a card
+    private final double cardWidth;
+    private final Supplier<Card> cards;
+    private final Consumer<Set<String>> visibilityListener;
+    private Set<String> visible = Collections.emptySet();
+    private int columns = 1;
+    private boolean visibilityScheduled;
+
+    /**
+     * @param cardWidth          width of a card, for the number of columns
+     * @param cards              builds an unbound card
+     * @param visibilityListener gets the students in the viewport when they change
+     */
+    StudentWall(double cardWidth, Supplier<Card> cards, Consumer<Set<String>> visibilityListener) {
+        this.cardWidth = cardWidth;
+        this.cards = cards;
+        this.visibilityListener = visibilityListener;
+        view.setItems(rows);
+        view.setCellFactory(v -> new Row());
+        view.setFocusTraversable(false);
+        view.setStyle("-fx-background-color: transparent; -fx-control-inner-background: transparent; "
+                + "-fx-padding: 0;");
+        view.widthProperty().addListener((obs, o, n) -> {
+            if (columnsFor(n.doubleValue()) != columns)
+                layoutRows();
+        });
+        view.heightProperty().addListener((obs, o, n) -> scheduleVisibility());
+    }
+
+    ListView<List<String>> getView() {
+        return view;
+    }
+
+    boolean contains(String name) {
+        return tiles.containsKey(name);
+    }
+
+    List<String> getNames() {
+        return new ArrayList<>(tiles.keySet());
+    }
+
+    /**
+     * Whether the student's card is in the viewport
+     */
+    boolean isVisible(String name) {
+        return visible.contains(name);
+    }
+
+    void add(String name, Image image) {
+        if (tiles.containsKey(name))
+            return;
+        Tile t = new Tile(name);
+        t.image = image;
+        tiles.put(name, t);
+        layoutRows();
+    }
+
+    void remove(String name) {
+        if (tiles.remove(name) != null)
+            layoutRows();
+    }
+
+    void setImage(String name, Image image) {
+        Tile t = tiles.get(name);
+        if (t == null || t.image == image)
+            return;
+        t.image = image;
+        refresh(t);
+    }
+
+    void setStream(String name, String summary, String details) {
+        Tile t = tiles.get(name);
+        if (t == null)
+            return; // No card yet; the student reports again every few seconds
+        t.stream = summary;
+        t.streamDetails = details;
+        refresh(t);
+    }
+
+    /**
+     * Shows a transfer's progress on the student's card; a null file name hides the bar
+     */
+    void setFile(String name, String fileName, double progress) {
+        Tile t = tiles.get(name);
+        if (t == null)
+            return;
+        t.fileName = fileName;
+        t.fileProgress = progress;
+        refresh(t);
+    }
+
+    private void refresh(Tile t) {
+        Card c = bound.get(t.name);
+        if (c != null)
+            c.show(t);
+    }
+
+    private int columnsFor(double width) {
+        return Math.max(1, (int) ((width - GAP) / (cardWidth + GAP)));
+    }
+
+    /**
+     * Splits the students into rows of as many cards as fit the width
+     */
+    private void layoutRows() {
+        columns = columnsFor(view.getWidth());
+        List<List<String>> split = new ArrayList<>();
+        List<String> names = new ArrayList<>(tiles.keySet());
+        for (int i = 0; i < names.size(); i += columns) {
+            split.add(names.subList(i, Math.min(names.size(), i + columns)));
+        }
+        rows.setAll(split);
+        scheduleVisibility();
+    }
+
+    private void scheduleVisibility() {
+        if (visibilityScheduled)
+            return;
+        visibilityScheduled = true;
+        Platform.runLater(this::updateVisibility); // After the cells are laid out
+    }
+
+    private void updateVisibility() {
+        visibilityScheduled = false;
+        Bounds viewport = view.localToScene(view.getLayoutBounds());
+        Set<String> now = new HashSet<>();
+        for (Card c : bound.values()) {
+            if (c.root.getScene() != null && viewport.intersects(c.root.localToScene(c.root.getLayoutBounds())))
+                now.add(c.bound);
+        }
+        if (!now.equals(visible)) {
+            visible = now;
+            visibilityListener.accept(Collections.unmodifiableSet(now));
+        }
+    }
+
+    private class Row extends ListCell<List<String>> {
+        private final HBox box = new HBox(GAP);
+        private final List<Card> own = new ArrayList<>();
+
+        Row() {
+            box.setPadding(new Insets(GAP / 2, 0, GAP / 2, GAP / 2));
+            setStyle("-fx-background-color: transparent; -fx-padding: 0;");
+            // Scrolling moves cells without rebinding them
+            layoutYProperty().addListener((obs, o, n) -> scheduleVisibility());
+        }
+
+        @Override
+        protected void updateItem(List<String> row, boolean empty) {
+            super.updateItem(row, empty);
+            for (Card c : own) {
+                if (c.bound != null && bound.get(c.bound) == c)
+                    bound.remove(c.bound);
+                c.bound = null;
+            }
+            if (empty || row == null) {
+                setGraphic(null);
+            } else {
+                while (own.size() < row.size()) {
+                    own.add(cards.get());
+                }
+                box.getChildren().clear();
+                for (int i = 0; i < row.size(); i++) {
+                    Tile t = tiles.get(row.get(i));
+                    if (t == null)
+                        continue;
+                    Card c = own.get(i);
+                    c.show(t);
+                    bound.put(t.name, c);
+                    box.getChildren().add(c.root);
+                }
+                setGraphic(box);
+            }
+            scheduleVisibility();
+        }
+    }
+}
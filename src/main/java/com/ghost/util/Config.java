@@ -6,8 +6,175 @@ public class Config {
     public static final int SERVER_PORT = 5555;
 
     // ===== NETWORK CONFIGURATION =====
-    // Set this to the IP address of the ADMIN PC
-    // For same-machine testing: "127.0.0.1"
-    // For network testing: Admin PC's actual IP (e.g., "192.168.1.208")
-    public static final String ADMIN_IP = "192.168.1.208";
+    // Students find the admin by discovery (below). To pin one instead, start them
+    // with -Dghost.admin.ip, e.g. "127.0.0.1" for same-machine testing.
+    public static final String ADMIN_IP = System.getProperty("ghost.admin.ip", "");
+
+    // ===== DISCOVERY =====
+    // Students ask "any admin?" on DISCOVERY_PROBE_PORT and admins answer at once with
+    // their endpoint and lab id. With several labs on one network, start each admin with
+    // -Dghost.lab=<id>; students join the lab of -Dghost.lab, or pick from those that
+    // answered. The last admin a student connected to is cached so it reconnects without
+    // asking; the admin's periodic beacon remains for older students.
+    public static final String LAB_ID = System.getProperty("ghost.lab", "");
+    public static final int DISCOVERY_PROBE_PORT = 5559;
+    public static final int DISCOVERY_PROBE_WAIT_MS = 300; // Answers collected per probe
+    public static final int DISCOVERY_PROBES = 3; // Probes before falling back
+    public static final String DISCOVERY_CACHE_FILE = System.getProperty("ghost.discovery.cache",
+            System.getProperty("user.home") + "/.ghost/admin.json");
+
+    // ===== WIRE PROTOCOL =====
+    // Binary framing for screen frames is negotiated at CONNECT.
+    // Start with -Dghost.wire.json=true to force the original JSON line protocol.
+    public static final boolean BINARY_WIRE = !Boolean.getBoolean("ghost.wire.json");
+    public static final int HANDSHAKE_TIMEOUT_MS = 2000;
+
+    // ===== SERVER ENGINE =====
+    // "blocking" = one thread per student (default), "nio" = selector reactors for 200+ seat labs.
+    // Select at startup with -Dghost.server.engine=nio
+    public static final String SERVER_ENGINE = System.getProperty("ghost.server.engine", "blocking");
+    public static final int NIO_REACTORS = Integer.getInteger("ghost.server.reactors",
+            Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    // Control packets (LOCK, MSG, ...) queued per client before it is considered dead.
+    // Media frames never queue up: a newer frame replaces the pending one.
+    public static final int CONTROL_QUEUE_CAPACITY = 1024;
+
+    // Heartbeats: both sides PING every HEARTBEAT_INTERVAL_MS and drop a peer that sent
+    // nothing for HEARTBEAT_MISSES intervals, so a dead student or admin is noticed in seconds.
+    public static final int HEARTBEAT_INTERVAL_MS = Integer.getInteger("ghost.heartbeat.ms", 1000);
+    public static final int HEARTBEAT_MISSES = Integer.getInteger("ghost.heartbeat.misses", 4);
+
+    // Reconnect storms: after an admin restart students retry after a random delay that
+    // doubles per failed attempt (RECONNECT_BASE_MS up to RECONNECT_MAX_MS), start capturing
+    // within a random CAPTURE_START_SPREAD_MS, and the server admits at most
+    // ADMISSION_RATE new connections per second (bursts of ADMISSION_BURST); the rest
+    // wait in the accept backlog.
+    public static final int RECONNECT_BASE_MS = 1000;
+    public static final int RECONNECT_MAX_MS = 30_000;
+    public static final int CAPTURE_START_SPREAD_MS = 1000;
+    public static final double ADMISSION_RATE = 20;
+    public static final int ADMISSION_BURST = 10;
+
+    // ===== MULTICAST SCREEN SHARE =====
+    // Start the admin with -Dghost.multicast=true to send ADMIN_SCREEN once to a multicast
+    // group instead of once per student. Students that cannot join fall back to TCP.
+    // -Dghost.multicast.iface=lo selects the interface (loopback for single-machine tests).
+    public static final boolean MULTICAST_ENABLED = Boolean.getBoolean("ghost.multicast");
+    public static final String MULTICAST_GROUP = System.getProperty("ghost.multicast.group", "239.255.71.72");
+    public static final int MULTICAST_PORT = 5557;
+    public static final String MULTICAST_IFACE = System.getProperty("ghost.multicast.iface", "");
+    public static final int MULTICAST_KEYFRAME_INTERVAL = 30; // Frames between forced keyframes
+
+    // ===== STUDENT SCREEN DELTAS =====
+    // Students send only the screen tiles that changed, with a full keyframe every
+    // TILE_KEYFRAME_INTERVAL frames. -Dghost.tiles=false sends whole JPEGs every time.
+    public static final boolean TILE_DELTA = !"false".equals(System.getProperty("ghost.tiles"));
+    public static final int TILE_SIZE = 64; // Multiple of 16 so tiles align with JPEG blocks
+    public static final int TILE_KEYFRAME_INTERVAL = 100; // 5 seconds at 20 fps
+
+    // ===== ADAPTIVE STREAMING =====
+    // Each student adjusts its screen stream within these bounds based on admin
+    // acknowledgements and its own encode time (see StreamController).
+    public static final int STREAM_MIN_FPS = 2;
+    public static final int STREAM_MAX_FPS = 20;
+    public static final double STREAM_MIN_SCALE = 0.4;
+    public static final double STREAM_MAX_SCALE = 0.8;
+    public static final double STREAM_MIN_QUALITY = 0.4;
+    public static final double STREAM_MAX_QUALITY = 0.85;
+    public static final int STREAM_TARGET_DELAY_MS = 400; // Frame send-to-ack delay treated as congestion
+
+    // Ceilings while the admin only shows a student's thumbnail (SUBSCRIBE THUMB).
+    // Full-screen viewing (SUBSCRIBE FULL) uses the STREAM_MAX_* values above.
+    // The scales apply only when the admin did not send its display size.
+    public static final int THUMB_FPS = 2;
+    public static final double THUMB_SCALE = 0.25;
+    public static final double THUMB_QUALITY = 0.7;
+
+    // ===== ADMIN DASHBOARD =====
+    // Student frames are decoded by this many workers off the FX thread; a student whose
+    // frames arrive faster than they decode skips to its newest keyframe
+    public static final int SCREEN_DECODE_THREADS = Math.max(1,
+            Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+    // ===== FILE TRANSFER =====
+    // Files are split into content-defined chunks (boundaries follow the content, so an
+    // edit only changes the chunks around it) and students fetch only chunks they lack.
+    public static final int CHUNK_MIN_SIZE = 128 * 1024;
+    public static final int CHUNK_AVG_SIZE = 512 * 1024; // Power of two
+    public static final int CHUNK_MAX_SIZE = 2 * 1024 * 1024;
+    // Unacknowledged chunk bytes per student, so memory and the control lane stay bounded
+    public static final int FILE_WINDOW_BYTES = 4 * 1024 * 1024;
+    // A chunk the student rejected this often (its hash no longer matches: the file
+    // changed after it was offered) fails the transfer
+    public static final int FILE_CHUNK_RETRIES = 3;
+    // Clients without chunked transfer get the whole file in one packet, up to this size
+    public static final long FILE_LEGACY_MAX_BYTES = 32L * 1024 * 1024;
+
+    // ===== SWARM DISTRIBUTION =====
+    // Files of SWARM_MIN_BYTES or more go peer to peer: students fetch chunks from each
+    // other and the admin only seeds and coordinates. -Dghost.swarm=false turns it off.
+    public static final boolean SWARM_ENABLED = !"false".equals(System.getProperty("ghost.swarm"));
+    public static final long SWARM_MIN_BYTES = 16L * 1024 * 1024;
+    public static final int SWARM_PORT = Integer.getInteger("ghost.swarm.port", 5558); // Taken = any free port
+    public static final int SWARM_PARALLEL = 4; // Chunk fetches in flight per student
+    public static final int SWARM_PEER_UPLOADS = 2; // Chunks a student serves at once
+    public static final int SWARM_SEED_UPLOADS = 6; // Chunks the admin serves at once
+    // Upload cap per machine in KB/s, 0 = unlimited (-Dghost.swarm.uploadKBps)
+    public static final int SWARM_UPLOAD_KBPS = Integer.getInteger("ghost.swarm.uploadKBps", 0);
+    // A transfer nobody reported on for this long (its students never came back) is dropped
+    public static final int SWARM_TRANSFER_EXPIRY_MS = Integer.getInteger("ghost.swarm.expiry", 24 * 3600_000);
+
+    // ===== REMOTE SHELL =====
+    // Command output is streamed while the command runs, in batches of up to
+    // SHELL_BATCH_BYTES or every SHELL_BATCH_MS, whichever comes first
+    public static final int SHELL_BATCH_BYTES = 8 * 1024;
+    public static final int SHELL_BATCH_MS = 200;
+    // Unacknowledged output per command; a command that outruns the admin waits
+    public static final int SHELL_WINDOW_BYTES = 64 * 1024;
+    // Output beyond either cap is dropped (the command keeps running)
+    public static final int SHELL_MAX_BYTES = 1024 * 1024;
+    public static final int SHELL_MAX_LINES = 10_000;
+
+    // ===== OFFLINE OUTBOX =====
+    // Messages, files and one-off commands for an offline student are kept on the admin's
+    // disk (one append-only log per student) and sent in order when it reconnects, unless
+    // older than their type's TTL. LOCK, UNLOCK, BLOCK_INPUT and INTERNET are not kept:
+    // LAB_STATE brings a reconnecting student up to date. While draining, at most
+    // OUTBOX_MAX_QUEUED outbox packets sit in a student's send queue, so live packets
+    // wait behind a few at most.
+    public static final String OUTBOX_DIR = System.getProperty("ghost.outbox.dir",
+            System.getProperty("user.home") + "/.ghost/outbox");
+    public static final int OUTBOX_MSG_TTL_MS = Integer.getInteger("ghost.outbox.ttl.msg", 24 * 3600_000);
+    public static final int OUTBOX_FILE_TTL_MS = Integer.getInteger("ghost.outbox.ttl.file", 24 * 3600_000);
+    public static final int OUTBOX_COMMAND_TTL_MS = Integer.getInteger("ghost.outbox.ttl.command", 10 * 60_000); // SHUTDOWN, RESTART, MUTE
+    public static final int OUTBOX_MAX_RECORDS = 1000; // Per student; the oldest are dropped beyond
+    public static final int OUTBOX_MAX_QUEUED = 16;
+    public static final int OUTBOX_DRAIN_INTERVAL_MS = 50;
+    public static final int OUTBOX_COMPACT_MIN = 64; // Delivered records before a log is rewritten
+    // Lock, input and internet state the admin asked for, kept across admin restarts
+    public static final String LAB_STATE_FILE = System.getProperty("ghost.labstate.file",
+            System.getProperty("user.home") + "/.ghost/labstate.json");
+
+    // ===== COMMAND TRACKING =====
+    // Students acknowledge tracked commands on receipt (ACK) and report the outcome (RESULT)
+    public static final int COMMAND_ACK_TIMEOUT_MS = 5000;
+    public static final int COMMAND_RESULT_TIMEOUT_MS = 30_000; // After the ACK
+    public static final int COMMAND_SHELL_TIMEOUT_MS = 10 * 60_000; // Shell commands may run long
+    public static final int COMMAND_HISTORY = 50; // Commands kept for the dashboard
+
+    // ===== FAN-OUT EXECUTION =====
+    // Lab-wide shell runs: students running at once, deadline for the whole run,
+    // and how much output is kept per student (the tail)
+    public static final int FANOUT_CONCURRENCY = 16;
+    public static final int FANOUT_DEADLINE_MS = 2 * 60_000;
+    public static final int FANOUT_KEEP_CHARS = 16 * 1024;
+    // Rollouts (fan-outs with retries): first retry after about ROLLOUT_RETRY_BACKOFF_MS,
+    // doubling per attempt up to ROLLOUT_MAX_BACKOFF_MS. The failure-rate stop needs at
+    // least ROLLOUT_MIN_HOSTS finished students. A student that does not confirm a
+    // timeout cancel within ROLLOUT_CANCEL_GRACE_MS is given up on.
+    public static final int ROLLOUT_RETRY_BACKOFF_MS = 5000;
+    public static final int ROLLOUT_MAX_BACKOFF_MS = 60_000;
+    public static final int ROLLOUT_MIN_HOSTS = 5;
+    public static final int ROLLOUT_CANCEL_GRACE_MS = 10_000;
 }
@@ -0,0 +1,124 @@
+package com.ghost.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+/**
+ * Splits a byte stream into content-defined chunks and hashes each one.
+ *
+ * A gear rolling hash over the last bytes decides where chunks end, so
+ * boundaries depend on the content rather than on offsets: inserting a line
+ * near the top of an edited file changes the chunk around the edit and leaves
+ * every later boundary, and so every later chunk hash, where it was. Fixed-size
+ * chunks would all shift and all miss. Normalized chunking (a stricter mask
+ * before the average size, a looser one after) keeps sizes close to the
+ * average.
+ */
+public final class ContentChunker {
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x47686f7374L); // Fixed: every peer must cut at the same places
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    public interface Sink {
+        void chunk(long offset, int length, String sha256Hex) throws IOException;
+    }
+
+    private ContentChunker() {
+    }
+
+    /**
+     * Reads the channel to the end and reports every chunk in order
+     *
+     * @param min smallest chunk (except the last)
+     * @param avg target average, a power of two
+     * @param max largest chunk
+     */
+    public static void split(ReadableByteChannel in, int min, int avg, int max, Sink sink) throws IOException {
+        int bits = Integer.numberOfTrailingZeros(avg);
+        long strictMask = mask(bits + 1); // Before avg: boundaries are rarer
+        long looseMask = mask(bits - 1); // After avg: boundaries are likelier
+
+        MessageDigest sha = sha256();
+        ByteBuffer buf = ByteBuffer.allocate(256 * 1024);
+        long chunkStart = 0;
+        int length = 0;
+        long hash = 0;
+        while (in.read(buf) >= 0 || buf.position() > 0) {
+            buf.flip();
+            if (!buf.hasRemaining())
+                break;
+            byte[] a = buf.array();
+            int start = buf.position();
+            int end = buf.limit();
+            int from = start;
+            for (int i = start; i < end; i++) {
+                hash = (hash << 1) + GEAR[a[i] & 0xFF];
+                length++;
+                boolean cut;
+                if (length < min) {
+                    cut = false;
+                } else if (length >= max) {
+                    cut = true;
+                } else {
+                    cut = (hash & (length < avg ? strictMask : looseMask)) == 0;
+                }
+                if (cut) {
+                    sha.update(a, from, i + 1 - from);
+                    sink.chunk(chunkStart, length, hex(sha.digest()));
+                    chunkStart += length;
+                    length = 0;
+                    hash = 0;
+                    from = i + 1;
+                }
+            }
+            sha.update(a, from, end - from);
+            buf.clear();
+        }
+        if (length > 0) {
+            sink.chunk(chunkStart, length, hex(sha.digest()));
+        }
+    }
+
+    /**
+     * Mask with the given number of bits spread over the hash, as FastCDC does,
+     * so the decision depends on more than the last few bytes
+     */
+    private static long mask(int bits) {
+        long m = 0;
+        for (int i = 0; i < bits; i++) {
+            m |= 1L << (63 - i * 2 % 64);
+        }
+        return m;
+    }
+
+    public static String sha256Hex(byte[] data, int offset, int length) {
+        MessageDigest sha = sha256();
+        sha.update(data, offset, length);
+        return hex(sha.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Every JRE has SHA-256
+        }
+    }
+
+    private static String hex(byte[] digest) {
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
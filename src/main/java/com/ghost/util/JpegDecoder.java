@@ -0,0 +1,159 @@
+package com.ghost.util;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.function.IntBinaryOperator;
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/**
+ * Decodes JPEG frames into one reused pixel buffer, optionally subsampled.
+ *
+ * Frames decode straight into a kept TYPE_3BYTE_BGR image (the reader's own
+ * layout, so it converts nothing on the way), read from the caller's array
+ * without copying it or caching it to a file. The image only grows, to the
+ * largest frame seen. ImageIO's reader still copies each decoded row into it
+ * through a fresh row array, so a frame leaves about its own size in
+ * short-lived garbage. The pixels stay valid until the next decode. Not
+ * thread-safe: use one per decoding thread.
+ */
+public class JpegDecoder {
+    private final ImageReader reader;
+    private BufferedImage destination; // Grows, never shrinks
+    private byte[] pixels; // destination's, 3 bytes per pixel
+    private int width;
+    private int height;
+    private int sourceWidth;
+    private int sourceHeight;
+    private int factor = 1;
+
+    public JpegDecoder() {
+        Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName("jpeg");
+        if (!readers.hasNext())
+            throw new IllegalStateException("No JPEG reader available");
+        reader = readers.next();
+    }
+
+    /**
+     * Decodes a JPEG, keeping every factor-th pixel of every factor-th row.
+     *
+     * @param factorForSize picks the subsampling from the JPEG's size (width,
+     *                      height); 1 = full size
+     * @return false if the image is empty
+     */
+    public boolean decode(byte[] data, int offset, int length, IntBinaryOperator factorForSize) throws IOException {
+        try (ArrayInputStream in = new ArrayInputStream(data, offset, length)) {
+            reader.setInput(in, false, true);
+            sourceWidth = reader.getWidth(0);
+            sourceHeight = reader.getHeight(0);
+            factor = Math.max(1, factorForSize.applyAsInt(sourceWidth, sourceHeight));
+            width = (sourceWidth + factor - 1) / factor;
+            height = (sourceHeight + factor - 1) / factor;
+            if (width == 0 || height == 0)
+                return false;
+            if (destination == null || destination.getWidth() < width || destination.getHeight() < height) {
+                int w = destination == null ? width : Math.max(width, destination.getWidth());
+                int h = destination == null ? height : Math.max(height, destination.getHeight());
+                destination = new BufferedImage(w, h, BufferedImage.TYPE_3BYTE_BGR);
+                pixels = ((DataBufferByte) destination.getRaster().getDataBuffer()).getData();
+            }
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceSubsampling(factor, factor, 0, 0);
+            param.setDestination(destination);
+            try {
+                reader.read(0, param);
+            } catch (IIOException e) {
+                // Not decodable to BGR directly (grayscale, CMYK): decode as is and convert
+                param.setDestination(null);
+                BufferedImage image = reader.read(0, param);
+                Graphics2D g = destination.createGraphics();
+                g.drawImage(image, 0, 0, null);
+                g.dispose();
+            }
+            return true;
+        } finally {
+            reader.reset();
+        }
+    }
+
+    /**
+     * Copies a region of the last decoded frame as opaque ARGB (which is also
+     * premultiplied ARGB) into dst
+     */
+    public void copyTo(int x, int y, int w, int h, int[] dst, int dstOffset, int dstStride) {
+        int stride = destination.getWidth() * 3;
+        for (int row = 0; row < h; row++) {
+            int src = (y + row) * stride + x * 3;
+            int out = dstOffset + row * dstStride;
+            for (int i = 0; i < w; i++, src += 3) {
+                dst[out + i] = 0xFF000000 | (pixels[src + 2] & 0xFF) << 16 | (pixels[src + 1] & 0xFF) << 8
+                        | (pixels[src] & 0xFF);
+            }
+        }
+    }
+
+    /** Size of the last decoded frame */
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /** Size of the last frame before subsampling */
+    public int getSourceWidth() {
+        return sourceWidth;
+    }
+
+    public int getSourceHeight() {
+        return sourceHeight;
+    }
+
+    public int getFactor() {
+        return factor;
+    }
+
+    /** Reads a slice of an array in place; ImageIO's own streams copy it to a cache */
+    private static class ArrayInputStream extends ImageInputStreamImpl {
+        private final byte[] data;
+        private final int offset;
+        private final int length;
+
+        ArrayInputStream(byte[] data, int offset, int length) {
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int read() {
+            bitOffset = 0;
+            return streamPos < length ? data[offset + (int) streamPos++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            bitOffset = 0;
+            if (len == 0)
+                return 0;
+            if (streamPos >= length)
+                return -1;
+            int n = (int) Math.min(len, length - streamPos);
+            System.arraycopy(data, offset + (int) streamPos, b, off, n);
+            streamPos += n;
+            return n;
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+    }
+}
@@ -52,58 +52,118 @@ public class ScreenCapture {
      * @return Base64 encoded JPEG string
      */
     public static String captureAsBase64(double resolutionScale, float jpegQuality) {
+        byte[] jpeg = captureAsJpeg(resolutionScale, jpegQuality);
+        return jpeg != null ? Base64.getEncoder().encodeToString(jpeg) : null;
+    }
+
+    /**
+     * Captures the screen with configurable resolution and JPEG quality
+     * 
+     * @param resolutionScale Scale factor (0.1 to 1.0) for resolution
+     * @param jpegQuality     JPEG compression quality (0.0 to 1.0)
+     * @return Raw JPEG bytes, ready for a binary frame
+     */
+    public static byte[] captureAsJpeg(double resolutionScale, float jpegQuality) {
         try {
-            // Capture screen
-            BufferedImage capture = robot.createScreenCapture(screenRect);
-
-            // Calculate target dimensions
-            int newWidth = (int) (capture.getWidth() * resolutionScale);
-            int newHeight = (int) (capture.getHeight() * resolutionScale);
-
-            // Reuse buffer if same size, otherwise create new
-            if (reusableBuffer == null || reusableBuffer.getWidth() != newWidth
-                    || reusableBuffer.getHeight() != newHeight) {
-                if (reusableGraphics != null)
-                    reusableGraphics.dispose();
-                reusableBuffer = new BufferedImage(newWidth, newHeight, BufferedImage.TYPE_INT_RGB);
-                reusableGraphics = reusableBuffer.createGraphics();
-                reusableGraphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
-                        RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-                reusableGraphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED);
-            }
-
-            // Scale into reusable buffer
-            reusableGraphics.drawImage(capture, 0, 0, newWidth, newHeight, null);
-
-            // Encode with quality control
-            ByteArrayOutputStream baos = new ByteArrayOutputStream(50000); // Pre-allocate
-
-            // Use ImageWriter for quality control
-            Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpg");
-            if (writers.hasNext()) {
-                ImageWriter writer = writers.next();
-                ImageWriteParam param = writer.getDefaultWriteParam();
-                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-                param.setCompressionQuality(jpegQuality);
-
-                ImageOutputStream ios = ImageIO.createImageOutputStream(baos);
-                writer.setOutput(ios);
-                writer.write(null, new IIOImage(reusableBuffer, null, null), param);
-                writer.dispose();
-                ios.close();
-            } else {
-                // Fallback
-                ImageIO.write(reusableBuffer, "jpg", baos);
-            }
-
-            return Base64.getEncoder().encodeToString(baos.toByteArray());
+            return encodeJpeg(captureToSize(scaledSize(resolutionScale)), jpegQuality);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
 
+    /**
+     * Captures the screen at an exact pixel size, as JPEG
+     */
+    public static byte[] captureAsJpeg(Dimension size, float jpegQuality) {
+        try {
+            return encodeJpeg(captureToSize(size), jpegQuality);
         } catch (Exception e) {
             e.printStackTrace();
             return null;
         }
     }
 
+    /**
+     * Native screen size times a resolution scale
+     */
+    public static Dimension scaledSize(double resolutionScale) {
+        return new Dimension(Math.max(1, (int) (screenRect.width * resolutionScale)),
+                Math.max(1, (int) (screenRect.height * resolutionScale)));
+    }
+
+    /**
+     * Size to capture for a viewer showing the screen in a viewWidth x
+     * viewHeight box: fitted inside it when the viewer preserves the aspect
+     * ratio, stretched to it otherwise, never larger than the screen itself.
+     * The result is multiplied by scale (below 1 when the network is short).
+     */
+    public static Dimension viewSize(int viewWidth, int viewHeight, boolean preserveRatio, double scale) {
+        double fx = Math.min(1.0, (double) viewWidth / screenRect.width);
+        double fy = Math.min(1.0, (double) viewHeight / screenRect.height);
+        if (preserveRatio) {
+            fx = fy = Math.min(fx, fy);
+        }
+        return new Dimension(Math.max(16, (int) (screenRect.width * fx * scale)),
+                Math.max(16, (int) (screenRect.height * fy * scale)));
+    }
+
+    /**
+     * Captures the screen scaled into a reused TYPE_INT_RGB buffer. The image is
+     * overwritten by the next capture.
+     */
+    private static BufferedImage captureToSize(Dimension size) {
+        // Capture screen
+        BufferedImage capture = robot.createScreenCapture(screenRect);
+
+        int newWidth = size.width;
+        int newHeight = size.height;
+
+        // Reuse buffer if same size, otherwise create new
+        if (reusableBuffer == null || reusableBuffer.getWidth() != newWidth
+                || reusableBuffer.getHeight() != newHeight) {
+            if (reusableGraphics != null)
+                reusableGraphics.dispose();
+            reusableBuffer = new BufferedImage(newWidth, newHeight, BufferedImage.TYPE_INT_RGB);
+            reusableGraphics = reusableBuffer.createGraphics();
+            reusableGraphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            reusableGraphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED);
+        }
+
+        // Scale into reusable buffer
+        reusableGraphics.drawImage(capture, 0, 0, newWidth, newHeight, null);
+
+        return reusableBuffer;
+    }
+
+    /**
+     * JPEG-encodes an image with quality control
+     */
+    public static byte[] encodeJpeg(BufferedImage image, float jpegQuality) throws java.io.IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(50000); // Pre-allocate
+
+        // Use ImageWriter for quality control
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpg");
+        if (writers.hasNext()) {
+            ImageWriter writer = writers.next();
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+
+            ImageOutputStream ios = ImageIO.createImageOutputStream(baos);
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(image, null, null), param);
+            writer.dispose();
+            ios.close();
+        } else {
+            // Fallback
+            ImageIO.write(image, "jpg", baos);
+        }
+
+        return baos.toByteArray();
+    }
+
     /**
      * Captures at maximum quality (full resolution, high JPEG quality)
      */
@@ -118,6 +178,26 @@ public class ScreenCapture {
         return captureAsBase64(0.8, 0.85f); // 80% resolution, 85% JPEG quality
     }
 
+    /**
+     * Same as captureForStreaming, as raw JPEG bytes for binary frames
+     */
+    public static byte[] captureForStreamingJpeg() {
+        return captureAsJpeg(0.8, 0.85f);
+    }
+
+    /**
+     * Capture through a tile encoder at an exact pixel size: a JPEG keyframe,
+     * a TileFrame delta, or null when the screen did not change
+     */
+    public static byte[] captureAsTiles(TileEncoder encoder, Dimension size, float jpegQuality) {
+        try {
+            return encoder.encode(captureToSize(size), jpegQuality);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
     /**
      * Decodes Base64 to BufferedImage for display
      */
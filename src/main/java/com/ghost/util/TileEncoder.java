@@ -0,0 +1,176 @@
+package com.ghost.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Turns consecutive screen captures into keyframes and tile deltas.
+ *
+ * The screen is split into fixed tiles and each tile's pixels are hashed.
+ * Only tiles whose hash changed are JPEG-encoded (together, as one atlas image),
+ * so a blinking cursor costs one small tile instead of a whole screen.
+ * A full JPEG keyframe goes out on the first frame, every keyframeInterval
+ * frames, when requestKeyframe() is called, and when most of the screen changed.
+ */
+public class TileEncoder {
+    private static final int MAX_ATLAS_COLUMNS = 16;
+    private static final double KEYFRAME_CHANGE_RATIO = 0.6; // Past this, one full JPEG is cheaper
+    private static final long PRIME_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME_3 = 0x165667B19E3779F9L;
+
+    private final int tileSize;
+    private final int keyframeInterval;
+    private int width = -1;
+    private int height = -1;
+    private int columns;
+    private int rows;
+    private long[] hashes;
+    private int[] changed;
+    private BufferedImage atlas;
+    private int framesSinceKeyframe;
+    private volatile boolean keyframeRequested = true;
+
+    public TileEncoder(int tileSize, int keyframeInterval) {
+        this.tileSize = tileSize;
+        this.keyframeInterval = keyframeInterval;
+    }
+
+    /**
+     * The next frame will be a full keyframe (a viewer joined or lost track)
+     */
+    public void requestKeyframe() {
+        keyframeRequested = true;
+    }
+
+    /**
+     * Encodes the next frame.
+     *
+     * @param frame a TYPE_INT_RGB image; it may be reused by the caller afterwards
+     * @return a JPEG keyframe, a TileFrame delta, or null if nothing changed
+     */
+    public synchronized byte[] encode(BufferedImage frame, float jpegQuality) throws IOException {
+        if (frame.getType() != BufferedImage.TYPE_INT_RGB)
+            return ScreenCapture.encodeJpeg(frame, jpegQuality);
+
+        boolean keyframe = keyframeRequested || framesSinceKeyframe >= keyframeInterval;
+        if (frame.getWidth() != width || frame.getHeight() != height) {
+            resize(frame.getWidth(), frame.getHeight());
+            keyframe = true;
+        }
+
+        int[] pixels = ((DataBufferInt) frame.getRaster().getDataBuffer()).getData();
+        int count = 0;
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < columns; col++) {
+                int tile = row * columns + col;
+                long hash = hashTile(pixels, col, row);
+                if (hash != hashes[tile]) {
+                    hashes[tile] = hash;
+                    changed[count++] = tile;
+                }
+            }
+        }
+
+        if (!keyframe && count > hashes.length * KEYFRAME_CHANGE_RATIO)
+            keyframe = true;
+        if (keyframe) {
+            keyframeRequested = false;
+            framesSinceKeyframe = 0;
+            return ScreenCapture.encodeJpeg(frame, jpegQuality);
+        }
+        framesSinceKeyframe++;
+        if (count == 0)
+            return null;
+        return encodeDelta(pixels, count, jpegQuality);
+    }
+
+    private void resize(int newWidth, int newHeight) {
+        width = newWidth;
+        height = newHeight;
+        columns = (width + tileSize - 1) / tileSize;
+        rows = (height + tileSize - 1) / tileSize;
+        hashes = new long[columns * rows];
+        changed = new int[columns * rows];
+    }
+
+    /**
+     * xxHash64-style: every pixel goes through a multiply-rotate round, so a
+     * change can't be cancelled by another one elsewhere in the tile the way
+     * it can with 31 * hash + pixel. Four lanes keep the multiplies from
+     * waiting on each other.
+     */
+    private long hashTile(int[] pixels, int col, int row) {
+        int x0 = col * tileSize;
+        int y0 = row * tileSize;
+        int w = Math.min(tileSize, width - x0);
+        int h = Math.min(tileSize, height - y0);
+        long a0 = PRIME_1 + PRIME_2;
+        long a1 = PRIME_2;
+        long a2 = 0;
+        long a3 = -PRIME_1;
+        for (int y = y0; y < y0 + h; y++) {
+            int p = y * width + x0;
+            int end = p + w;
+            for (; p + 4 <= end; p += 4) {
+                a0 = round(a0, pixels[p]);
+                a1 = round(a1, pixels[p + 1]);
+                a2 = round(a2, pixels[p + 2]);
+                a3 = round(a3, pixels[p + 3]);
+            }
+            for (; p < end; p++) {
+                a0 = round(a0, pixels[p]);
+            }
+        }
+        long hash = Long.rotateLeft(a0, 1) + Long.rotateLeft(a1, 7) + Long.rotateLeft(a2, 12)
+                + Long.rotateLeft(a3, 18);
+        hash = (hash ^ (hash >>> 33)) * PRIME_2;
+        hash = (hash ^ (hash >>> 29)) * PRIME_3;
+        return hash ^ (hash >>> 32);
+    }
+
+    private static long round(long acc, int pixel) {
+        return Long.rotateLeft(acc + pixel * PRIME_2, 31) * PRIME_1;
+    }
+
+    private byte[] encodeDelta(int[] pixels, int count, float jpegQuality) throws IOException {
+        int atlasColumns = Math.min(count, MAX_ATLAS_COLUMNS);
+        int atlasRows = (count + atlasColumns - 1) / atlasColumns;
+        int atlasWidth = atlasColumns * tileSize;
+        int atlasHeight = atlasRows * tileSize;
+        if (atlas == null || atlas.getWidth() != atlasWidth || atlas.getHeight() != atlasHeight) {
+            atlas = new BufferedImage(atlasWidth, atlasHeight, BufferedImage.TYPE_INT_RGB);
+        }
+        int[] atlasPixels = ((DataBufferInt) atlas.getRaster().getDataBuffer()).getData();
+
+        ByteBuffer header = ByteBuffer.allocate(TileFrame.FIXED_HEADER_SIZE + count * 4);
+        header.put(TileFrame.MAGIC_0).put(TileFrame.MAGIC_1).put(TileFrame.VERSION).put((byte) 0);
+        header.putShort((short) width).putShort((short) height);
+        header.putShort((short) tileSize).putShort((short) atlasColumns).putShort((short) count);
+
+        for (int i = 0; i < count; i++) {
+            int col = changed[i] % columns;
+            int row = changed[i] / columns;
+            header.putShort((short) col).putShort((short) row);
+
+            int x0 = col * tileSize;
+            int y0 = row * tileSize;
+            int w = Math.min(tileSize, width - x0);
+            int h = Math.min(tileSize, height - y0);
+            int ax = (i % atlasColumns) * tileSize;
+            int ay = (i / atlasColumns) * tileSize;
+            for (int y = 0; y < h; y++) {
+                System.arraycopy(pixels, (y0 + y) * width + x0, atlasPixels, (ay + y) * atlasWidth + ax, w);
+            }
+        }
+
+        byte[] jpeg = ScreenCapture.encodeJpeg(atlas, jpegQuality);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(header.position() + jpeg.length);
+        out.write(header.array(), 0, header.position());
+        out.write(jpeg);
+        return out.toByteArray();
+    }
+}
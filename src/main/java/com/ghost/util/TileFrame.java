@@ -0,0 +1,110 @@
+package com.ghost.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A delta screen frame: only the tiles that changed since the previous frame,
+ * packed side by side into one JPEG "atlas".
+ *
+ * <pre>
+ *   [2] magic 'G' 'T'
+ *   [1] version
+ *   [1] reserved
+ *   [2] screen width
+ *   [2] screen height
+ *   [2] tile size
+ *   [2] atlas columns (tiles per atlas row)
+ *   [2] tile count n
+ *   n x ([2] tile column, [2] tile row)
+ *   [..] atlas JPEG, tile i at ((i % atlasColumns) * tileSize, (i / atlasColumns) * tileSize)
+ * </pre>
+ *
+ * Keyframes are plain JPEGs of the whole screen, which start with 0xFF 0xD8 and
+ * so can never be mistaken for a tile frame.
+ */
+public class TileFrame {
+    static final byte MAGIC_0 = 'G';
+    static final byte MAGIC_1 = 'T';
+    static final byte VERSION = 1;
+    static final int FIXED_HEADER_SIZE = 14;
+
+    public final int width;
+    public final int height;
+    public final int tileSize;
+    public final int atlasColumns;
+    public final int[] tileColumns;
+    public final int[] tileRows;
+    public final int atlasOffset;
+    public final int atlasLength;
+
+    private TileFrame(int width, int height, int tileSize, int atlasColumns, int[] tileColumns, int[] tileRows,
+            int atlasOffset, int atlasLength) {
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.atlasColumns = atlasColumns;
+        this.tileColumns = tileColumns;
+        this.tileRows = tileRows;
+        this.atlasOffset = atlasOffset;
+        this.atlasLength = atlasLength;
+    }
+
+    public static boolean isTileFrame(byte[] frame) {
+        return frame != null && frame.length >= FIXED_HEADER_SIZE && frame[0] == MAGIC_0 && frame[1] == MAGIC_1;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the frame is truncated or not a tile frame
+     */
+    public static TileFrame parse(byte[] frame) {
+        if (!isTileFrame(frame) || frame[2] != VERSION)
+            throw new IllegalArgumentException("Not a tile frame");
+        ByteBuffer buf = ByteBuffer.wrap(frame, 4, frame.length - 4);
+        int width = buf.getShort() & 0xFFFF;
+        int height = buf.getShort() & 0xFFFF;
+        int tileSize = buf.getShort() & 0xFFFF;
+        int atlasColumns = buf.getShort() & 0xFFFF;
+        int count = buf.getShort() & 0xFFFF;
+        if (tileSize == 0 || atlasColumns == 0 || buf.remaining() < count * 4)
+            throw new IllegalArgumentException("Corrupt tile frame header");
+
+        int[] cols = new int[count];
+        int[] rows = new int[count];
+        for (int i = 0; i < count; i++) {
+            cols[i] = buf.getShort() & 0xFFFF;
+            rows[i] = buf.getShort() & 0xFFFF;
+        }
+        return new TileFrame(width, height, tileSize, atlasColumns, cols, rows, buf.position(), buf.remaining());
+    }
+
+    public int getTileCount() {
+        return tileColumns.length;
+    }
+
+    /** Screen position of tile i */
+    public int screenX(int i) {
+        return tileColumns[i] * tileSize;
+    }
+
+    public int screenY(int i) {
+        return tileRows[i] * tileSize;
+    }
+
+    /** Visible size of tile i; edge tiles are cut off by the screen border */
+    public int tileWidth(int i) {
+        return Math.max(0, Math.min(tileSize, width - screenX(i)));
+    }
+
+    public int tileHeight(int i) {
+        return Math.max(0, Math.min(tileSize, height - screenY(i)));
+    }
+
+    /** Position of tile i inside the atlas image */
+    public int atlasX(int i) {
+        return (i % atlasColumns) * tileSize;
+    }
+
+    public int atlasY(int i) {
+        return (i / atlasColumns) * tileSize;
+    }
+}